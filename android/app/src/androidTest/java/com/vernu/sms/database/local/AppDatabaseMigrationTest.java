@@ -0,0 +1,61 @@
+package com.vernu.sms.database.local;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Migrates databases created from the exported schemas, so a queued row written by an
+ * older release is still there, still QUEUED, once the app upgrades.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppDatabaseMigrationTest {
+    private static final String TEST_DB = "migration-test";
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(), AppDatabase.class);
+
+    @Test
+    public void migrate3To6KeepsQueuedRows() throws IOException {
+        try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 3)) {
+            db.execSQL("INSERT INTO sms (_id, status, last_recipient, message, is_encrypted, recipient, type, retry_count)"
+                    + " VALUES ('sms-1', 'QUEUED', 1, 'hello', 0, '+15550100', 'SENT', 0)");
+        }
+
+        try (SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 6, true,
+                AppDatabase.MIGRATION_3_4, AppDatabase.MIGRATION_4_5, AppDatabase.MIGRATION_5_6);
+             Cursor cursor = db.query("SELECT _id, status, subscription_id, attempt_count, attempt_history, submitted_at FROM sms")) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("sms-1", cursor.getString(0));
+            assertEquals("QUEUED", cursor.getString(1));
+            assertEquals(-1, cursor.getInt(2));
+            assertEquals(1, cursor.getInt(3));
+            assertTrue(cursor.isNull(4));
+            assertTrue(cursor.isNull(5));
+            assertEquals(1, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void migrate5To6AddsSubmittedAtIndex() throws IOException {
+        helper.createDatabase(TEST_DB, 5).close();
+
+        try (SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 6, true, AppDatabase.MIGRATION_5_6);
+             Cursor cursor = db.query("SELECT name FROM sqlite_master WHERE type = 'index' AND name = 'index_sms_status_submitted_at'")) {
+            assertEquals(1, cursor.getCount());
+        }
+    }
+}
@@ -1,33 +1,85 @@
 package com.vernu.sms;
 
+import com.vernu.sms.json.GatewayGson;
+import com.vernu.sms.services.CachingDns;
+import com.vernu.sms.services.CallTimeoutInterceptor;
 import com.vernu.sms.services.GatewayApiService;
+import com.vernu.sms.services.GatewayEventListener;
+import com.vernu.sms.services.GzipRequestInterceptor;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
 public class ApiManager {
-    private static GatewayApiService apiService;
+    // Polls come every 5 s while busy and back off to 5 min when idle (PollingScheduler);
+    // keep connections alive for the whole range so even an idle poll can reuse one
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MS = 5 * 60 * 1000;
+    private static final long CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final long READ_TIMEOUT_MS = 20 * 1000;
+    private static final long WRITE_TIMEOUT_MS = 20 * 1000;
+
+    private static volatile OkHttpClient httpClient;
+    private static volatile GatewayApiService apiService;
 
     public static GatewayApiService getApiService() {
         if (apiService == null) {
-            apiService = createApiService();
+            synchronized (ApiManager.class) {
+                if (apiService == null) {
+                    apiService = createApiService();
+                }
+            }
         }
         return apiService;
     }
 
-    private static GatewayApiService createApiService() {
-//        OkHttpClient.Builder httpClient = new OkHttpClient.Builder();
+    /**
+     * The client behind every gateway call. Other clients should derive from it with
+     * newBuilder() so they share its connection pool and dispatcher.
+     */
+    public static OkHttpClient getHttpClient() {
+        if (httpClient == null) {
+            synchronized (ApiManager.class) {
+                if (httpClient == null) {
+                    httpClient = createHttpClient();
+                }
+            }
+        }
+        return httpClient;
+    }
+
+    private static OkHttpClient createHttpClient() {
 //        HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor();
 //        loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
-//        httpClient.addInterceptor(loggingInterceptor);
 
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .dns(new CachingDns(Dns.SYSTEM))
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .writeTimeout(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .addInterceptor(new CallTimeoutInterceptor())
+                .addInterceptor(new GzipRequestInterceptor())
+                .eventListenerFactory(GatewayEventListener.FACTORY)
+//                .addInterceptor(loggingInterceptor)
+                .build();
+    }
+
+    private static GatewayApiService createApiService() {
         Retrofit retrofit = new Retrofit.Builder()
                 .baseUrl(AppConstants.API_BASE_URL)
-//                .client(httpClient.build())
-                .addConverterFactory(GsonConverterFactory.create())
+                .client(getHttpClient())
+                .addConverterFactory(GsonConverterFactory.create(GatewayGson.get()))
                 .build();
-        apiService = retrofit.create(GatewayApiService.class);
-
         return retrofit.create(GatewayApiService.class);
     }
 }
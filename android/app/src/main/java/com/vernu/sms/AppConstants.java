@@ -19,4 +19,7 @@ public class AppConstants {
     public static final String SHARED_PREFS_LAST_VERSION_CODE_KEY = "LAST_VERSION_CODE";
     public static final String SHARED_PREFS_LAST_VERSION_NAME_KEY = "LAST_VERSION_NAME";
     public static final String SHARED_PREFS_STICKY_NOTIFICATION_ENABLED_KEY = "STICKY_NOTIFICATION_ENABLED";
+    public static final String SHARED_PREFS_STREAM_MODE_ENABLED_KEY = "STREAM_MODE_ENABLED";
+    public static final String SHARED_PREFS_SIM_BALANCING_POLICY_KEY = "SIM_BALANCING_POLICY";
+    public static final String SHARED_PREFS_INBOX_BACKFILL_LAST_ID_KEY = "INBOX_BACKFILL_LAST_ID";
 }
@@ -1,14 +1,26 @@
 package com.vernu.sms;
 
 import android.app.Application;
+import android.util.Log;
 
 import androidx.work.Configuration;
 import androidx.work.WorkManager;
 
+import com.vernu.sms.metrics.MessageTrace;
+
+import java.io.IOException;
+
 public class SMSGatewayApplication extends Application implements Configuration.Provider {
+    private static final String TAG = "SMSGatewayApplication";
+
     @Override
     public void onCreate() {
         super.onCreate();
+        try {
+            MessageTrace.open(getFilesDir());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open the message trace: " + e.getMessage());
+        }
     }
     
     @Override
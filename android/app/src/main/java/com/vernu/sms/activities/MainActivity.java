@@ -1,6 +1,7 @@
 package com.vernu.sms.activities;
 
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import android.content.ClipData;
@@ -30,9 +31,14 @@ import com.vernu.sms.TextBeeUtils;
 import com.vernu.sms.R;
 import com.vernu.sms.dtos.RegisterDeviceInputDTO;
 import com.vernu.sms.dtos.RegisterDeviceResponseDTO;
+import com.vernu.sms.helpers.MessageTraceExporter;
 import com.vernu.sms.helpers.SharedPreferenceHelper;
+import com.vernu.sms.helpers.SimBalancer;
 import com.vernu.sms.helpers.VersionTracker;
+import com.vernu.sms.workers.InboxBackfillWorker;
+import com.vernu.sms.workers.MetricsReportWorker;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
+import java.io.File;
 import java.util.Arrays;
 import java.util.Objects;
 import retrofit2.Call;
@@ -42,12 +48,12 @@ import retrofit2.Response;
 public class MainActivity extends AppCompatActivity {
 
     private Context mContext;
-    private Switch gatewaySwitch, receiveSMSSwitch, stickyNotificationSwitch;
+    private Switch gatewaySwitch, receiveSMSSwitch, stickyNotificationSwitch, streamModeSwitch;
     private EditText apiKeyEditText, fcmTokenEditText, deviceIdEditText;
-    private Button registerDeviceBtn, grantSMSPermissionBtn, scanQRBtn, checkUpdatesBtn;
+    private Button registerDeviceBtn, grantSMSPermissionBtn, scanQRBtn, checkUpdatesBtn, exportMessageTraceBtn;
     private ImageButton copyDeviceIdImgBtn;
     private TextView deviceBrandAndModelTxt, deviceIdTxt, appVersionNameTxt, appVersionCodeTxt;
-    private RadioGroup defaultSimSlotRadioGroup;
+    private RadioGroup defaultSimSlotRadioGroup, simBalancingPolicyRadioGroup;
     private static final int SCAN_QR_REQUEST_CODE = 49374;
     private static final int PERMISSION_REQUEST_CODE = 0;
     private String deviceId = null;
@@ -60,9 +66,11 @@ public class MainActivity extends AppCompatActivity {
         mContext = getApplicationContext();
         deviceId = SharedPreferenceHelper.getSharedPreferenceString(mContext, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, "");
         setContentView(R.layout.activity_main);
+        MetricsReportWorker.schedule(mContext);
         gatewaySwitch = findViewById(R.id.gatewaySwitch);
         receiveSMSSwitch = findViewById(R.id.receiveSMSSwitch);
         stickyNotificationSwitch = findViewById(R.id.stickyNotificationSwitch);
+        streamModeSwitch = findViewById(R.id.streamModeSwitch);
         apiKeyEditText = findViewById(R.id.apiKeyEditText);
         fcmTokenEditText = findViewById(R.id.fcmTokenEditText);
         deviceIdEditText = findViewById(R.id.deviceIdEditText);
@@ -73,9 +81,11 @@ public class MainActivity extends AppCompatActivity {
         deviceIdTxt = findViewById(R.id.deviceIdTxt);
         copyDeviceIdImgBtn = findViewById(R.id.copyDeviceIdImgBtn);
         defaultSimSlotRadioGroup = findViewById(R.id.defaultSimSlotRadioGroup);
+        simBalancingPolicyRadioGroup = findViewById(R.id.simBalancingPolicyRadioGroup);
         appVersionNameTxt = findViewById(R.id.appVersionNameTxt);
         appVersionCodeTxt = findViewById(R.id.appVersionCodeTxt);
         checkUpdatesBtn = findViewById(R.id.checkUpdatesBtn);
+        exportMessageTraceBtn = findViewById(R.id.exportMessageTraceBtn);
 
         deviceIdTxt.setText(deviceId);
         deviceIdEditText.setText(deviceId);
@@ -185,6 +195,9 @@ public class MainActivity extends AppCompatActivity {
             View view = compoundButton.getRootView();
             SharedPreferenceHelper.setSharedPreferenceBoolean(mContext, AppConstants.SHARED_PREFS_RECEIVE_SMS_ENABLED_KEY, isCheked);
             compoundButton.setChecked(isCheked);
+            if (isCheked) {
+                InboxBackfillWorker.schedule(mContext);
+            }
             Snackbar.make(view, "Receive SMS " + (isCheked ? "enabled" : "disabled"), Snackbar.LENGTH_LONG).show();
         });
 
@@ -203,6 +216,25 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        // The stream connection lives in the sticky notification service, which picks the
+        // mode up when it starts polling, so restart it for the change to take effect
+        streamModeSwitch.setChecked(SharedPreferenceHelper.getSharedPreferenceBoolean(mContext, AppConstants.SHARED_PREFS_STREAM_MODE_ENABLED_KEY, false));
+        streamModeSwitch.setOnCheckedChangeListener((compoundButton, isChecked) -> {
+            View view = compoundButton.getRootView();
+            SharedPreferenceHelper.setSharedPreferenceBoolean(mContext, AppConstants.SHARED_PREFS_STREAM_MODE_ENABLED_KEY, isChecked);
+
+            boolean stickyEnabled = SharedPreferenceHelper.getSharedPreferenceBoolean(mContext, AppConstants.SHARED_PREFS_STICKY_NOTIFICATION_ENABLED_KEY, false);
+            if (stickyEnabled) {
+                TextBeeUtils.stopStickyNotificationService(mContext);
+                TextBeeUtils.startStickyNotificationService(mContext);
+            }
+            if (isChecked && !stickyEnabled) {
+                Snackbar.make(view, "Stream mode enabled - turn on Sticky Notification to use it", Snackbar.LENGTH_LONG).show();
+            } else {
+                Snackbar.make(view, "Stream mode " + (isChecked ? "enabled" : "disabled"), Snackbar.LENGTH_LONG).show();
+            }
+        });
+
         // TODO: check gateway status/api key/device validity and update UI accordingly
         registerDeviceBtn.setOnClickListener(view -> {
             String _deviceId = SharedPreferenceHelper.getSharedPreferenceString(mContext, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, "");
@@ -226,6 +258,43 @@ public class MainActivity extends AppCompatActivity {
             Intent browserIntent = new Intent(Intent.ACTION_VIEW, android.net.Uri.parse(downloadUrl));
             startActivity(browserIntent);
         });
+
+        exportMessageTraceBtn.setOnClickListener(view -> showExportMessageTraceDialog());
+    }
+
+    /**
+     * Ask for an optional SMS ID, then share the message trace as NDJSON, for one message or all of them.
+     */
+    private void showExportMessageTraceDialog() {
+        EditText smsIdEditText = new EditText(this);
+        smsIdEditText.setHint("SMS ID (leave empty for all messages)");
+        smsIdEditText.setSingleLine(true);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Export Message Trace")
+                .setView(smsIdEditText)
+                .setPositiveButton("Export", (dialog, which) -> {
+                    String smsId = smsIdEditText.getText().toString().trim();
+                    exportMessageTrace(smsId.isEmpty() ? null : smsId);
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void exportMessageTrace(String smsId) {
+        exportMessageTraceBtn.setEnabled(false);
+        // The ring is up to 16k records; decode it off the main thread
+        new Thread(() -> {
+            File file = MessageTraceExporter.export(mContext, smsId);
+            runOnUiThread(() -> {
+                exportMessageTraceBtn.setEnabled(true);
+                if (file == null) {
+                    Snackbar.make(exportMessageTraceBtn, "Could not export the message trace", Snackbar.LENGTH_LONG).show();
+                    return;
+                }
+                startActivity(MessageTraceExporter.createShareIntent(mContext, file));
+            });
+        }, "textbee-trace-export").start();
     }
 
     private void renderAvailableSimOptions() {
@@ -274,12 +343,57 @@ public class MainActivity extends AppCompatActivity {
                     SharedPreferenceHelper.setSharedPreferenceInt(mContext, AppConstants.SHARED_PREFS_PREFERRED_SIM_KEY, radioButton.getId());
                 }
             });
+
+            renderSimBalancingOptions();
         } catch (Exception e) {
             Snackbar.make(defaultSimSlotRadioGroup.getRootView(), "Error: " + e.getMessage(), Snackbar.LENGTH_LONG).show();
             Log.e(TAG, "SIM_SLOT_ERROR "+ e.getMessage());
         }
     }
     
+    private void renderSimBalancingOptions() {
+        simBalancingPolicyRadioGroup.setOnCheckedChangeListener(null);
+        simBalancingPolicyRadioGroup.removeAllViews();
+        simBalancingPolicyRadioGroup.setBackgroundColor(getResources().getColor(R.color.background_secondary));
+        simBalancingPolicyRadioGroup.setPadding(16, 8, 16, 8);
+
+        SimBalancer.Policy selectedPolicy = SimBalancer.Policy.fromPreference(SharedPreferenceHelper.getSharedPreferenceString(
+                mContext, AppConstants.SHARED_PREFS_SIM_BALANCING_POLICY_KEY, SimBalancer.Policy.OFF.name()));
+        for (SimBalancer.Policy policy : SimBalancer.Policy.values()) {
+            RadioButton radioButton = new RadioButton(mContext);
+            radioButton.setText(getSimBalancingPolicyLabel(policy));
+            radioButton.setId(View.generateViewId());
+            radioButton.setTag(policy);
+            applyRadioButtonStyle(radioButton);
+            simBalancingPolicyRadioGroup.addView(radioButton);
+            if (policy == selectedPolicy) {
+                simBalancingPolicyRadioGroup.check(radioButton.getId());
+            }
+        }
+
+        simBalancingPolicyRadioGroup.setOnCheckedChangeListener((radioGroup, i) -> {
+            RadioButton radioButton = radioGroup.findViewById(i);
+            if (radioButton == null) {
+                return;
+            }
+            SimBalancer.Policy policy = (SimBalancer.Policy) radioButton.getTag();
+            SharedPreferenceHelper.setSharedPreferenceString(mContext, AppConstants.SHARED_PREFS_SIM_BALANCING_POLICY_KEY, policy.name());
+        });
+    }
+
+    private static String getSimBalancingPolicyLabel(SimBalancer.Policy policy) {
+        switch (policy) {
+            case ROUND_ROBIN:
+                return "Round Robin";
+            case LEAST_IN_FLIGHT:
+                return "Fewest Messages In Flight";
+            case QUOTA_WEIGHTED:
+                return "Most Rate Limit Left";
+            default:
+                return "Off";
+        }
+    }
+
     /**
      * Apply the custom radio button style to a programmatically created radio button
      */
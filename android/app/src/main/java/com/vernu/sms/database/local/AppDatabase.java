@@ -1,25 +1,58 @@
-//package com.vernu.sms.database.local;
-//
-//import android.content.Context;
-//import androidx.room.Database;
-//import androidx.room.Room;
-//import androidx.room.RoomDatabase;
-//
-//@Database(entities = {SMS.class}, version = 2)
-//public abstract class AppDatabase extends RoomDatabase {
-//    private static volatile AppDatabase INSTANCE;
-//
-//    public static AppDatabase getInstance(Context context) {
-//        if (INSTANCE == null) {
-//            synchronized (AppDatabase.class) {
-//                if (INSTANCE == null) {
-//                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(), AppDatabase.class, "db1")
-//                            .build();
-//                }
-//            }
-//        }
-//        return INSTANCE;
-//    }
-//
-//    public abstract SMSDao localReceivedSMSDao();
-//}
\ No newline at end of file
+package com.vernu.sms.database.local;
+
+import android.content.Context;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+@Database(entities = {SMS.class}, version = 6)
+@TypeConverters(DateConverter.class)
+public abstract class AppDatabase extends RoomDatabase {
+    private static volatile AppDatabase INSTANCE;
+
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE sms ADD COLUMN subscription_id INTEGER NOT NULL DEFAULT -1");
+        }
+    };
+
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE sms ADD COLUMN attempt_count INTEGER NOT NULL DEFAULT 1");
+            database.execSQL("ALTER TABLE sms ADD COLUMN attempt_history TEXT");
+        }
+    };
+
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE sms ADD COLUMN submitted_at INTEGER");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_sms_status_submitted_at ON sms (status, submitted_at)");
+        }
+    };
+
+    public static AppDatabase getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (AppDatabase.class) {
+                if (INSTANCE == null) {
+                    // WAL lets the sender thread read the queue while status updates are written
+                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(), AppDatabase.class, "db1")
+                            .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                            .addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6)
+                            // Versions 1 and 2 predate the outbound queue and hold nothing worth
+                            // keeping; from 3 on a missing migration must fail, not wipe the queue
+                            .fallbackToDestructiveMigrationFrom(1, 2)
+                            .build();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public abstract SMSDao smsDao();
+}
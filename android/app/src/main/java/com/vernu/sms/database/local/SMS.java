@@ -1,193 +1,310 @@
-//package com.vernu.sms.database.local;
-//
-//import androidx.annotation.NonNull;
-//import androidx.room.ColumnInfo;
-//import androidx.room.Entity;
-//import androidx.room.PrimaryKey;
-//import androidx.room.TypeConverters;
-//
-//import java.util.Date;
-//
-//@Entity(tableName = "sms")
-//@TypeConverters(DateConverter.class)
-//public class SMS {
-//
-//    public SMS() {
-//        type = null;
-//    }
-//
-//    @PrimaryKey(autoGenerate = true)
-//    private int id;
-//
-//    // This is the ID of the SMS in the server
-//    @ColumnInfo(name = "_id")
-//    private String _id;
-//
-//    @ColumnInfo(name = "message")
-//    private String message = "";
-//
-//    @ColumnInfo(name = "encrypted_message")
-//    private String encryptedMessage = "";
-//
-//    @ColumnInfo(name = "is_encrypted", defaultValue = "0")
-//    private boolean isEncrypted = false;
-//
-//    @ColumnInfo(name = "sender")
-//    private String sender;
-//
-//    @ColumnInfo(name = "recipient")
-//    private String recipient;
-//
-//    @ColumnInfo(name = "requested_at")
-//    private Date requestedAt;
-//
-//    @ColumnInfo(name = "sent_at")
-//    private Date sentAt;
-//
-//    @ColumnInfo(name = "delivered_at")
-//    private Date deliveredAt;
-//
-//    @ColumnInfo(name = "received_at")
-//    private Date receivedAt;
-//
-//    @NonNull
-//    @ColumnInfo(name = "type")
-//    private String type;
-//
-//    @ColumnInfo(name = "server_acknowledged_at")
-//    private Date serverAcknowledgedAt;
-//
-//    public boolean hasServerAcknowledged() {
-//        return serverAcknowledgedAt != null;
-//    }
-//
-//    @ColumnInfo(name = "last_acknowledged_request_at")
-//    private Date lastAcknowledgedRequestAt;
-//
-//    @ColumnInfo(name = "retry_count", defaultValue = "0")
-//    private int retryCount = 0;
-//
-//    public int getId() {
-//        return id;
-//    }
-//
-//    public void setId(int id) {
-//        this.id = id;
-//    }
-//
-//    public String get_id() {
-//        return _id;
-//    }
-//
-//    public void set_id(String _id) {
-//        this._id = _id;
-//    }
-//
-//    public String getMessage() {
-//        return message;
-//    }
-//
-//    public void setMessage(String message) {
-//        this.message = message;
-//    }
-//
-//    public String getEncryptedMessage() {
-//        return encryptedMessage;
-//    }
-//
-//    public void setEncryptedMessage(String encryptedMessage) {
-//        this.encryptedMessage = encryptedMessage;
-//    }
-//
-//    public boolean getIsEncrypted() {
-//        return isEncrypted;
-//    }
-//
-//    public void setIsEncrypted(boolean isEncrypted) {
-//        this.isEncrypted = isEncrypted;
-//    }
-//
-//    public String getSender() {
-//        return sender;
-//    }
-//
-//    public void setSender(String sender) {
-//        this.sender = sender;
-//    }
-//
-//    public String getRecipient() {
-//        return recipient;
-//    }
-//
-//    public void setRecipient(String recipient) {
-//        this.recipient = recipient;
-//    }
-//
-//    public Date getServerAcknowledgedAt() {
-//        return serverAcknowledgedAt;
-//    }
-//
-//    public void setServerAcknowledgedAt(Date serverAcknowledgedAt) {
-//        this.serverAcknowledgedAt = serverAcknowledgedAt;
-//    }
-//
-//
-//
-//    public Date getRequestedAt() {
-//        return requestedAt;
-//    }
-//
-//    public void setRequestedAt(Date requestedAt) {
-//        this.requestedAt = requestedAt;
-//    }
-//
-//    public Date getSentAt() {
-//        return sentAt;
-//    }
-//
-//    public void setSentAt(Date sentAt) {
-//        this.sentAt = sentAt;
-//    }
-//
-//    public Date getDeliveredAt() {
-//        return deliveredAt;
-//    }
-//
-//    public void setDeliveredAt(Date deliveredAt) {
-//        this.deliveredAt = deliveredAt;
-//    }
-//
-//    public Date getReceivedAt() {
-//        return receivedAt;
-//    }
-//
-//    public void setReceivedAt(Date receivedAt) {
-//        this.receivedAt = receivedAt;
-//    }
-//
-//    @NonNull
-//    public String getType() {
-//        return type;
-//    }
-//
-//    public void setType(@NonNull String type) {
-//        this.type = type;
-//    }
-//
-//
-//    public Date getLastAcknowledgedRequestAt() {
-//        return lastAcknowledgedRequestAt;
-//    }
-//
-//    public void setLastAcknowledgedRequestAt(Date lastAcknowledgedRequestAt) {
-//        this.lastAcknowledgedRequestAt = lastAcknowledgedRequestAt;
-//    }
-//
-//    public int getRetryCount() {
-//        return retryCount;
-//    }
-//
-//    public void setRetryCount(int retryCount) {
-//        this.retryCount = retryCount;
-//    }
-//}
\ No newline at end of file
+package com.vernu.sms.database.local;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import androidx.room.TypeConverters;
+
+import java.util.Date;
+
+/**
+ * One row per recipient. Outbound rows double as the durable send queue: they are
+ * inserted as QUEUED, moved to SUBMITTED just before SmsManager is called and then
+ * to SENT, DELIVERED or FAILED as the status broadcasts arrive.
+ */
+@Entity(tableName = "sms", indices = {@Index("status"), @Index("_id"), @Index({"status", "submitted_at"})})
+@TypeConverters(DateConverter.class)
+public class SMS {
+    public static final String TYPE_SENT = "SENT";
+
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_SUBMITTED = "SUBMITTED";
+    public static final String STATUS_SENT = "SENT";
+    public static final String STATUS_DELIVERED = "DELIVERED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    public SMS() {
+        type = null;
+    }
+
+    @PrimaryKey(autoGenerate = true)
+    private long id;
+
+    // This is the ID of the SMS in the server
+    @ColumnInfo(name = "_id")
+    private String _id;
+
+    @ColumnInfo(name = "sms_batch_id")
+    private String smsBatchId;
+
+    @ColumnInfo(name = "status")
+    private String status;
+
+    // Set on the row for the payload's final recipient; sending it completes the smsId
+    @ColumnInfo(name = "last_recipient", defaultValue = "0")
+    private boolean lastRecipient = false;
+
+    // SIM the message was handed to, -1 for the default SIM
+    @ColumnInfo(name = "subscription_id", defaultValue = "-1")
+    private int subscriptionId = -1;
+
+    // 1 for the first send, incremented each time the message fails over to another SIM
+    @ColumnInfo(name = "attempt_count", defaultValue = "1")
+    private int attemptCount = 1;
+
+    // Failed attempts as "subscriptionId:errorCode:failedAtMillis" entries separated by ';'
+    @ColumnInfo(name = "attempt_history")
+    private String attemptHistory;
+
+    @ColumnInfo(name = "message")
+    private String message = "";
+
+    @ColumnInfo(name = "encrypted_message")
+    private String encryptedMessage = "";
+
+    @ColumnInfo(name = "is_encrypted", defaultValue = "0")
+    private boolean isEncrypted = false;
+
+    @ColumnInfo(name = "sender")
+    private String sender;
+
+    @ColumnInfo(name = "recipient")
+    private String recipient;
+
+    @ColumnInfo(name = "requested_at")
+    private Date requestedAt;
+
+    // When the row was last handed to SmsManager
+    @ColumnInfo(name = "submitted_at")
+    private Date submittedAt;
+
+    @ColumnInfo(name = "sent_at")
+    private Date sentAt;
+
+    @ColumnInfo(name = "delivered_at")
+    private Date deliveredAt;
+
+    @ColumnInfo(name = "received_at")
+    private Date receivedAt;
+
+    @ColumnInfo(name = "failed_at")
+    private Date failedAt;
+
+    @ColumnInfo(name = "error_code")
+    private String errorCode;
+
+    @NonNull
+    @ColumnInfo(name = "type")
+    private String type;
+
+    @ColumnInfo(name = "server_acknowledged_at")
+    private Date serverAcknowledgedAt;
+
+    public boolean hasServerAcknowledged() {
+        return serverAcknowledgedAt != null;
+    }
+
+    @ColumnInfo(name = "last_acknowledged_request_at")
+    private Date lastAcknowledgedRequestAt;
+
+    @ColumnInfo(name = "retry_count", defaultValue = "0")
+    private int retryCount = 0;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String get_id() {
+        return _id;
+    }
+
+    public void set_id(String _id) {
+        this._id = _id;
+    }
+
+    public String getSmsBatchId() {
+        return smsBatchId;
+    }
+
+    public void setSmsBatchId(String smsBatchId) {
+        this.smsBatchId = smsBatchId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public boolean isLastRecipient() {
+        return lastRecipient;
+    }
+
+    public void setLastRecipient(boolean lastRecipient) {
+        this.lastRecipient = lastRecipient;
+    }
+
+    public int getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public void setSubscriptionId(int subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+
+    public void setAttemptCount(int attemptCount) {
+        this.attemptCount = attemptCount;
+    }
+
+    public String getAttemptHistory() {
+        return attemptHistory;
+    }
+
+    public void setAttemptHistory(String attemptHistory) {
+        this.attemptHistory = attemptHistory;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getEncryptedMessage() {
+        return encryptedMessage;
+    }
+
+    public void setEncryptedMessage(String encryptedMessage) {
+        this.encryptedMessage = encryptedMessage;
+    }
+
+    public boolean getIsEncrypted() {
+        return isEncrypted;
+    }
+
+    public void setIsEncrypted(boolean isEncrypted) {
+        this.isEncrypted = isEncrypted;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public void setSender(String sender) {
+        this.sender = sender;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    public Date getServerAcknowledgedAt() {
+        return serverAcknowledgedAt;
+    }
+
+    public void setServerAcknowledgedAt(Date serverAcknowledgedAt) {
+        this.serverAcknowledgedAt = serverAcknowledgedAt;
+    }
+
+
+
+    public Date getRequestedAt() {
+        return requestedAt;
+    }
+
+    public void setRequestedAt(Date requestedAt) {
+        this.requestedAt = requestedAt;
+    }
+
+    public Date getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(Date submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    public Date getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(Date sentAt) {
+        this.sentAt = sentAt;
+    }
+
+    public Date getDeliveredAt() {
+        return deliveredAt;
+    }
+
+    public void setDeliveredAt(Date deliveredAt) {
+        this.deliveredAt = deliveredAt;
+    }
+
+    public Date getReceivedAt() {
+        return receivedAt;
+    }
+
+    public void setReceivedAt(Date receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    public Date getFailedAt() {
+        return failedAt;
+    }
+
+    public void setFailedAt(Date failedAt) {
+        this.failedAt = failedAt;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public void setErrorCode(String errorCode) {
+        this.errorCode = errorCode;
+    }
+
+    @NonNull
+    public String getType() {
+        return type;
+    }
+
+    public void setType(@NonNull String type) {
+        this.type = type;
+    }
+
+
+    public Date getLastAcknowledgedRequestAt() {
+        return lastAcknowledgedRequestAt;
+    }
+
+    public void setLastAcknowledgedRequestAt(Date lastAcknowledgedRequestAt) {
+        this.lastAcknowledgedRequestAt = lastAcknowledgedRequestAt;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+}
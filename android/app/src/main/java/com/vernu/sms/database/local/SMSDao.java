@@ -1,27 +1,69 @@
-//package com.vernu.sms.database.local;
-//
-//import androidx.room.Dao;
-//import androidx.room.Delete;
-//import androidx.room.Insert;
-//import androidx.room.OnConflictStrategy;
-//import androidx.room.Query;
-//
-//import java.util.List;
-//
-//@Dao
-//public interface SMSDao {
-//
-//    @Query("SELECT * FROM sms")
-//    List<SMS> getAll();
-//
-//    @Query("SELECT * FROM sms WHERE id IN (:smsIds)")
-//    List<SMS> loadAllByIds(int[] smsIds);
-//
-//    @Insert(onConflict = OnConflictStrategy.REPLACE)
-//    void insertAll(SMS... sms);
-//
-//
-//    @Delete
-//    void delete(SMS sms);
-//
-//}
\ No newline at end of file
+package com.vernu.sms.database.local;
+
+import androidx.room.Dao;
+import androidx.room.Delete;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.Date;
+import java.util.List;
+
+@Dao
+public interface SMSDao {
+
+    @Query("SELECT * FROM sms")
+    List<SMS> getAll();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(SMS... sms);
+
+    /**
+     * Inserts every row in a single transaction.
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    long[] insertAll(List<SMS> sms);
+
+    @Delete
+    void delete(SMS sms);
+
+    @Query("SELECT * FROM sms WHERE id = :id")
+    SMS getById(long id);
+
+    @Query("SELECT * FROM sms WHERE status = :status ORDER BY id LIMIT :limit")
+    List<SMS> getByStatus(String status, int limit);
+
+    @Query("SELECT COUNT(*) FROM sms WHERE status = :status")
+    int countByStatus(String status);
+
+    @Query("SELECT DISTINCT _id FROM sms WHERE status = :status AND _id IS NOT NULL")
+    List<String> getSmsIdsByStatus(String status);
+
+    @Query("UPDATE sms SET status = 'SUBMITTED', subscription_id = :subscriptionId, submitted_at = :submittedAt WHERE id = :id")
+    void markSubmitted(long id, int subscriptionId, Date submittedAt);
+
+    /**
+     * Rows handed to SmsManager within the window that are still waiting for their sent
+     * broadcast, oldest first; served by the (status, submitted_at) index.
+     */
+    @Query("SELECT * FROM sms WHERE status = 'SUBMITTED' AND submitted_at BETWEEN :from AND :to ORDER BY submitted_at LIMIT :limit")
+    List<SMS> getSubmittedBetween(Date from, Date to, int limit);
+
+    @Query("UPDATE sms SET status = 'QUEUED', attempt_count = :attemptCount, attempt_history = :attemptHistory WHERE id = :id")
+    void requeueForFailover(long id, int attemptCount, String attemptHistory);
+
+    @Query("UPDATE sms SET status = 'SENT', sent_at = :sentAt WHERE id = :id AND status IN ('QUEUED', 'SUBMITTED')")
+    void markSent(long id, Date sentAt);
+
+    @Query("UPDATE sms SET status = 'DELIVERED', delivered_at = :deliveredAt WHERE id = :id")
+    void markDelivered(long id, Date deliveredAt);
+
+    @Query("UPDATE sms SET status = 'FAILED', failed_at = :failedAt, error_code = :errorCode WHERE id = :id")
+    void markFailed(long id, Date failedAt, String errorCode);
+
+    /**
+     * Removes rows that no longer need to be sent or tracked.
+     */
+    @Query("DELETE FROM sms WHERE status != 'QUEUED' AND requested_at < :before")
+    int deleteFinishedBefore(Date before);
+}
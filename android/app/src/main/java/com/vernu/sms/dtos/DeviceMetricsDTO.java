@@ -0,0 +1,55 @@
+package com.vernu.sms.dtos;
+
+import java.util.Map;
+
+/**
+ * Metrics recorded on the device between two reports, sent along with the device update.
+ */
+public class DeviceMetricsDTO {
+    private long fromInMillis;
+    private long toInMillis;
+    private Map<String, HistogramSnapshotDTO> histograms;
+    private Map<String, Long> sentFailuresByResultCode;
+
+    public DeviceMetricsDTO() {
+    }
+
+    public DeviceMetricsDTO(long fromInMillis, long toInMillis, Map<String, HistogramSnapshotDTO> histograms, Map<String, Long> sentFailuresByResultCode) {
+        this.fromInMillis = fromInMillis;
+        this.toInMillis = toInMillis;
+        this.histograms = histograms;
+        this.sentFailuresByResultCode = sentFailuresByResultCode;
+    }
+
+    public long getFromInMillis() {
+        return fromInMillis;
+    }
+
+    public void setFromInMillis(long fromInMillis) {
+        this.fromInMillis = fromInMillis;
+    }
+
+    public long getToInMillis() {
+        return toInMillis;
+    }
+
+    public void setToInMillis(long toInMillis) {
+        this.toInMillis = toInMillis;
+    }
+
+    public Map<String, HistogramSnapshotDTO> getHistograms() {
+        return histograms;
+    }
+
+    public void setHistograms(Map<String, HistogramSnapshotDTO> histograms) {
+        this.histograms = histograms;
+    }
+
+    public Map<String, Long> getSentFailuresByResultCode() {
+        return sentFailuresByResultCode;
+    }
+
+    public void setSentFailuresByResultCode(Map<String, Long> sentFailuresByResultCode) {
+        this.sentFailuresByResultCode = sentFailuresByResultCode;
+    }
+}
@@ -0,0 +1,85 @@
+package com.vernu.sms.dtos;
+
+/**
+ * One histogram from the device metrics. Percentiles are for this device only; to
+ * combine devices, sum the bucket counts.
+ */
+public class HistogramSnapshotDTO {
+    private long count;
+    private long sum;
+    private long max;
+    private long p50;
+    private long p90;
+    private long p99;
+    // Non-empty buckets as [lower bound, count] pairs
+    private long[][] buckets;
+
+    public HistogramSnapshotDTO() {
+    }
+
+    public HistogramSnapshotDTO(long count, long sum, long max, long p50, long p90, long p99, long[][] buckets) {
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.buckets = buckets;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public void setSum(long sum) {
+        this.sum = sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public void setMax(long max) {
+        this.max = max;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public void setP50(long p50) {
+        this.p50 = p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public void setP90(long p90) {
+        this.p90 = p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public void setP99(long p99) {
+        this.p99 = p99;
+    }
+
+    public long[][] getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(long[][] buckets) {
+        this.buckets = buckets;
+    }
+}
@@ -0,0 +1,22 @@
+package com.vernu.sms.dtos;
+
+import java.util.List;
+
+public class ReceivedSMSBatchDTO {
+    private List<SMSDTO> messages;
+
+    public ReceivedSMSBatchDTO() {
+    }
+
+    public ReceivedSMSBatchDTO(List<SMSDTO> messages) {
+        this.messages = messages;
+    }
+
+    public List<SMSDTO> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<SMSDTO> messages) {
+        this.messages = messages;
+    }
+}
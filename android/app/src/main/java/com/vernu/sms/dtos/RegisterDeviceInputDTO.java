@@ -12,6 +12,8 @@ public class RegisterDeviceInputDTO {
     private String osVersion;
     private String appVersionName;
     private int appVersionCode;
+    // Only set on the periodic metrics report
+    private DeviceMetricsDTO metrics;
 
     public RegisterDeviceInputDTO() {
     }
@@ -107,4 +109,12 @@ public class RegisterDeviceInputDTO {
     public void setAppVersionCode(int appVersionCode) {
         this.appVersionCode = appVersionCode;
     }
+
+    public DeviceMetricsDTO getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(DeviceMetricsDTO metrics) {
+        this.metrics = metrics;
+    }
 }
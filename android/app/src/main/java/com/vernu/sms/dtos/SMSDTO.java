@@ -1,6 +1,7 @@
 package com.vernu.sms.dtos;
 
 import java.util.Date;
+import java.util.List;
 
 public class SMSDTO {
     private String sender;
@@ -16,6 +17,17 @@ public class SMSDTO {
     private String errorCode;
     private String errorMessage;
 
+    // Which SIM carried the message and the attempts that failed over before it
+    private Integer simSubscriptionId;
+    private Integer attemptCount;
+    private List<SMSSendAttemptDTO> sendAttempts;
+
+    // Fingerprint of a received SMS; the API stores a replayed one only once
+    private String idempotencyKey;
+
+    // When the broadcast reached this device, for measuring upload latency; the API ignores it
+    private long deviceReceivedAtInMillis;
+
     public SMSDTO() {
     }
 
@@ -107,4 +119,44 @@ public class SMSDTO {
     public void setErrorMessage(String errorMessage) {
         this.errorMessage = errorMessage;
     }
+
+    public Integer getSimSubscriptionId() {
+        return simSubscriptionId;
+    }
+
+    public void setSimSubscriptionId(Integer simSubscriptionId) {
+        this.simSubscriptionId = simSubscriptionId;
+    }
+
+    public Integer getAttemptCount() {
+        return attemptCount;
+    }
+
+    public void setAttemptCount(Integer attemptCount) {
+        this.attemptCount = attemptCount;
+    }
+
+    public List<SMSSendAttemptDTO> getSendAttempts() {
+        return sendAttempts;
+    }
+
+    public void setSendAttempts(List<SMSSendAttemptDTO> sendAttempts) {
+        this.sendAttempts = sendAttempts;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public long getDeviceReceivedAtInMillis() {
+        return deviceReceivedAtInMillis;
+    }
+
+    public void setDeviceReceivedAtInMillis(long deviceReceivedAtInMillis) {
+        this.deviceReceivedAtInMillis = deviceReceivedAtInMillis;
+    }
 }
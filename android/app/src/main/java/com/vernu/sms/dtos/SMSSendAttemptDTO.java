@@ -0,0 +1,43 @@
+package com.vernu.sms.dtos;
+
+/**
+ * One failed attempt to send an SMS on a given SIM before it was failed over to another.
+ */
+public class SMSSendAttemptDTO {
+    private int simSubscriptionId;
+    private String errorCode;
+    private long failedAtInMillis;
+
+    public SMSSendAttemptDTO() {
+    }
+
+    public SMSSendAttemptDTO(int simSubscriptionId, String errorCode, long failedAtInMillis) {
+        this.simSubscriptionId = simSubscriptionId;
+        this.errorCode = errorCode;
+        this.failedAtInMillis = failedAtInMillis;
+    }
+
+    public int getSimSubscriptionId() {
+        return simSubscriptionId;
+    }
+
+    public void setSimSubscriptionId(int simSubscriptionId) {
+        this.simSubscriptionId = simSubscriptionId;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public void setErrorCode(String errorCode) {
+        this.errorCode = errorCode;
+    }
+
+    public long getFailedAtInMillis() {
+        return failedAtInMillis;
+    }
+
+    public void setFailedAtInMillis(long failedAtInMillis) {
+        this.failedAtInMillis = failedAtInMillis;
+    }
+}
@@ -0,0 +1,22 @@
+package com.vernu.sms.dtos;
+
+import java.util.List;
+
+public class SMSStatusBatchDTO {
+    private List<SMSDTO> updates;
+
+    public SMSStatusBatchDTO() {
+    }
+
+    public SMSStatusBatchDTO(List<SMSDTO> updates) {
+        this.updates = updates;
+    }
+
+    public List<SMSDTO> getUpdates() {
+        return updates;
+    }
+
+    public void setUpdates(List<SMSDTO> updates) {
+        this.updates = updates;
+    }
+}
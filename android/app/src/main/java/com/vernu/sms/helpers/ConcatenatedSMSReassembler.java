@@ -0,0 +1,269 @@
+package com.vernu.sms.helpers;
+
+import android.telephony.SmsMessage;
+import android.util.Log;
+
+import com.vernu.sms.dtos.SMSDTO;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reassembles concatenated (multipart) inbound SMS into one message each. Parts are
+ * keyed by sender and the concatenation reference from their user data header, so parts
+ * split across broadcasts or interleaved with other senders' still end up together.
+ *
+ * Incomplete messages are held for a bounded time; when it runs out, or too many are
+ * pending, the parts that did arrive are emitted as one message rather than dropped. The
+ * hold time is checked on every broadcast and by InboxBackfill's periodic run, so a
+ * message whose last part never comes is emitted even if no other SMS arrives.
+ * Parts without a concatenation header are joined per sender within their broadcast, as
+ * the platform delivers them.
+ *
+ * Pending parts are only held in memory and are lost if the process dies first. The
+ * platform still stores the whole message in the inbox, so InboxBackfill is the recovery
+ * path for those.
+ */
+public class ConcatenatedSMSReassembler {
+    private static final String TAG = "ConcatSMSReassembler";
+    private static final long HOLD_MS = 10 * 60 * 1000;
+    private static final int MAX_PENDING_MESSAGES = 256;
+
+    private static final ConcatenatedSMSReassembler instance = new ConcatenatedSMSReassembler();
+
+    // Insertion order is arrival order, so the oldest pending message comes first
+    private final Map<String, PendingMessage> pending = new LinkedHashMap<>();
+
+    public static ConcatenatedSMSReassembler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Add the messages of one SMS_RECEIVED broadcast.
+     *
+     * @param format the broadcast's "format" extra, "3gpp" or "3gpp2"
+     * @return the messages that are now complete, possibly none
+     */
+    public List<SMSDTO> onReceived(SmsMessage[] messages, String format) {
+        List<Part> parts = new ArrayList<>(messages.length);
+        for (SmsMessage message : messages) {
+            if (message == null) {
+                continue;
+            }
+            // 3GPP2 headers aren't parsed; the platform already joins those parts in one broadcast
+            ConcatHeader header = format == null || "3gpp".equals(format) ? parseConcatHeader(message.getPdu()) : null;
+            parts.add(new Part(message.getOriginatingAddress(), message.getMessageBody(), message.getTimestampMillis(), header));
+        }
+        return add(parts, System.currentTimeMillis());
+    }
+
+    /**
+     * Emit the incomplete messages held past the hold time, for a caller that runs without
+     * a new broadcast.
+     */
+    public synchronized List<SMSDTO> takeExpired(long now) {
+        List<SMSDTO> expired = new ArrayList<>();
+        expire(now, expired);
+        return expired;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    synchronized List<SMSDTO> add(List<Part> parts, long now) {
+        List<SMSDTO> complete = new ArrayList<>();
+        expire(now, complete);
+
+        Map<String, List<Part>> unheaded = new LinkedHashMap<>();
+        for (Part part : parts) {
+            ConcatHeader header = part.header;
+            if (header == null || header.total <= 1) {
+                List<Part> senderParts = unheaded.get(part.sender);
+                if (senderParts == null) {
+                    senderParts = new ArrayList<>();
+                    unheaded.put(part.sender, senderParts);
+                }
+                senderParts.add(part);
+                continue;
+            }
+
+            String key = part.sender + "\n" + header.reference + "\n" + header.total;
+            PendingMessage message = pending.get(key);
+            if (message == null) {
+                message = new PendingMessage(part.sender, header.total, now);
+                pending.put(key, message);
+            }
+            if (message.parts[header.sequence - 1] != null) {
+                // A repeated broadcast of a part we already have
+                continue;
+            }
+            message.parts[header.sequence - 1] = part;
+            if (++message.received == message.parts.length) {
+                pending.remove(key);
+                complete.add(build(message.sender, message.parts));
+            }
+        }
+
+        for (Map.Entry<String, List<Part>> entry : unheaded.entrySet()) {
+            List<Part> senderParts = entry.getValue();
+            complete.add(build(entry.getKey(), senderParts.toArray(new Part[0])));
+        }
+
+        while (pending.size() > MAX_PENDING_MESSAGES) {
+            Iterator<PendingMessage> oldest = pending.values().iterator();
+            PendingMessage message = oldest.next();
+            oldest.remove();
+            Log.w(TAG, "Too many incomplete messages, emitting " + message.received + " of " + message.parts.length
+                    + " parts from " + message.sender);
+            complete.add(build(message.sender, message.parts));
+        }
+        return complete;
+    }
+
+    private void expire(long now, List<SMSDTO> complete) {
+        Iterator<PendingMessage> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            PendingMessage message = iterator.next();
+            if (now - message.firstReceivedAt < HOLD_MS) {
+                // Later entries arrived later still
+                break;
+            }
+            iterator.remove();
+            Log.w(TAG, "Gave up waiting for the rest of a message, emitting " + message.received + " of "
+                    + message.parts.length + " parts from " + message.sender);
+            SMSDTO smsDTO = build(message.sender, message.parts);
+            smsDTO.setDeviceReceivedAtInMillis(message.firstReceivedAt);
+            complete.add(smsDTO);
+        }
+    }
+
+    /**
+     * Join the parts in order, skipping missing ones, into one buffer sized up front.
+     */
+    private static SMSDTO build(String sender, Part[] parts) {
+        int length = 0;
+        long receivedAt = 0;
+        for (Part part : parts) {
+            if (part == null) {
+                continue;
+            }
+            length += part.body != null ? part.body.length() : 0;
+            if (part.timestamp > 0 && (receivedAt == 0 || part.timestamp < receivedAt)) {
+                receivedAt = part.timestamp;
+            }
+        }
+
+        StringBuilder body = new StringBuilder(length);
+        for (Part part : parts) {
+            if (part != null && part.body != null) {
+                body.append(part.body);
+            }
+        }
+
+        SMSDTO smsDTO = new SMSDTO();
+        smsDTO.setSender(sender);
+        smsDTO.setMessage(body.toString());
+        smsDTO.setReceivedAtInMillis(receivedAt);
+        return smsDTO;
+    }
+
+    /**
+     * Read the concatenation information element from a 3GPP SMS-DELIVER PDU, as delivered
+     * in the SMS_RECEIVED broadcast, with the SMSC address in front.
+     *
+     * @return the header, or null if the PDU has none or can't be parsed
+     */
+    static ConcatHeader parseConcatHeader(byte[] pdu) {
+        if (pdu == null || pdu.length == 0) {
+            return null;
+        }
+        int i = 1 + (pdu[0] & 0xff);
+        if (i >= pdu.length) {
+            return null;
+        }
+        int firstOctet = pdu[i++] & 0xff;
+        // Only SMS-DELIVER with a user data header
+        if ((firstOctet & 0x03) != 0 || (firstOctet & 0x40) == 0 || i >= pdu.length) {
+            return null;
+        }
+        int addressDigits = pdu[i++] & 0xff;
+        // Type of address, the address in semi-octets, PID, DCS, timestamp and UDL
+        i += 1 + (addressDigits + 1) / 2 + 1 + 1 + 7 + 1;
+        if (i >= pdu.length) {
+            return null;
+        }
+        int headerEnd = i + 1 + (pdu[i] & 0xff);
+        i++;
+        if (headerEnd > pdu.length) {
+            return null;
+        }
+
+        while (i + 2 <= headerEnd) {
+            int id = pdu[i] & 0xff;
+            int length = pdu[i + 1] & 0xff;
+            int data = i + 2;
+            if (data + length > headerEnd) {
+                return null;
+            }
+            if (id == 0x00 && length == 3) {
+                return ConcatHeader.of(pdu[data] & 0xff, pdu[data + 1] & 0xff, pdu[data + 2] & 0xff);
+            }
+            if (id == 0x08 && length == 4) {
+                return ConcatHeader.of(((pdu[data] & 0xff) << 8) | (pdu[data + 1] & 0xff),
+                        pdu[data + 2] & 0xff, pdu[data + 3] & 0xff);
+            }
+            i = data + length;
+        }
+        return null;
+    }
+
+    static class ConcatHeader {
+        final int reference;
+        final int total;
+        final int sequence;
+
+        private ConcatHeader(int reference, int total, int sequence) {
+            this.reference = reference;
+            this.total = total;
+            this.sequence = sequence;
+        }
+
+        static ConcatHeader of(int reference, int total, int sequence) {
+            if (total == 0 || sequence == 0 || sequence > total) {
+                return null;
+            }
+            return new ConcatHeader(reference, total, sequence);
+        }
+    }
+
+    static class Part {
+        final String sender;
+        final String body;
+        final long timestamp;
+        final ConcatHeader header;
+
+        Part(String sender, String body, long timestamp, ConcatHeader header) {
+            this.sender = sender;
+            this.body = body;
+            this.timestamp = timestamp;
+            this.header = header;
+        }
+    }
+
+    private static class PendingMessage {
+        final String sender;
+        final Part[] parts;
+        final long firstReceivedAt;
+        int received = 0;
+
+        PendingMessage(String sender, int total, long firstReceivedAt) {
+            this.sender = sender;
+            this.parts = new Part[total];
+            this.firstReceivedAt = firstReceivedAt;
+        }
+    }
+}
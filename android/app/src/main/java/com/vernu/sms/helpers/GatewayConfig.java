@@ -0,0 +1,63 @@
+package com.vernu.sms.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.vernu.sms.AppConstants;
+
+/**
+ * Immutable snapshot of the settings read on every SMS event and poll. The current
+ * snapshot sits in a volatile field and is rebuilt only when a preference changes, so hot
+ * paths read plain fields instead of going through SharedPreferences each time.
+ *
+ * The first {@link #get(Context)} in a process loads it from preferences, so a process
+ * cold-started by a broadcast sees the saved settings.
+ */
+public final class GatewayConfig {
+    private static volatile GatewayConfig current;
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener changeListener;
+
+    public final String deviceId;
+    public final String apiKey;
+    public final boolean gatewayEnabled;
+    public final boolean receiveSMSEnabled;
+    public final boolean streamModeEnabled;
+    public final int preferredSim;
+    public final SimBalancer.Policy simBalancingPolicy;
+
+    private GatewayConfig(SharedPreferences preferences) {
+        deviceId = preferences.getString(AppConstants.SHARED_PREFS_DEVICE_ID_KEY, "");
+        apiKey = preferences.getString(AppConstants.SHARED_PREFS_API_KEY_KEY, "");
+        gatewayEnabled = preferences.getBoolean(AppConstants.SHARED_PREFS_GATEWAY_ENABLED_KEY, false);
+        receiveSMSEnabled = preferences.getBoolean(AppConstants.SHARED_PREFS_RECEIVE_SMS_ENABLED_KEY, false);
+        streamModeEnabled = preferences.getBoolean(AppConstants.SHARED_PREFS_STREAM_MODE_ENABLED_KEY, false);
+        preferredSim = preferences.getInt(AppConstants.SHARED_PREFS_PREFERRED_SIM_KEY, -1);
+        simBalancingPolicy = SimBalancer.Policy.fromPreference(preferences.getString(
+                AppConstants.SHARED_PREFS_SIM_BALANCING_POLICY_KEY, SimBalancer.Policy.OFF.name()));
+    }
+
+    public static GatewayConfig get(Context context) {
+        GatewayConfig config = current;
+        if (config != null) {
+            return config;
+        }
+        synchronized (GatewayConfig.class) {
+            if (current == null) {
+                SharedPreferences preferences = SharedPreferenceHelper.getSharedPreferences(context.getApplicationContext());
+                // Registered before the first load, so a change made in between isn't missed
+                changeListener = (changedPreferences, key) -> current = new GatewayConfig(changedPreferences);
+                preferences.registerOnSharedPreferenceChangeListener(changeListener);
+                current = new GatewayConfig(preferences);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Whether the device is registered, which every call to the API needs.
+     */
+    public boolean hasCredentials() {
+        return !deviceId.isEmpty() && !apiKey.isEmpty();
+    }
+}
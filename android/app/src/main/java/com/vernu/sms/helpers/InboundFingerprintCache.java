@@ -0,0 +1,226 @@
+package com.vernu.sms.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.vernu.sms.TextBeeUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent record of the received SMS already forwarded, by fingerprint of sender,
+ * timestamp and body, so a broadcast delivered twice (OEM quirks, re-delivery after a
+ * reboot) is uploaded once. The fingerprint also goes with the upload as its idempotency
+ * key, which makes a replay harmless on the server as well.
+ *
+ * Bounded by count and age. Fingerprints are appended to a journal per generation and
+ * replayed on startup, like {@link SmsIdLedger}, so two generations cover the window.
+ */
+public class InboundFingerprintCache {
+    private static final String TAG = "InboundFingerprintCache";
+    private static final String CURRENT_JOURNAL = "current.log";
+    private static final String PREVIOUS_JOURNAL = "previous.log";
+    static final int MAX_FINGERPRINTS = 4096;
+    static final long MAX_AGE_MS = 3L * 24 * 60 * 60 * 1000;
+
+    private static volatile InboundFingerprintCache instance;
+
+    private final File directory;
+    // Fingerprint to when it was first seen, oldest first
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+    private FileOutputStream journal;
+    private int journalEntries = 0;
+
+    public static InboundFingerprintCache getInstance(Context context) {
+        if (instance == null) {
+            synchronized (InboundFingerprintCache.class) {
+                if (instance == null) {
+                    instance = new InboundFingerprintCache(
+                            new File(context.getApplicationContext().getFilesDir(), "inbound-fingerprints"),
+                            System.currentTimeMillis());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param directory where the journals are kept; created if missing
+     */
+    public InboundFingerprintCache(File directory, long now) {
+        this.directory = directory;
+        load(now);
+    }
+
+    /**
+     * A stable key for one received message: 128 bits of SHA-256 over its sender,
+     * timestamp and body, as hex.
+     */
+    public static String fingerprint(String sender, long timestampMillis, String body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(sender).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Long.toString(timestampMillis).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(body).getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest();
+
+            StringBuilder hex = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                hex.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true if the message was already forwarded
+     */
+    public synchronized boolean contains(String fingerprint, long now) {
+        evict(now);
+        return seen.containsKey(fingerprint);
+    }
+
+    /**
+     * Record the fingerprint and persist it before returning. Call this only once the
+     * message was uploaded or is safely in the outbox; a fingerprint recorded any earlier
+     * would make a message lost in between look forwarded.
+     */
+    public synchronized void mark(String fingerprint, long now) {
+        evict(now);
+        if (seen.containsKey(fingerprint)) {
+            return;
+        }
+        seen.put(fingerprint, now);
+        appendToJournal(fingerprint, now);
+        // Keep the count bounded including the one just added
+        evict(now);
+    }
+
+    public synchronized int size() {
+        return seen.size();
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Long>> iterator = seen.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (seen.size() <= MAX_FINGERPRINTS && now - eldest.getValue() < MAX_AGE_MS) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    private void load(long now) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create fingerprint directory " + directory);
+            return;
+        }
+
+        replay(new File(directory, PREVIOUS_JOURNAL));
+        journalEntries = replay(new File(directory, CURRENT_JOURNAL));
+        evict(now);
+
+        File current = new File(directory, CURRENT_JOURNAL);
+        try {
+            boolean torn = endsWithPartialLine(current);
+            journal = new FileOutputStream(current, true);
+            // Terminate a line cut short so the next fingerprint isn't glued onto it
+            if (torn) {
+                journal.write('\n');
+            }
+        } catch (IOException e) {
+            TextBeeUtils.logException(e, "Error opening inbound fingerprint journal");
+        }
+        Log.d(TAG, "Loaded " + seen.size() + " inbound SMS fingerprints");
+    }
+
+    private static boolean endsWithPartialLine(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return false;
+        }
+        try (RandomAccessFile reader = new RandomAccessFile(file, "r")) {
+            reader.seek(file.length() - 1);
+            return reader.read() != '\n';
+        }
+    }
+
+    private int replay(File file) {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator <= 0) {
+                    continue;
+                }
+                try {
+                    seen.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+                    count++;
+                } catch (NumberFormatException e) {
+                    // A line cut short by process death
+                }
+            }
+        } catch (IOException e) {
+            TextBeeUtils.logException(e, "Error reading inbound fingerprint journal " + file.getName());
+        }
+        return count;
+    }
+
+    private void appendToJournal(String fingerprint, long now) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            // Unbuffered: once write() returns the fingerprint survives process death
+            journal.write((fingerprint + " " + now + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending to inbound fingerprint journal: " + e.getMessage());
+            return;
+        }
+        if (++journalEntries >= MAX_FINGERPRINTS / 2) {
+            rotateJournal();
+        }
+    }
+
+    private void rotateJournal() {
+        try {
+            journal.close();
+            File current = new File(directory, CURRENT_JOURNAL);
+            File previous = new File(directory, PREVIOUS_JOURNAL);
+            if (previous.exists() && !previous.delete()) {
+                Log.w(TAG, "Could not delete old inbound fingerprint journal");
+            }
+            if (!current.renameTo(previous)) {
+                Log.w(TAG, "Could not rotate inbound fingerprint journal");
+            }
+            journal = new FileOutputStream(current, false);
+            journalEntries = 0;
+        } catch (IOException e) {
+            journal = null;
+            TextBeeUtils.logException(e, "Error rotating inbound fingerprint journal");
+        }
+    }
+}
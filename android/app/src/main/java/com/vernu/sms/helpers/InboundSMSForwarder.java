@@ -0,0 +1,101 @@
+package com.vernu.sms.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.vernu.sms.ApiManager;
+import com.vernu.sms.dtos.SMSDTO;
+import com.vernu.sms.dtos.SMSForwardResponseDTO;
+import com.vernu.sms.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Fast path for received SMS: uploads them straight away from the broadcast, so a one-time
+ * code reaches the server in the time of one request. The shared client reuses a pooled
+ * connection if a poll or upload left one alive within ApiManager's keep-alive; nothing
+ * opens one ahead of time, so otherwise the request also pays for DNS, connect and TLS.
+ * Anything that fails or doesn't finish within the broadcast's time budget goes to the
+ * durable outbox instead.
+ *
+ * While the outbox still holds received SMS the fast path is skipped, so messages keep
+ * their order and a server that is down isn't tried twice.
+ */
+public class InboundSMSForwarder {
+    private static final String TAG = "InboundSMSForwarder";
+    // A receiver that called goAsync() must finish within 10 seconds
+    private static final long BROADCAST_BUDGET_MS = 8000;
+
+    private static volatile InboundSMSForwarder instance;
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            runnable -> new Thread(runnable, "textbee-inbound"));
+
+    public static InboundSMSForwarder getInstance(Context context) {
+        if (instance == null) {
+            synchronized (InboundSMSForwarder.class) {
+                if (instance == null) {
+                    instance = new InboundSMSForwarder(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private InboundSMSForwarder(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Upload the messages off the calling thread, then run onDone, which should finish the
+     * broadcast's PendingResult. Each message's fingerprint is recorded once it is uploaded
+     * or in the outbox; one that is neither is left for the inbox backfill to find.
+     */
+    public void forward(List<SMSDTO> smsDTOs, Runnable onDone) {
+        long deadline = System.currentTimeMillis() + BROADCAST_BUDGET_MS;
+        executor.execute(() -> {
+            try {
+                InboundFingerprintCache fingerprints = InboundFingerprintCache.getInstance(context);
+                for (SMSDTO smsDTO : smsDTOs) {
+                    if (sendDirect(smsDTO, deadline) || OutboxDrainer.getInstance(context).enqueueReceivedSMS(smsDTO)) {
+                        fingerprints.mark(smsDTO.getIdempotencyKey(), smsDTO.getDeviceReceivedAtInMillis());
+                    } else {
+                        Log.e(TAG, "Received SMS could not be uploaded or queued - fingerprint: " + smsDTO.getIdempotencyKey());
+                    }
+                }
+            } finally {
+                onDone.run();
+            }
+        });
+    }
+
+    private boolean sendDirect(SMSDTO smsDTO, long deadline) {
+        long remainingMs = deadline - System.currentTimeMillis();
+        GatewayConfig config = GatewayConfig.get(context);
+        if (remainingMs <= 0 || !config.hasCredentials() || !OutboxDrainer.getInstance(context).isEmpty()) {
+            return false;
+        }
+
+        Call<SMSForwardResponseDTO> call = ApiManager.getApiService().sendReceivedSMS(config.deviceId, config.apiKey, smsDTO);
+        call.timeout().timeout(remainingMs, TimeUnit.MILLISECONDS);
+        try {
+            Response<SMSForwardResponseDTO> response = call.execute();
+            if (response.isSuccessful()) {
+                MetricsRegistry.getInstance().inboundDirect.record(System.currentTimeMillis() - smsDTO.getDeviceReceivedAtInMillis());
+                return true;
+            }
+            Log.w(TAG, "Direct upload of received SMS failed, queueing it. Response code: " + response.code());
+        } catch (IOException e) {
+            Log.w(TAG, "Direct upload of received SMS failed, queueing it: " + e.getMessage());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,214 @@
+package com.vernu.sms.helpers;
+
+import android.Manifest;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.Telephony;
+import android.util.Log;
+
+import com.vernu.sms.AppConstants;
+import com.vernu.sms.TextBeeUtils;
+import com.vernu.sms.dtos.SMSDTO;
+
+/**
+ * Uploads inbound SMS the broadcast receiver never saw, because the app was killed, receive
+ * was switched off or the device rebooted before it could run, by reading them back from
+ * the Telephony inbox. Each run also queues the multipart messages the
+ * ConcatenatedSMSReassembler gave up waiting for.
+ *
+ * A watermark on the inbox _id remembers how far it has read. Each run pages forward from
+ * there with a bounded LIMIT, as a range on the primary key, so even a 100k-message inbox
+ * costs one short index range per page. Messages already forwarded are recognised by their
+ * fingerprint; the rest go to the outbox, which uploads them in batches.
+ */
+public class InboxBackfill {
+    private static final String TAG = "InboxBackfill";
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_PAGES_PER_RUN = 25;
+    // Messages older than this when first seen aren't worth forwarding any more
+    private static final long MAX_BACKFILL_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    // Leave the newest messages to the broadcast receiver, which may still be handling them
+    private static final long SETTLE_MS = 60 * 1000;
+    private static final String[] PROJECTION = {
+            Telephony.Sms.Inbox._ID,
+            Telephony.Sms.Inbox.ADDRESS,
+            Telephony.Sms.Inbox.BODY,
+            Telephony.Sms.Inbox.DATE,
+            Telephony.Sms.Inbox.DATE_SENT,
+    };
+
+    private static volatile InboxBackfill instance;
+
+    private final Context context;
+
+    public static InboxBackfill getInstance(Context context) {
+        if (instance == null) {
+            synchronized (InboxBackfill.class) {
+                if (instance == null) {
+                    instance = new InboxBackfill(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private InboxBackfill(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Queue the inbox messages past the watermark. Does provider and file I/O, so it must
+     * not be called on the main thread.
+     *
+     * @return how many messages were queued
+     */
+    public synchronized int run() {
+        GatewayConfig config = GatewayConfig.get(context);
+        if (!config.hasCredentials() || !config.receiveSMSEnabled) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        InboundFingerprintCache fingerprints = InboundFingerprintCache.getInstance(context);
+        OutboxDrainer drainer = OutboxDrainer.getInstance(context);
+        int queued = queueExpiredParts(now, fingerprints, drainer);
+
+        if (!TextBeeUtils.isPermissionGranted(context, Manifest.permission.READ_SMS)) {
+            Log.d(TAG, "READ_SMS not granted, skipping inbox backfill");
+            return queued;
+        }
+
+        long lastId = SharedPreferenceHelper.getSharedPreferenceLong(
+                context, AppConstants.SHARED_PREFS_INBOX_BACKFILL_LAST_ID_KEY, -1);
+        long newestId = queryNewestId();
+        if (newestId < 0) {
+            return queued;
+        }
+        if (lastId < 0 || lastId > newestId) {
+            // First run, or the inbox was wiped: start from here rather than upload the history
+            saveWatermark(newestId);
+            Log.i(TAG, "Inbox backfill watermark set to " + newestId);
+            return queued;
+        }
+
+        int skipped = 0;
+
+        boolean stalled = false;
+        for (int page = 0; page < MAX_PAGES_PER_RUN && lastId < newestId; page++) {
+            int rows = 0;
+            try (Cursor cursor = queryPage(lastId, now - MAX_BACKFILL_AGE_MS, now - SETTLE_MS)) {
+                if (cursor == null) {
+                    break;
+                }
+                int idIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.Inbox._ID);
+                int addressIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.Inbox.ADDRESS);
+                int bodyIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.Inbox.BODY);
+                int dateIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.Inbox.DATE);
+                int dateSentIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.Inbox.DATE_SENT);
+
+                while (cursor.moveToNext()) {
+                    rows++;
+                    long id = cursor.getLong(idIndex);
+
+                    SMSDTO smsDTO = new SMSDTO();
+                    smsDTO.setSender(cursor.getString(addressIndex));
+                    String body = cursor.getString(bodyIndex);
+                    smsDTO.setMessage(body != null ? body : "");
+                    long date = cursor.getLong(dateIndex);
+                    long dateSent = cursor.getLong(dateSentIndex);
+                    // The broadcast path fingerprints the SMSC timestamp, which the inbox keeps as date_sent
+                    smsDTO.setReceivedAtInMillis(dateSent > 0 ? dateSent : date);
+                    smsDTO.setDeviceReceivedAtInMillis(date);
+
+                    String fingerprint = InboundFingerprintCache.fingerprint(
+                            smsDTO.getSender(), smsDTO.getReceivedAtInMillis(), smsDTO.getMessage());
+                    if (fingerprints.contains(fingerprint, now)) {
+                        skipped++;
+                    } else {
+                        smsDTO.setIdempotencyKey(fingerprint);
+                        if (!drainer.enqueueReceivedSMS(smsDTO)) {
+                            // Keep the watermark before this message so the next run retries it
+                            stalled = true;
+                            break;
+                        }
+                        fingerprints.mark(fingerprint, now);
+                        queued++;
+                    }
+                    lastId = id;
+                }
+            } catch (RuntimeException e) {
+                TextBeeUtils.logException(e, "Error reading SMS inbox");
+                break;
+            }
+
+            // Everything up to here is in the outbox or was already forwarded
+            saveWatermark(lastId);
+            if (stalled) {
+                Log.e(TAG, "Could not queue a missed SMS, stopping inbox backfill at " + lastId);
+                break;
+            }
+            if (rows < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        if (queued > 0 || skipped > 0) {
+            Log.i(TAG, "Inbox backfill queued " + queued + " missed SMS, " + skipped + " already forwarded");
+        }
+        return queued;
+    }
+
+    /**
+     * Queue the multipart messages whose missing parts the reassembler stopped waiting for,
+     * in case no broadcast has come along since to emit them.
+     */
+    private int queueExpiredParts(long now, InboundFingerprintCache fingerprints, OutboxDrainer drainer) {
+        int queued = 0;
+        for (SMSDTO smsDTO : ConcatenatedSMSReassembler.getInstance().takeExpired(now)) {
+            String fingerprint = InboundFingerprintCache.fingerprint(
+                    smsDTO.getSender(), smsDTO.getReceivedAtInMillis(), smsDTO.getMessage());
+            if (fingerprints.contains(fingerprint, now)) {
+                continue;
+            }
+            smsDTO.setIdempotencyKey(fingerprint);
+            if (!drainer.enqueueReceivedSMS(smsDTO)) {
+                Log.e(TAG, "Could not queue an incomplete multipart SMS - fingerprint: " + fingerprint);
+                continue;
+            }
+            fingerprints.mark(fingerprint, now);
+            queued++;
+        }
+        return queued;
+    }
+
+    private void saveWatermark(long id) {
+        SharedPreferenceHelper.setSharedPreferenceLong(context, AppConstants.SHARED_PREFS_INBOX_BACKFILL_LAST_ID_KEY, id);
+    }
+
+    private long queryNewestId() {
+        try (Cursor cursor = query(new String[]{Telephony.Sms.Inbox._ID}, null, null,
+                Telephony.Sms.Inbox._ID + " DESC", 1)) {
+            if (cursor != null && cursor.moveToNext()) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            TextBeeUtils.logException(e, "Error reading SMS inbox");
+        }
+        return -1;
+    }
+
+    private Cursor queryPage(long afterId, long notBefore, long notAfter) {
+        String selection = Telephony.Sms.Inbox._ID + " > ? AND " + Telephony.Sms.Inbox.DATE + " BETWEEN ? AND ?";
+        String[] selectionArgs = {Long.toString(afterId), Long.toString(notBefore), Long.toString(notAfter)};
+        return query(PROJECTION, selection, selectionArgs, Telephony.Sms.Inbox._ID + " ASC", PAGE_SIZE);
+    }
+
+    /**
+     * The limit rides along in the sort order on every API level: SmsProvider only implements
+     * the selection-string query, and the Bundle overload drops QUERY_ARG_LIMIT on the way to it.
+     */
+    private Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, int limit) {
+        return context.getContentResolver().query(Telephony.Sms.Inbox.CONTENT_URI, projection, selection,
+                selectionArgs, sortOrder + " LIMIT " + limit);
+    }
+}
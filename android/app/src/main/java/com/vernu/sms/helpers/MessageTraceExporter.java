@@ -0,0 +1,77 @@
+package com.vernu.sms.helpers;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.core.content.FileProvider;
+
+import com.vernu.sms.TextBeeUtils;
+import com.vernu.sms.metrics.MessageTrace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Gets the {@link MessageTrace} off the device: the ring is decoded to NDJSON in the cache
+ * directory and handed to a share sheet through the app's FileProvider, so support can get
+ * it from a release build without adb access to the app's files.
+ */
+public class MessageTraceExporter {
+    private static final String TAG = "MessageTraceExporter";
+    // Must match the cache-path in res/xml/file_paths.xml
+    private static final String EXPORT_DIRECTORY = "traces";
+
+    /**
+     * Write the trace as NDJSON, replacing the previous export. Does file I/O, so it must
+     * not be called on the main thread.
+     *
+     * @param smsId only export this message's events, or null for all of them
+     * @return the file, or null if the trace isn't open or couldn't be written
+     */
+    public static File export(Context context, String smsId) {
+        MessageTrace trace = MessageTrace.getInstance();
+        if (trace == null) {
+            Log.w(TAG, "Message trace isn't open, nothing to export");
+            return null;
+        }
+
+        File directory = new File(context.getCacheDir(), EXPORT_DIRECTORY);
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create trace export directory " + directory);
+            return null;
+        }
+        File file = new File(directory, smsId != null ? "message-trace-" + sanitize(smsId) + ".ndjson" : "message-trace.ndjson");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            int records = trace.exportNdjson(writer, smsId);
+            Log.i(TAG, "Exported " + records + " message trace records to " + file.getName());
+            return file;
+        } catch (IOException e) {
+            TextBeeUtils.logException(e, "Error exporting message trace");
+            return null;
+        }
+    }
+
+    /**
+     * A chooser that shares the exported file, with read access granted to the target app.
+     */
+    public static Intent createShareIntent(Context context, File file) {
+        Uri uri = FileProvider.getUriForFile(context, context.getPackageName() + ".fileprovider", file);
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("application/x-ndjson");
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        intent.putExtra(Intent.EXTRA_SUBJECT, file.getName());
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        return Intent.createChooser(intent, "Share message trace");
+    }
+
+    private static String sanitize(String smsId) {
+        return smsId.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+}
@@ -0,0 +1,96 @@
+package com.vernu.sms.helpers;
+
+import android.app.Activity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Collects the per-part sent and delivery broadcasts of a multipart SMS and resolves them
+ * into one result per message: OK once every part succeeded, otherwise the first failing
+ * part's result code, reported only after all parts are in.
+ */
+public class MultipartAggregator {
+    private static final int NOT_REPORTED = Integer.MIN_VALUE;
+    // A part whose broadcast never arrives shouldn't hold the rest in memory forever
+    private static final long ENTRY_EXPIRY_MS = 60 * 60 * 1000;
+
+    private static final MultipartAggregator instance = new MultipartAggregator();
+
+    private final Map<String, PartResults> pending = new HashMap<>();
+    private long lastExpiry = 0;
+
+    public static MultipartAggregator getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record one part's result.
+     *
+     * @param key identifies the message and whether this is the sent or the delivery report
+     * @param partIndex the part's index, from 0
+     * @param partCount how many parts the message was split into
+     * @param resultCode the broadcast's result code
+     * @return the message's result once every part has reported, otherwise null
+     */
+    public synchronized Integer onPartResult(String key, int partIndex, int partCount, int resultCode) {
+        if (partCount <= 1) {
+            return resultCode;
+        }
+
+        expire();
+        PartResults results = pending.get(key);
+        if (results == null) {
+            results = new PartResults(partCount);
+            pending.put(key, results);
+        }
+        if (partIndex < 0 || partIndex >= results.codes.length || results.codes[partIndex] != NOT_REPORTED) {
+            // Out of range or a repeated broadcast
+            return null;
+        }
+
+        results.codes[partIndex] = resultCode;
+        if (++results.reported < results.codes.length) {
+            return null;
+        }
+
+        pending.remove(key);
+        for (int code : results.codes) {
+            if (code != Activity.RESULT_OK) {
+                return code;
+            }
+        }
+        return Activity.RESULT_OK;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        if (now - lastExpiry < 60 * 1000) {
+            return;
+        }
+        lastExpiry = now;
+        Iterator<PartResults> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().createdAt > ENTRY_EXPIRY_MS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class PartResults {
+        final int[] codes;
+        final long createdAt = System.currentTimeMillis();
+        int reported = 0;
+
+        PartResults(int partCount) {
+            codes = new int[partCount];
+            Arrays.fill(codes, NOT_REPORTED);
+        }
+    }
+}
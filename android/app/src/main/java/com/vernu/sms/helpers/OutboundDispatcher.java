@@ -0,0 +1,636 @@
+package com.vernu.sms.helpers;
+
+import android.app.Activity;
+import android.content.Context;
+import android.telephony.SmsManager;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import com.vernu.sms.TextBeeUtils;
+import com.vernu.sms.database.local.AppDatabase;
+import com.vernu.sms.database.local.SMS;
+import com.vernu.sms.database.local.SMSDao;
+import com.vernu.sms.dtos.SMSDTO;
+import com.vernu.sms.dtos.SMSSendAttemptDTO;
+import com.vernu.sms.metrics.MessageTrace;
+import com.vernu.sms.metrics.MetricsRegistry;
+import com.vernu.sms.models.SMSPayload;
+import com.vernu.sms.workers.SentBoxReconcileWorker;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single outbound send engine shared by FCMService and StickyNotificationService.
+ * Both entry points persist payloads as one row per recipient in the local database,
+ * which a dedicated sender thread drains in order, so SmsManager calls never run on
+ * the main thread and a batch resumes where it stopped after a crash or reboot.
+ */
+public class OutboundDispatcher {
+    private static final String TAG = "OutboundDispatcher";
+    // Polling stops fetching new pages once this many recipients are waiting locally
+    private static final int QUEUE_CAPACITY = 500;
+    // Polling stops fetching new pages when fewer slots than this are free
+    private static final int LOW_WATERMARK = 50;
+    private static final int SEND_PAGE_SIZE = 50;
+    // Messages stay pending on the server until their status update lands, so a
+    // page fetched right after a send can contain them again
+    private static final long RECENTLY_SENT_WINDOW_MS = 2 * 60 * 1000;
+    private static final long FINISHED_ROW_RETENTION_MS = TimeUnit.DAYS.toMillis(7);
+    private static final double DRAIN_RATE_SMOOTHING = 0.2;
+    // Including the first send; later attempts go out on a different SIM
+    private static final int MAX_SEND_ATTEMPTS = 3;
+    // Same code SMSHelper reports when SmsManager itself throws
+    private static final String SEND_EXCEPTION_ERROR_CODE = "SENDING_EXCEPTION";
+    private static final long UNWRITABLE_ROW_BACKOFF_MS = 5000;
+
+    private static volatile OutboundDispatcher INSTANCE;
+
+    public interface SentResultCallback {
+        /**
+         * @param sms the recipient's row, or null if the broadcast doesn't match one
+         * @param superseded true if the message failed over to another SIM or the broadcast
+         *                   belongs to an earlier attempt, so it doesn't decide the outcome
+         */
+        void onSentResultRecorded(SMS sms, boolean superseded);
+    }
+
+    private final Context context;
+    private final SMSDao smsDao;
+    // Database writes that callers on the main thread can't do themselves
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "textbee-outbox"));
+    private final Semaphore workAvailable = new Semaphore(0);
+    private final Object queueLock = new Object();
+    private int queueDepth = 0;
+    private final Set<String> queuedSmsIds = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, SmsManager> smsManagers = new ConcurrentHashMap<>();
+    private final SmsIdLedger ledger;
+    private final ArrayDeque<Long> recentSendTimes = new ArrayDeque<>();
+    private final SmsRateLimiter rateLimiter = new SmsRateLimiter(
+            SmsRateLimiter.SEGMENTS_PER_MINUTE, SmsRateLimiter.BURST_SEGMENTS);
+    private final SubscriptionRegistry subscriptionRegistry;
+    private final SimBalancer simBalancer = new SimBalancer();
+
+    // Smoothed time between consecutive sends while there is a backlog
+    private volatile double drainIntervalMs = 1000;
+    private long lastSendAt = 0;
+    private boolean lastSendHadBacklog = false;
+
+    private Runnable drainedCallback;
+    private int drainedThreshold;
+
+    private OutboundDispatcher(Context context) {
+        this.context = context.getApplicationContext();
+        this.smsDao = AppDatabase.getInstance(this.context).smsDao();
+        this.ledger = new SmsIdLedger(new File(this.context.getFilesDir(), "sms-ledger"));
+        this.subscriptionRegistry = new SubscriptionRegistry(this.context);
+        Thread senderThread = new Thread(this::runSenderLoop, "textbee-sender");
+        senderThread.setDaemon(true);
+        senderThread.start();
+    }
+
+    public static OutboundDispatcher getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (OutboundDispatcher.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new OutboundDispatcher(context);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Persist every recipient of the payload to the outbound queue in one transaction.
+     * Does database I/O, so it must not be called on the main thread.
+     *
+     * @return the number of recipients accepted into the queue
+     */
+    public int submit(SMSPayload smsPayload) {
+        if (smsPayload == null) {
+            Log.e(TAG, "SMS payload is null");
+            return 0;
+        }
+
+        String[] recipients = smsPayload.getRecipients();
+        if (recipients == null || recipients.length == 0) {
+            Log.e(TAG, "No recipients found in SMS payload");
+            return 0;
+        }
+
+        String smsId = smsPayload.getSmsId();
+        if (smsId != null && ledger.hasSent(smsId)) {
+            Log.d(TAG, "SMS already sent, skipping - ID: " + smsId);
+            MessageTrace.record(smsId, MessageTrace.SKIPPED_DUPLICATE, 0);
+            return 0;
+        }
+        if (smsId != null && !queuedSmsIds.add(smsId)) {
+            Log.d(TAG, "SMS already queued, skipping - ID: " + smsId);
+            MessageTrace.record(smsId, MessageTrace.SKIPPED_DUPLICATE, 0);
+            return 0;
+        }
+
+        Date requestedAt = new Date();
+        List<SMS> rows = new ArrayList<>(recipients.length);
+        for (int i = 0; i < recipients.length; i++) {
+            SMS sms = new SMS();
+            sms.setType(SMS.TYPE_SENT);
+            sms.setStatus(SMS.STATUS_QUEUED);
+            sms.set_id(smsId);
+            sms.setSmsBatchId(smsPayload.getSmsBatchId());
+            sms.setRecipient(recipients[i]);
+            sms.setMessage(smsPayload.getMessage());
+            sms.setRequestedAt(requestedAt);
+            sms.setLastRecipient(i == recipients.length - 1);
+            rows.add(sms);
+        }
+
+        try {
+            synchronized (queueLock) {
+                smsDao.insertAll(rows);
+                queueDepth += rows.size();
+            }
+        } catch (Exception e) {
+            // Leave it pending on the server so a later poll can retry it
+            if (smsId != null) {
+                queuedSmsIds.remove(smsId);
+            }
+            TextBeeUtils.logException(e, "Error queueing SMS - ID: " + smsId);
+            return 0;
+        }
+
+        MessageTrace.record(smsId, MessageTrace.QUEUED, rows.size());
+        workAvailable.release();
+        return rows.size();
+    }
+
+    /**
+     * Record a sent/delivered broadcast against the queued recipient it belongs to.
+     *
+     * @param outboundId row id passed along with the status PendingIntent
+     * @param status one of SMS.STATUS_SENT, STATUS_DELIVERED or STATUS_FAILED
+     * @param errorCode result code for failures, otherwise null
+     */
+    public void recordStatus(long outboundId, String status, String errorCode) {
+        if (outboundId <= 0) {
+            return;
+        }
+        if (!SMS.STATUS_DELIVERED.equals(status)) {
+            simBalancer.onCompleted(outboundId);
+        }
+        writeExecutor.execute(() -> {
+            try {
+                Date now = new Date();
+                if (SMS.STATUS_SENT.equals(status)) {
+                    smsDao.markSent(outboundId, now);
+                } else if (SMS.STATUS_DELIVERED.equals(status)) {
+                    SMS sms = smsDao.getById(outboundId);
+                    if (sms != null && sms.getSentAt() != null) {
+                        MetricsRegistry.getInstance().sentToDelivered.record(now.getTime() - sms.getSentAt().getTime());
+                    }
+                    smsDao.markDelivered(outboundId, now);
+                } else if (SMS.STATUS_FAILED.equals(status)) {
+                    smsDao.markFailed(outboundId, now, errorCode);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error recording SMS status: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Record a sent broadcast. Radio and service failures fail the message over to another
+     * active, non-quarantined SIM it hasn't been tried on, up to MAX_SEND_ATTEMPTS; the
+     * callback runs on the database thread once the outcome is stored.
+     *
+     * @param outboundId row id passed along with the sent PendingIntent
+     * @param attempt attempt number passed along with the sent PendingIntent
+     * @param resultCode the broadcast's result code
+     * @param errorCode error code to store if the message fails
+     */
+    public void handleSentResult(long outboundId, int attempt, int resultCode, String errorCode,
+                                 SentResultCallback callback) {
+        writeExecutor.execute(() -> {
+            SMS sms = null;
+            boolean superseded = false;
+            try {
+                sms = smsDao.getById(outboundId);
+                if (sms != null && sms.getAttemptCount() != attempt) {
+                    superseded = true;
+                } else if (sms != null) {
+                    superseded = recordSentResult(sms, resultCode, errorCode);
+                }
+            } catch (Exception e) {
+                TextBeeUtils.logException(e, "Error recording sent result");
+            }
+            callback.onSentResultRecorded(sms, superseded);
+        });
+    }
+
+    /**
+     * @return true if the message was re-queued on another SIM
+     */
+    private boolean recordSentResult(SMS sms, int resultCode, String errorCode) {
+        long outboundId = sms.getId();
+        int subscriptionId = sms.getSubscriptionId();
+        Date now = new Date();
+        simBalancer.onCompleted(outboundId);
+
+        if (resultCode == Activity.RESULT_OK) {
+            simBalancer.recordSuccess(subscriptionId);
+            smsDao.markSent(outboundId, now);
+            return false;
+        }
+
+        if (isFailoverError(resultCode)) {
+            simBalancer.recordFailure(subscriptionId);
+
+            Set<Integer> triedSubscriptionIds = getTriedSubscriptionIds(sms);
+            triedSubscriptionIds.add(resolveSubscriptionId(subscriptionId));
+            boolean hasFailoverTarget = simBalancer.available(
+                    subscriptionRegistry.getActiveSubscriptionIds(), triedSubscriptionIds).length > 0;
+
+            if (SMS.STATUS_SUBMITTED.equals(sms.getStatus()) && sms.getAttemptCount() < MAX_SEND_ATTEMPTS
+                    && hasFailoverTarget) {
+                String attemptHistory = appendAttempt(sms.getAttemptHistory(), subscriptionId, errorCode, now.getTime());
+                synchronized (queueLock) {
+                    smsDao.requeueForFailover(outboundId, sms.getAttemptCount() + 1, attemptHistory);
+                    MessageTrace.record(sms.get_id(), MessageTrace.FAILED_OVER, resultCode);
+                    queueDepth++;
+                }
+                workAvailable.release();
+                Log.w(TAG, "SMS failed on SIM " + subscriptionId + " (" + errorCode + "), failing over - ID: "
+                        + sms.get_id() + ", attempt " + (sms.getAttemptCount() + 1));
+                return true;
+            }
+        }
+
+        smsDao.markFailed(outboundId, now, errorCode);
+        return false;
+    }
+
+    /**
+     * Failed attempts recorded on a row, oldest first.
+     */
+    public static List<SMSSendAttemptDTO> parseAttemptHistory(String attemptHistory) {
+        List<SMSSendAttemptDTO> attempts = new ArrayList<>();
+        if (attemptHistory == null || attemptHistory.isEmpty()) {
+            return attempts;
+        }
+        for (String entry : attemptHistory.split(";")) {
+            String[] fields = entry.split(":", 3);
+            if (fields.length < 3) {
+                continue;
+            }
+            try {
+                attempts.add(new SMSSendAttemptDTO(Integer.parseInt(fields[0]), fields[1], Long.parseLong(fields[2])));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Skipping malformed attempt history entry: " + entry);
+            }
+        }
+        return attempts;
+    }
+
+    private static String appendAttempt(String attemptHistory, int subscriptionId, String errorCode, long failedAtMillis) {
+        String entry = subscriptionId + ":" + (errorCode == null ? "" : errorCode) + ":" + failedAtMillis;
+        return attemptHistory == null || attemptHistory.isEmpty() ? entry : attemptHistory + ";" + entry;
+    }
+
+    private static boolean isFailoverError(int resultCode) {
+        return resultCode == SmsManager.RESULT_ERROR_NO_SERVICE
+                || resultCode == SmsManager.RESULT_ERROR_RADIO_OFF
+                || resultCode == SmsManager.RESULT_ERROR_GENERIC_FAILURE;
+    }
+
+    private Set<Integer> getTriedSubscriptionIds(SMS sms) {
+        Set<Integer> triedSubscriptionIds = new HashSet<>();
+        for (SMSSendAttemptDTO attempt : parseAttemptHistory(sms.getAttemptHistory())) {
+            triedSubscriptionIds.add(resolveSubscriptionId(attempt.getSimSubscriptionId()));
+        }
+        return triedSubscriptionIds;
+    }
+
+    /**
+     * -1 stands for the default SIM; compare attempts by its actual subscription id.
+     */
+    private static int resolveSubscriptionId(int subscriptionId) {
+        return subscriptionId == -1 ? SubscriptionManager.getDefaultSmsSubscriptionId() : subscriptionId;
+    }
+
+    /**
+     * Whether the queue has enough room for the poller to fetch another page.
+     */
+    public boolean hasCapacity() {
+        return QUEUE_CAPACITY - getQueueDepth() >= LOW_WATERMARK;
+    }
+
+    public int getQueueDepth() {
+        synchronized (queueLock) {
+            return queueDepth;
+        }
+    }
+
+    /**
+     * How many messages per second the sender thread gets through while it has a backlog.
+     */
+    public double getDrainRatePerSecond() {
+        return 1000.0 / drainIntervalMs;
+    }
+
+    /**
+     * Number of messages handed to the modem recently enough that the server may
+     * still report them as pending.
+     */
+    public int getRecentlySentCount() {
+        synchronized (recentSendTimes) {
+            evictExpiredSendTimes(System.currentTimeMillis());
+            return recentSendTimes.size();
+        }
+    }
+
+    /**
+     * Run the callback once, on the sender thread, as soon as the queue depth drops to
+     * the threshold. Runs immediately on the caller's thread if it is already there.
+     * Replaces any callback registered earlier.
+     */
+    public void notifyWhenDrained(int threshold, Runnable callback) {
+        synchronized (this) {
+            if (getQueueDepth() > threshold) {
+                drainedThreshold = threshold;
+                drainedCallback = callback;
+                return;
+            }
+            drainedCallback = null;
+        }
+        callback.run();
+    }
+
+    /**
+     * Drop the callback registered with {@link #notifyWhenDrained}, if it hasn't run yet.
+     */
+    public synchronized void cancelDrainedCallback() {
+        drainedCallback = null;
+    }
+
+    private void runSenderLoop() {
+        resumeQueue();
+
+        while (true) {
+            List<SMS> page;
+            try {
+                page = smsDao.getByStatus(SMS.STATUS_QUEUED, SEND_PAGE_SIZE);
+            } catch (Exception e) {
+                TextBeeUtils.logException(e, "Error reading outbound queue");
+                page = new ArrayList<>();
+            }
+
+            if (page.isEmpty()) {
+                try {
+                    workAvailable.acquire();
+                    workAvailable.drainPermits();
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Sender thread interrupted, stopping");
+                    return;
+                }
+                continue;
+            }
+
+            for (SMS sms : page) {
+                sendQueued(sms);
+                recordDrain();
+                runDrainedCallbackIfDue();
+            }
+        }
+    }
+
+    /**
+     * Pick up recipients left queued by a previous process. Rows already SUBMITTED were
+     * handed to the modem and get their status from the sent broadcast, so they are not
+     * sent again; if their broadcast was lost with the process, the SentBoxReconciler
+     * settles them later.
+     */
+    private void resumeQueue() {
+        SentBoxReconcileWorker.schedule(context);
+        try {
+            int deleted = smsDao.deleteFinishedBefore(new Date(System.currentTimeMillis() - FINISHED_ROW_RETENTION_MS));
+            queuedSmsIds.addAll(smsDao.getSmsIdsByStatus(SMS.STATUS_QUEUED));
+            int queued;
+            synchronized (queueLock) {
+                queued = smsDao.countByStatus(SMS.STATUS_QUEUED);
+                queueDepth = queued;
+            }
+            Log.i(TAG, "Resuming outbound queue with " + queued + " recipients (pruned " + deleted + " finished)");
+        } catch (Exception e) {
+            TextBeeUtils.logException(e, "Error resuming outbound queue");
+        }
+    }
+
+    private void sendQueued(SMS sms) {
+        boolean submitted = false;
+        try {
+            int subscriptionId = chooseSubscription(sms);
+            SmsManager smsManager = getSmsManager(subscriptionId);
+            ArrayList<String> parts = smsManager.divideMessage(sms.getMessage());
+
+            // The row stays QUEUED while it waits, so a crash here still resumes it
+            awaitSendTokens(subscriptionId, parts.size());
+
+            // Mark before handing to the modem: after a crash it is better to lose
+            // a status than to send the same text twice
+            Date submittedAt = new Date();
+            smsDao.markSubmitted(sms.getId(), subscriptionId, submittedAt);
+            submitted = true;
+            MessageTrace.record(sms.get_id(), MessageTrace.SUBMITTED, subscriptionId);
+            if (sms.getAttemptCount() == 1 && sms.getRequestedAt() != null) {
+                MetricsRegistry.getInstance().receiveToSubmit.record(submittedAt.getTime() - sms.getRequestedAt().getTime());
+            }
+            simBalancer.onSubmitted(sms.getId(), subscriptionId);
+            boolean accepted = send(sms, smsManager, parts);
+            // Only once the modem has taken it; a recipient that never got this far must
+            // not make later polls skip the message
+            if (accepted && sms.isLastRecipient() && sms.get_id() != null) {
+                markSent(sms.get_id());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            TextBeeUtils.logException(e, "Error sending SMS - ID: " + sms.get_id());
+            if (!submitted) {
+                failUnsent(sms, e);
+            }
+        } finally {
+            synchronized (queueLock) {
+                queueDepth = Math.max(0, queueDepth - 1);
+            }
+            if (sms.isLastRecipient() && sms.get_id() != null) {
+                queuedSmsIds.remove(sms.get_id());
+            }
+        }
+    }
+
+    /**
+     * Fail a row that threw before it reached SmsManager and report it, so the sender thread
+     * doesn't pick the same row up again straight away. The row is marked on this thread
+     * because the next page is read as soon as this returns.
+     */
+    private void failUnsent(SMS sms, Exception cause) {
+        try {
+            smsDao.markFailed(sms.getId(), new Date(), SEND_EXCEPTION_ERROR_CODE);
+        } catch (Exception e) {
+            // Most likely the database itself; don't spin on the row while it is unwritable
+            TextBeeUtils.logException(e, "Error failing unsendable SMS - ID: " + sms.get_id());
+            try {
+                Thread.sleep(UNWRITABLE_ROW_BACKOFF_MS);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        GatewayConfig config = GatewayConfig.get(context);
+        if (sms.get_id() == null || !config.hasCredentials()) {
+            return;
+        }
+        SMSDTO smsDTO = new SMSDTO();
+        smsDTO.setSmsId(sms.get_id());
+        smsDTO.setSmsBatchId(sms.getSmsBatchId());
+        smsDTO.setStatus(SMS.STATUS_FAILED);
+        smsDTO.setFailedAtInMillis(System.currentTimeMillis());
+        smsDTO.setErrorCode(SEND_EXCEPTION_ERROR_CODE);
+        smsDTO.setErrorMessage(cause.getMessage());
+        smsDTO.setAttemptCount(sms.getAttemptCount());
+        List<SMSSendAttemptDTO> sendAttempts = parseAttemptHistory(sms.getAttemptHistory());
+        if (!sendAttempts.isEmpty()) {
+            smsDTO.setSendAttempts(sendAttempts);
+        }
+        SMSStatusBatcher.getInstance(context).add(smsDTO);
+    }
+
+    /**
+     * The preferred SIM, or with a balancing policy set, one of the active SIMs that isn't
+     * quarantined. A failover attempt always moves to a SIM the message hasn't been tried on.
+     */
+    private int chooseSubscription(SMS sms) {
+        GatewayConfig config = GatewayConfig.get(context);
+        int preferredSim = config.preferredSim;
+        SimBalancer.Policy policy = config.simBalancingPolicy;
+        int[] activeSubscriptionIds = subscriptionRegistry.getActiveSubscriptionIds();
+
+        if (sms.getAttemptCount() > 1) {
+            int[] untried = simBalancer.available(activeSubscriptionIds, getTriedSubscriptionIds(sms));
+            SimBalancer.Policy failoverPolicy = policy == SimBalancer.Policy.OFF ? SimBalancer.Policy.ROUND_ROBIN : policy;
+            return simBalancer.choose(failoverPolicy, untried, rateLimiter, preferredSim);
+        }
+        if (policy == SimBalancer.Policy.OFF) {
+            return preferredSim;
+        }
+
+        int[] available = simBalancer.available(activeSubscriptionIds, new HashSet<>());
+        // If every SIM is quarantined, keep sending rather than stall the queue
+        return simBalancer.choose(policy, available.length > 0 ? available : activeSubscriptionIds, rateLimiter, preferredSim);
+    }
+
+    /**
+     * Block the sender thread until the SIM's token bucket can pay for every segment,
+     * so bursts are deferred instead of failing with RESULT_ERROR_LIMIT_EXCEEDED.
+     */
+    private void awaitSendTokens(int subscriptionId, int segments) throws InterruptedException {
+        long waitMs;
+        while ((waitMs = rateLimiter.tryAcquire(subscriptionId, segments)) > 0) {
+            Log.d(TAG, "Rate limit reached on SIM " + subscriptionId + ", deferring " + segments
+                    + " segment(s) for " + waitMs + " ms");
+            Thread.sleep(waitMs);
+        }
+    }
+
+    private void recordDrain() {
+        long now = System.currentTimeMillis();
+        if (lastSendHadBacklog) {
+            long interval = now - lastSendAt;
+            drainIntervalMs = (1 - DRAIN_RATE_SMOOTHING) * drainIntervalMs + DRAIN_RATE_SMOOTHING * Math.max(1, interval);
+        }
+        lastSendAt = now;
+        lastSendHadBacklog = getQueueDepth() > 0;
+    }
+
+    private void runDrainedCallbackIfDue() {
+        Runnable callback;
+        synchronized (this) {
+            if (drainedCallback == null || getQueueDepth() > drainedThreshold) {
+                return;
+            }
+            callback = drainedCallback;
+            drainedCallback = null;
+        }
+        try {
+            callback.run();
+        } catch (Exception e) {
+            Log.e(TAG, "Error in drained callback: " + e.getMessage());
+        }
+    }
+
+    private void markSent(String smsId) {
+        ledger.markSent(smsId);
+        synchronized (recentSendTimes) {
+            long now = System.currentTimeMillis();
+            recentSendTimes.addLast(now);
+            evictExpiredSendTimes(now);
+        }
+    }
+
+    private void evictExpiredSendTimes(long now) {
+        while (!recentSendTimes.isEmpty() && now - recentSendTimes.peekFirst() > RECENTLY_SENT_WINDOW_MS) {
+            recentSendTimes.removeFirst();
+        }
+    }
+
+    /**
+     * @return true if SmsManager accepted the message
+     */
+    private boolean send(SMS sms, SmsManager smsManager, ArrayList<String> parts) {
+        boolean smsSent = SMSHelper.sendSMS(
+                smsManager,
+                sms.getRecipient(),
+                parts,
+                sms.get_id(),
+                sms.getSmsBatchId(),
+                sms.getId(),
+                sms.getAttemptCount(),
+                context
+        );
+
+        if (!smsSent) {
+            smsDao.markFailed(sms.getId(), new Date(), null);
+            simBalancer.onCompleted(sms.getId());
+        }
+        Log.d(TAG, "SMS to " + sms.getRecipient() + ": " + (smsSent ? "sent" : "failed")
+                + " (queue depth: " + getQueueDepth() + ")");
+        return smsSent;
+    }
+
+    /**
+     * SmsManager instances are cached per subscription id; -1 means the default SIM.
+     */
+    private SmsManager getSmsManager(int subscriptionId) {
+        SmsManager smsManager = smsManagers.get(subscriptionId);
+        if (smsManager == null) {
+            smsManager = subscriptionId == -1
+                    ? SmsManager.getDefault()
+                    : SmsManager.getSmsManagerForSubscriptionId(subscriptionId);
+            smsManagers.put(subscriptionId, smsManager);
+        }
+        return smsManager;
+    }
+}
@@ -0,0 +1,288 @@
+package com.vernu.sms.helpers;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of events waiting to be uploaded, kept in memory-mapped segment files.
+ * Appending costs one copy into the mapping; the page cache keeps it if the process dies.
+ *
+ * Records are [length][crc32][type][payload]. The length is written last, so a zero
+ * length marks the end of the log even after a crash mid-append. Readers take records
+ * from the checkpoint onwards and move the checkpoint once they are uploaded; segments
+ * wholly behind the checkpoint are deleted.
+ */
+public class Outbox {
+    private static final String TAG = "Outbox";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_BYTES = 4 + 4 + 1;
+    private static final int SEGMENT_BYTES = 1024 * 1024;
+
+    public static final int TYPE_RECEIVED_SMS = 1;
+    public static final int TYPE_SMS_STATUS = 2;
+
+    private final File directory;
+    private final TreeSet<Long> segments = new TreeSet<>();
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+
+    private long readSegment;
+    private int readPosition;
+    // Mapping of an older segment being read, kept while the reader catches up
+    private MappedByteBuffer readBuffer;
+    private long readBufferSegment = -1;
+
+    /**
+     * @param directory where the segments are kept; created if missing
+     */
+    public Outbox(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "Ignoring " + name);
+                    }
+                }
+            }
+        }
+
+        readCheckpoint();
+        if (segments.isEmpty() || segments.last() < readSegment) {
+            openWriteSegment(readSegment, SEGMENT_BYTES);
+        } else {
+            writeSegment = segments.last();
+            writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE, 0);
+            recoverWritePosition();
+        }
+        if (!segments.contains(readSegment)) {
+            readSegment = segments.first();
+            readPosition = 0;
+        }
+        deleteSegmentsBefore(readSegment);
+    }
+
+    /**
+     * Append a record; returns false if it couldn't be written.
+     */
+    public synchronized boolean append(int type, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = HEADER_BYTES + bytes.length;
+        try {
+            if (writeBuffer.remaining() < recordBytes) {
+                // A record never spans segments; one larger than a segment gets its own
+                openWriteSegment(writeSegment + 1, Math.max(SEGMENT_BYTES, recordBytes + 4));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening outbox segment: " + e.getMessage());
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(bytes);
+
+        int start = writeBuffer.position();
+        writeBuffer.position(start + 4);
+        writeBuffer.putInt((int) crc.getValue());
+        writeBuffer.put((byte) type);
+        writeBuffer.put(bytes);
+        writeBuffer.putInt(start, bytes.length);
+        return true;
+    }
+
+    /**
+     * Records from the checkpoint onwards, without moving the checkpoint.
+     *
+     * @param maxRecords stop after this many records
+     * @param maxBytes stop once the payloads add up to this many bytes; at least one record is returned
+     */
+    public synchronized List<Record> peek(int maxRecords, long maxBytes) {
+        List<Record> records = new ArrayList<>();
+        long segment = readSegment;
+        int position = readPosition;
+        long bytes = 0;
+
+        try {
+            ByteBuffer buffer = bufferFor(segment);
+            while (records.size() < maxRecords && bytes < maxBytes) {
+                int length = buffer.capacity() - position >= HEADER_BYTES ? buffer.getInt(position) : 0;
+                if (length <= 0) {
+                    Long next = segments.higher(segment);
+                    if (next == null) {
+                        break;
+                    }
+                    segment = next;
+                    position = 0;
+                    buffer = bufferFor(segment);
+                    continue;
+                }
+
+                int type = buffer.get(position + 8);
+                byte[] payload = new byte[length];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(position + HEADER_BYTES);
+                slice.get(payload);
+                position += HEADER_BYTES + length;
+                records.add(new Record(type, new String(payload, StandardCharsets.UTF_8), segment, position));
+                bytes += length;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading outbox: " + e.getMessage());
+        }
+        return records;
+    }
+
+    /**
+     * Move the checkpoint past the given record, which came from {@link #peek}.
+     */
+    public synchronized void commit(Record record) throws IOException {
+        readSegment = record.segment;
+        readPosition = record.endPosition;
+        writeCheckpoint();
+        deleteSegmentsBefore(readSegment);
+    }
+
+    public synchronized boolean isEmpty() {
+        return peek(1, 1).isEmpty();
+    }
+
+    private ByteBuffer bufferFor(long segment) throws IOException {
+        if (segment == writeSegment) {
+            return writeBuffer.duplicate();
+        }
+        if (readBuffer == null || segment != readBufferSegment) {
+            readBuffer = map(segment, FileChannel.MapMode.READ_ONLY, 0);
+            readBufferSegment = segment;
+        }
+        return readBuffer.duplicate();
+    }
+
+    private void openWriteSegment(long segment, int size) throws IOException {
+        writeBuffer = map(segment, FileChannel.MapMode.READ_WRITE, size);
+        writeSegment = segment;
+        segments.add(segment);
+    }
+
+    private MappedByteBuffer map(long segment, FileChannel.MapMode mode, int size) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw")) {
+            if (size > 0 && file.length() < size) {
+                // New segments are zero-filled, which reads as the end of the log
+                file.setLength(size);
+            }
+            return file.getChannel().map(mode, 0, file.length());
+        }
+    }
+
+    /**
+     * Find the end of the last segment, dropping a torn record left by a crash.
+     */
+    private void recoverWritePosition() {
+        int position = 0;
+        ByteBuffer buffer = writeBuffer.duplicate();
+        while (buffer.capacity() - position >= HEADER_BYTES) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.position(position + HEADER_BYTES);
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.get(position + 8));
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                Log.w(TAG, "Dropping torn outbox record at " + position);
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+
+        // Clear whatever a torn append left behind so it can't be mistaken for a record
+        for (int i = position; i < writeBuffer.capacity(); i++) {
+            if (writeBuffer.get(i) != 0) {
+                for (int j = position; j < writeBuffer.capacity(); j++) {
+                    writeBuffer.put(j, (byte) 0);
+                }
+                break;
+            }
+        }
+        writeBuffer.position(position);
+    }
+
+    private void readCheckpoint() {
+        File file = new File(directory, CHECKPOINT_FILE);
+        readSegment = segments.isEmpty() ? 0 : segments.first();
+        readPosition = 0;
+        if (!file.exists()) {
+            return;
+        }
+        try (RandomAccessFile checkpoint = new RandomAccessFile(file, "r")) {
+            readSegment = checkpoint.readLong();
+            readPosition = checkpoint.readInt();
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading outbox checkpoint, starting from the oldest segment: " + e.getMessage());
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        File temp = new File(directory, CHECKPOINT_FILE + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            output.write(ByteBuffer.allocate(12).putLong(readSegment).putInt(readPosition).array());
+            output.getFD().sync();
+        }
+        if (!temp.renameTo(new File(directory, CHECKPOINT_FILE))) {
+            throw new IOException("Could not replace outbox checkpoint");
+        }
+    }
+
+    private void deleteSegmentsBefore(long segment) {
+        while (!segments.isEmpty() && segments.first() < segment) {
+            long oldest = segments.pollFirst();
+            if (!segmentFile(oldest).delete()) {
+                Log.w(TAG, "Could not delete outbox segment " + oldest);
+            }
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format(Locale.US, "%016d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    public static class Record {
+        public final int type;
+        public final String payload;
+        final long segment;
+        final int endPosition;
+
+        Record(int type, String payload, long segment, int endPosition) {
+            this.type = type;
+            this.payload = payload;
+            this.segment = segment;
+            this.endPosition = endPosition;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.vernu.sms.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.vernu.sms.ApiManager;
+import com.vernu.sms.TextBeeUtils;
+import com.vernu.sms.dtos.ReceivedSMSBatchDTO;
+import com.vernu.sms.dtos.SMSDTO;
+import com.vernu.sms.dtos.SMSForwardResponseDTO;
+import com.vernu.sms.dtos.SMSStatusBatchDTO;
+import com.vernu.sms.json.GatewayGson;
+import com.vernu.sms.metrics.MessageTrace;
+import com.vernu.sms.metrics.MetricsRegistry;
+import com.vernu.sms.workers.OutboxDrainWorker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import retrofit2.Response;
+
+/**
+ * Single consumer of the {@link Outbox}: received SMS that couldn't be sent right away and
+ * every status update are appended to it and uploaded in order, in batches, by this drainer.
+ *
+ * Received SMS are drained once the oldest is a few seconds old or enough have piled up;
+ * status updates when {@link SMSStatusBatcher} says so. A failed drain is handed to the unique, network-constrained OutboxDrainWorker, which
+ * calls back into {@link #drain()}.
+ */
+public class OutboxDrainer {
+    private static final String TAG = "OutboxDrainer";
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    // Drain once the oldest received SMS is this old...
+    private static final long MAX_BATCH_AGE_MS = 5000;
+    // ...or once a batch worth of them is waiting; also the bounds of one request
+    private static final int MAX_BATCH_MESSAGES = 200;
+    private static final long MAX_BATCH_BYTES = 256 * 1024;
+
+    private static volatile OutboxDrainer instance;
+
+    private final Context context;
+    private final Outbox outbox;
+    private final Gson gson = GatewayGson.get();
+    private final ScheduledExecutorService drainExecutor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "textbee-outbox-drain"));
+
+    private final Object drainLock = new Object();
+    private final Object scheduleLock = new Object();
+    private ScheduledFuture<?> scheduledDrain;
+    private boolean scheduledImmediately = false;
+    private int messagesSinceDrain = 0;
+    private long bytesSinceDrain = 0;
+
+    public static OutboxDrainer getInstance(Context context) {
+        if (instance == null) {
+            synchronized (OutboxDrainer.class) {
+                if (instance == null) {
+                    instance = new OutboxDrainer(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private OutboxDrainer(Context context) {
+        this.context = context;
+        Outbox opened = null;
+        try {
+            opened = new Outbox(new File(context.getFilesDir(), "outbox"));
+        } catch (IOException e) {
+            TextBeeUtils.logException(e, "Error opening outbox");
+        }
+        this.outbox = opened;
+
+        // Whatever was left over from the last run goes out first
+        if (outbox != null && !outbox.isEmpty()) {
+            scheduleDrain(0);
+        }
+    }
+
+    /**
+     * Append a received SMS; it is uploaded with the next batch.
+     *
+     * @return true if it is in the outbox, false if it couldn't be stored
+     */
+    public boolean enqueueReceivedSMS(SMSDTO smsDTO) {
+        String payload = gson.toJson(smsDTO);
+        if (!append(Outbox.TYPE_RECEIVED_SMS, payload)) {
+            return false;
+        }
+        synchronized (scheduleLock) {
+            messagesSinceDrain++;
+            bytesSinceDrain += payload.length();
+            boolean full = messagesSinceDrain >= MAX_BATCH_MESSAGES || bytesSinceDrain >= MAX_BATCH_BYTES;
+            scheduleDrain(full ? 0 : MAX_BATCH_AGE_MS);
+        }
+        return true;
+    }
+
+    /**
+     * Append a status update without uploading it; {@link SMSStatusBatcher} decides when
+     * to drain.
+     *
+     * @return true if it is in the outbox, false if it couldn't be stored
+     */
+    public boolean appendStatusUpdate(SMSDTO smsDTO) {
+        return append(Outbox.TYPE_SMS_STATUS, gson.toJson(smsDTO));
+    }
+
+    /**
+     * {@link #drain()} on the caller's thread, leaving a failed upload to the OutboxDrainWorker.
+     */
+    public void drainOrRetryLater() {
+        if (!drain()) {
+            OutboxDrainWorker.enqueueWork(context);
+        }
+    }
+
+    /**
+     * Whether nothing is waiting to be uploaded.
+     */
+    public boolean isEmpty() {
+        return outbox == null || outbox.isEmpty();
+    }
+
+    /**
+     * Upload everything in the outbox, oldest first. Blocks until done; safe to call from any thread.
+     *
+     * @return true if the outbox is empty, false if an upload failed and should be retried
+     */
+    public boolean drain() {
+        if (outbox == null) {
+            return true;
+        }
+        synchronized (drainLock) {
+            GatewayConfig config = GatewayConfig.get(context);
+            if (!config.hasCredentials()) {
+                Log.e(TAG, "Device ID or API key not found");
+                return false;
+            }
+            String deviceId = config.deviceId;
+            String apiKey = config.apiKey;
+
+            while (true) {
+                List<Outbox.Record> records = outbox.peek(MAX_BATCH_MESSAGES, MAX_BATCH_BYTES);
+                if (records.isEmpty()) {
+                    return true;
+                }
+
+                // Send the leading run of one type, so events still go out in order
+                int type = records.get(0).type;
+                List<SMSDTO> batch = new ArrayList<>();
+                Outbox.Record last = null;
+                for (Outbox.Record record : records) {
+                    if (record.type != type) {
+                        break;
+                    }
+                    SMSDTO smsDTO = parse(record.payload);
+                    if (smsDTO != null) {
+                        batch.add(smsDTO);
+                    }
+                    last = record;
+                }
+
+                if (!batch.isEmpty() && !send(type, deviceId, apiKey, batch)) {
+                    return false;
+                }
+                try {
+                    outbox.commit(last);
+                } catch (IOException e) {
+                    TextBeeUtils.logException(e, "Error checkpointing outbox");
+                    return false;
+                }
+            }
+        }
+    }
+
+    private boolean append(int type, String payload) {
+        if (outbox == null || !outbox.append(type, payload)) {
+            Log.e(TAG, "Could not append to outbox, event dropped");
+            return false;
+        }
+        return true;
+    }
+
+    private void scheduleDrain(long delayMs) {
+        synchronized (scheduleLock) {
+            if (scheduledDrain != null && !scheduledDrain.isDone()) {
+                if (delayMs > 0 || scheduledImmediately) {
+                    return;
+                }
+                scheduledDrain.cancel(false);
+            }
+            scheduledImmediately = delayMs == 0;
+            scheduledDrain = drainExecutor.schedule(this::runScheduledDrain, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runScheduledDrain() {
+        synchronized (scheduleLock) {
+            scheduledDrain = null;
+            messagesSinceDrain = 0;
+            bytesSinceDrain = 0;
+        }
+        drainOrRetryLater();
+    }
+
+    private boolean send(int type, String deviceId, String apiKey, List<SMSDTO> batch) {
+        int responseCode = -1;
+        try {
+            long startedAt = System.nanoTime();
+            Response<SMSForwardResponseDTO> response;
+            if (type == Outbox.TYPE_RECEIVED_SMS) {
+                RequestBody body = RequestBody.create(JSON, gzip(gson.toJson(new ReceivedSMSBatchDTO(batch))));
+                response = ApiManager.getApiService().sendReceivedSMSBatch(deviceId, apiKey, "gzip", body).execute();
+            } else if (type == Outbox.TYPE_SMS_STATUS) {
+                batch = coalesce(batch);
+                response = ApiManager.getApiService()
+                        .updateSMSStatusBatch(deviceId, apiKey, new SMSStatusBatchDTO(batch))
+                        .execute();
+            } else {
+                Log.w(TAG, "Skipping " + batch.size() + " outbox records of unknown type " + type);
+                return true;
+            }
+
+            if (response.isSuccessful()) {
+                Log.d(TAG, "Uploaded outbox batch of " + batch.size() + ", type " + type);
+                if (type == Outbox.TYPE_RECEIVED_SMS) {
+                    recordLatency(batch);
+                } else {
+                    MetricsRegistry.getInstance().statusUpload.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                    SMSStatusBatcher.traceAll(batch, MessageTrace.STATUS_UPLOADED, response.code());
+                }
+                return true;
+            }
+            if (response.code() == 404) {
+                // Server without the batch endpoints
+                return sendOneByOne(type, deviceId, apiKey, batch);
+            }
+            if (isPermanentFailure(response.code())) {
+                // Retrying a request the server rejects would block everything behind it
+                Log.e(TAG, "Dropping outbox batch of " + batch.size() + ". Response code: " + response.code());
+                return true;
+            }
+            Log.e(TAG, "Failed to upload outbox batch. Response code: " + response.code());
+            responseCode = response.code();
+        } catch (IOException e) {
+            Log.e(TAG, "Outbox upload failed: " + e.getMessage());
+        }
+        if (type == Outbox.TYPE_SMS_STATUS) {
+            SMSStatusBatcher.traceAll(batch, MessageTrace.STATUS_UPLOAD_FAILED, responseCode);
+        }
+        return false;
+    }
+
+    private boolean sendOneByOne(int type, String deviceId, String apiKey, List<SMSDTO> batch) throws IOException {
+        for (SMSDTO smsDTO : batch) {
+            Response<SMSForwardResponseDTO> response = type == Outbox.TYPE_RECEIVED_SMS
+                    ? ApiManager.getApiService().sendReceivedSMS(deviceId, apiKey, smsDTO).execute()
+                    : ApiManager.getApiService().updateSMSStatus(deviceId, apiKey, smsDTO).execute();
+            if (!response.isSuccessful() && !isPermanentFailure(response.code())) {
+                Log.e(TAG, "Failed to upload outbox record. Response code: " + response.code());
+                return false;
+            }
+            if (response.isSuccessful() && type == Outbox.TYPE_RECEIVED_SMS) {
+                recordLatency(Collections.singletonList(smsDTO));
+            }
+        }
+        return true;
+    }
+
+    private static void recordLatency(List<SMSDTO> received) {
+        long now = System.currentTimeMillis();
+        for (SMSDTO smsDTO : received) {
+            if (smsDTO.getDeviceReceivedAtInMillis() > 0) {
+                MetricsRegistry.getInstance().inboundQueued.record(now - smsDTO.getDeviceReceivedAtInMillis());
+            }
+        }
+    }
+
+    private static boolean isPermanentFailure(int code) {
+        return code >= 400 && code < 500 && code != 401 && code != 408 && code != 429;
+    }
+
+    static List<SMSDTO> coalesce(List<SMSDTO> updates) {
+        Map<String, SMSDTO> latest = new LinkedHashMap<>();
+        List<SMSDTO> unkeyed = new ArrayList<>();
+        for (SMSDTO smsDTO : updates) {
+            if (smsDTO.getSmsId() == null) {
+                unkeyed.add(smsDTO);
+                continue;
+            }
+            SMSDTO previous = latest.get(smsDTO.getSmsId());
+            latest.put(smsDTO.getSmsId(), previous == null ? smsDTO : SMSStatusBatcher.coalesce(previous, smsDTO));
+        }
+        List<SMSDTO> coalesced = new ArrayList<>(latest.values());
+        coalesced.addAll(unkeyed);
+        return coalesced;
+    }
+
+    private SMSDTO parse(String payload) {
+        try {
+            return gson.fromJson(payload, SMSDTO.class);
+        } catch (JsonParseException e) {
+            Log.w(TAG, "Skipping malformed outbox record");
+            return null;
+        }
+    }
+
+    private static byte[] gzip(String json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            writer.write(json);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,114 @@
+package com.vernu.sms.helpers;
+
+/**
+ * Decides how long StickyNotificationService waits before the next pending-sms poll.
+ * Polls back to back while the server keeps returning full pages, doubles the
+ * interval up to a ceiling while responses are empty, and snaps back to the
+ * fast interval as soon as there is any activity.
+ */
+public class PollingScheduler {
+    public static final long DEFAULT_MIN_INTERVAL_MS = 5000;
+    public static final long DEFAULT_MAX_INTERVAL_MS = 5 * 60 * 1000;
+
+    public enum Reason {
+        STARTING("starting"),
+        MORE_PENDING("more messages pending"),
+        ACTIVITY("recent activity"),
+        IDLE("idle"),
+        ERROR("backing off after error"),
+        QUEUE_FULL("waiting for send queue"),
+        STREAMING("streaming, watchdog poll");
+
+        private final String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private long currentIntervalMs;
+    private Reason reason = Reason.STARTING;
+
+    public PollingScheduler() {
+        this(DEFAULT_MIN_INTERVAL_MS, DEFAULT_MAX_INTERVAL_MS);
+    }
+
+    public PollingScheduler(long minIntervalMs, long maxIntervalMs) {
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+        this.currentIntervalMs = minIntervalMs;
+    }
+
+    /**
+     * Record a successful poll and return the delay before the next one.
+     *
+     * @param newCount number of messages the poll handed to the send queue
+     * @param morePending whether the server likely has more messages waiting
+     */
+    public synchronized long onPollSucceeded(int newCount, boolean morePending) {
+        if (newCount > 0 && morePending) {
+            currentIntervalMs = minIntervalMs;
+            reason = Reason.MORE_PENDING;
+            return 0;
+        }
+        if (newCount > 0) {
+            currentIntervalMs = minIntervalMs;
+            reason = Reason.ACTIVITY;
+            return currentIntervalMs;
+        }
+        return backOff(Reason.IDLE);
+    }
+
+    public synchronized long onPollFailed() {
+        return backOff(Reason.ERROR);
+    }
+
+    /**
+     * The send queue can't take another page yet; check again soon without growing the interval.
+     */
+    public synchronized long onQueueFull() {
+        reason = Reason.QUEUE_FULL;
+        return minIntervalMs;
+    }
+
+    /**
+     * Any outbound or inbound traffic means more is likely to follow shortly.
+     */
+    public synchronized void onActivity() {
+        currentIntervalMs = minIntervalMs;
+        reason = Reason.ACTIVITY;
+    }
+
+    /**
+     * Pending messages are being pushed over the stream; polling only needs to catch
+     * anything the stream missed, so fall back to the slowest interval.
+     */
+    public synchronized long onStreamHealthy() {
+        currentIntervalMs = maxIntervalMs;
+        reason = Reason.STREAMING;
+        return currentIntervalMs;
+    }
+
+    public synchronized long getCurrentIntervalMs() {
+        return currentIntervalMs;
+    }
+
+    public synchronized Reason getReason() {
+        return reason;
+    }
+
+    private long backOff(Reason backOffReason) {
+        // Stay at the fast interval for the first empty response after activity
+        if (reason == Reason.IDLE || reason == Reason.ERROR) {
+            currentIntervalMs = Math.min(currentIntervalMs * 2, maxIntervalMs);
+        }
+        reason = backOffReason;
+        return currentIntervalMs;
+    }
+}
@@ -0,0 +1,136 @@
+package com.vernu.sms.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Hands out PendingIntent request codes from a persistent, monotonically increasing counter,
+ * so two live PendingIntents never share a code and FLAG_UPDATE_CURRENT can't overwrite
+ * one message's extras with another's, as hashed codes could.
+ *
+ * Live codes are kept in a primitive int to smsId map until their broadcast arrives. Delivery
+ * reports often never do, so once the map outgrows MAX_LIVE_CODES the codes allocated more
+ * than half that many codes ago are forgotten. The counter is persisted a block ahead, so
+ * codes handed out before a restart are never reused; after it wraps around, codes still
+ * live are skipped.
+ */
+public class RequestCodeAllocator {
+    private static final String TAG = "RequestCodeAllocator";
+    private static final int RESERVATION_BLOCK = 4096;
+    // Far more codes than are ever in flight at once: at two per message part this is hours
+    // of sending at the default rate limit, yet the map stays around a megabyte
+    static final int MAX_LIVE_CODES = 1 << 16;
+
+    private static volatile RequestCodeAllocator instance;
+
+    private final File counterFile;
+    private final IntObjectMap<String> liveCodes = new IntObjectMap<>(1024);
+    private int nextCode;
+    private int reservedUntil;
+
+    public static RequestCodeAllocator getInstance(Context context) {
+        if (instance == null) {
+            synchronized (RequestCodeAllocator.class) {
+                if (instance == null) {
+                    instance = new RequestCodeAllocator(new File(context.getApplicationContext().getFilesDir(), "request-code-counter"));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param counterFile where the counter is persisted, or null to keep it in memory only
+     */
+    public RequestCodeAllocator(File counterFile) {
+        this.counterFile = counterFile;
+        nextCode = Math.max(1, readCounter());
+        reservedUntil = nextCode;
+    }
+
+    /**
+     * A request code no other live PendingIntent uses.
+     */
+    public synchronized int allocate(String smsId) {
+        int code;
+        do {
+            code = nextCode;
+            nextCode = code == Integer.MAX_VALUE ? 1 : code + 1;
+        } while (liveCodes.containsKey(code));
+
+        if (nextCode > reservedUntil || nextCode < code) {
+            reservedUntil = (int) Math.min(Integer.MAX_VALUE, (long) nextCode + RESERVATION_BLOCK);
+            writeCounter(reservedUntil);
+        }
+
+        liveCodes.put(code, smsId != null ? smsId : "");
+        if (liveCodes.size() > MAX_LIVE_CODES) {
+            forgetStaleCodes();
+        }
+        return code;
+    }
+
+    /**
+     * The code's broadcast arrived; it may be handed out again after the counter wraps.
+     *
+     * @return the smsId the code was allocated for, or null if it isn't live
+     */
+    public synchronized String release(int requestCode) {
+        return liveCodes.remove(requestCode);
+    }
+
+    public synchronized String lookup(int requestCode) {
+        return liveCodes.get(requestCode);
+    }
+
+    public synchronized int getLiveCount() {
+        return liveCodes.size();
+    }
+
+    private void forgetStaleCodes() {
+        final int current = nextCode;
+        // Leaves at most half the limit, so the walk over the map runs once per that many allocations
+        liveCodes.removeIf(code -> distanceBehind(current, code) > MAX_LIVE_CODES / 2);
+        Log.d(TAG, "Forgot stale request codes, " + liveCodes.size() + " still live");
+    }
+
+    private static long distanceBehind(int current, int code) {
+        long distance = (long) current - code;
+        return distance >= 0 ? distance : distance + Integer.MAX_VALUE;
+    }
+
+    private int readCounter() {
+        if (counterFile == null || !counterFile.exists()) {
+            return 1;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(counterFile, "r")) {
+            return file.readInt();
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading request code counter: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private void writeCounter(int value) {
+        if (counterFile == null) {
+            return;
+        }
+        File temp = new File(counterFile.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            output.write(ByteBuffer.allocate(4).putInt(value).array());
+            output.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error persisting request code counter: " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(counterFile)) {
+            Log.e(TAG, "Could not replace request code counter");
+        }
+    }
+}
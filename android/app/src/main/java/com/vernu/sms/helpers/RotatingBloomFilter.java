@@ -0,0 +1,104 @@
+package com.vernu.sms.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Two-generation Bloom filter over strings. New keys go into the current generation;
+ * once it holds its capacity it becomes the previous generation and the old previous
+ * one is dropped, so memory stays fixed no matter how many keys pass through and a key
+ * is remembered for at least one full generation.
+ */
+public class RotatingBloomFilter {
+    private final int capacityPerGeneration;
+    private final int bitCount;
+    private final int hashCount;
+
+    private long[] current;
+    private long[] previous;
+    private int currentSize = 0;
+
+    /**
+     * @param capacityPerGeneration keys added before the filter rotates
+     * @param falsePositiveRate target false positive rate of a full generation
+     */
+    public RotatingBloomFilter(int capacityPerGeneration, double falsePositiveRate) {
+        this.capacityPerGeneration = capacityPerGeneration;
+        double ln2 = Math.log(2);
+        int bits = (int) Math.ceil(-capacityPerGeneration * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.bitCount = Math.max(64, bits);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacityPerGeneration * ln2));
+        this.current = new long[(bitCount + 63) / 64];
+        this.previous = new long[current.length];
+    }
+
+    /**
+     * Add a key to the current generation.
+     *
+     * @return true if adding it filled the generation and the filter rotated
+     */
+    public synchronized boolean add(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            current[bit >>> 6] |= 1L << bit;
+        }
+
+        if (++currentSize >= capacityPerGeneration) {
+            rotate();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the key was definitely not added in the last two generations
+     */
+    public synchronized boolean mightContain(String key) {
+        return mightContain(current, key) || mightContain(previous, key);
+    }
+
+    public synchronized void rotate() {
+        long[] recycled = previous;
+        Arrays.fill(recycled, 0L);
+        previous = current;
+        current = recycled;
+        currentSize = 0;
+    }
+
+    public synchronized int getCurrentSize() {
+        return currentSize;
+    }
+
+    private boolean mightContain(long[] bits, String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over the UTF-16 chars followed by a 64-bit finalizer, so both halves are usable
+     * for double hashing.
+     */
+    private static long hash64(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -9,20 +9,12 @@ import android.os.Build;
 import android.telephony.SubscriptionManager;
 import android.util.Log;
 
-import com.vernu.sms.ApiManager;
-import com.vernu.sms.AppConstants;
 import com.vernu.sms.TextBeeUtils;
 import com.vernu.sms.dtos.SMSDTO;
-import com.vernu.sms.dtos.SMSForwardResponseDTO;
 import com.vernu.sms.receivers.SMSStatusReceiver;
-import com.vernu.sms.services.GatewayApiService;
 
 import java.util.ArrayList;
 
-import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
-
 public class SMSHelper {
     private static final String TAG = "SMSHelper";
     
@@ -37,7 +29,26 @@ public class SMSHelper {
      * @return boolean True if sending was initiated, false if permissions aren't granted
      */
     public static boolean sendSMS(String phoneNo, String message, String smsId, String smsBatchId, Context context) {
-        // Check if we have permission to send SMS
+        SmsManager smsManager = SmsManager.getDefault();
+        return sendSMS(smsManager, phoneNo, smsManager.divideMessage(message), smsId, smsBatchId, -1, 1, context);
+    }
+    
+    /**
+     * Sends an SMS message through an already resolved SmsManager, so callers that
+     * send many messages can reuse one instance per subscription
+     * 
+     * @param smsManager The SmsManager for the SIM to send from
+     * @param phoneNo The recipient's phone number
+     * @param parts The message as split by SmsManager.divideMessage
+     * @param smsId The unique ID for this SMS
+     * @param smsBatchId The batch ID for this SMS
+     * @param outboundId The local outbound queue row for this recipient, or -1 if it isn't queued
+     * @param attempt The attempt number, counting SIM failovers, starting at 1
+     * @param context The application context
+     * @return boolean True if sending was initiated, false if permissions aren't granted
+     */
+    public static boolean sendSMS(SmsManager smsManager, String phoneNo, ArrayList<String> parts,
+                                  String smsId, String smsBatchId, long outboundId, int attempt, Context context) {
         if (!TextBeeUtils.isPermissionGranted(context, Manifest.permission.SEND_SMS)) {
             Log.e(TAG, "SMS permission not granted. Unable to send SMS.");
             
@@ -48,28 +59,7 @@ public class SMSHelper {
         }
         
         try {
-            SmsManager smsManager = SmsManager.getDefault();
-
-            // Create pending intents for status tracking
-            PendingIntent sentIntent = createSentPendingIntent(context, smsId, smsBatchId);
-            PendingIntent deliveredIntent = createDeliveredPendingIntent(context, smsId, smsBatchId);
-
-            // For SMS with more than 160 chars
-            ArrayList<String> parts = smsManager.divideMessage(message);
-            if (parts.size() > 1) {
-                ArrayList<PendingIntent> sentIntents = new ArrayList<>();
-                ArrayList<PendingIntent> deliveredIntents = new ArrayList<>();
-                
-                for (int i = 0; i < parts.size(); i++) {
-                    sentIntents.add(sentIntent);
-                    deliveredIntents.add(deliveredIntent);
-                }
-                
-                smsManager.sendMultipartTextMessage(phoneNo, null, parts, sentIntents, deliveredIntents);
-            } else {
-                smsManager.sendTextMessage(phoneNo, null, message, sentIntent, deliveredIntent);
-            }
-            
+            submit(smsManager, phoneNo, parts, smsId, smsBatchId, outboundId, attempt, context);
             return true;
         } catch (Exception e) {
             Log.e(TAG, "Exception when sending SMS: " + e.getMessage());
@@ -116,26 +106,7 @@ public class SMSHelper {
                 Log.w(TAG, "Using default SIM as specific SIM selection not supported on this Android version");
             }
 
-            // Create pending intents for status tracking
-            PendingIntent sentIntent = createSentPendingIntent(context, smsId, smsBatchId);
-            PendingIntent deliveredIntent = createDeliveredPendingIntent(context, smsId, smsBatchId);
-
-            // For SMS with more than 160 chars
-            ArrayList<String> parts = smsManager.divideMessage(message);
-            if (parts.size() > 1) {
-                ArrayList<PendingIntent> sentIntents = new ArrayList<>();
-                ArrayList<PendingIntent> deliveredIntents = new ArrayList<>();
-                
-                for (int i = 0; i < parts.size(); i++) {
-                    sentIntents.add(sentIntent);
-                    deliveredIntents.add(deliveredIntent);
-                }
-                
-                smsManager.sendMultipartTextMessage(phoneNo, null, parts, sentIntents, deliveredIntents);
-            } else {
-                smsManager.sendTextMessage(phoneNo, null, message, sentIntent, deliveredIntent);
-            }
-            
+            submit(smsManager, phoneNo, smsManager.divideMessage(message), smsId, smsBatchId, -1, 1, context);
             return true;
         } catch (Exception e) {
             Log.e(TAG, "Exception when sending SMS from specific SIM: " + e.getMessage());
@@ -147,6 +118,33 @@ public class SMSHelper {
         }
     }
     
+    /**
+     * Hands the message parts to the modem as one SMS, or as a multipart SMS when it didn't fit in one
+     */
+    private static void submit(SmsManager smsManager, String phoneNo, ArrayList<String> parts,
+                               String smsId, String smsBatchId, long outboundId, int attempt, Context context) {
+        int partCount = parts.size();
+
+        // For SMS with more than 160 chars
+        if (partCount > 1) {
+            // One intent per part, so SMSStatusReceiver can tell the parts apart and report
+            // the message once all of them have resolved
+            ArrayList<PendingIntent> sentIntents = new ArrayList<>();
+            ArrayList<PendingIntent> deliveredIntents = new ArrayList<>();
+            
+            for (int i = 0; i < partCount; i++) {
+                sentIntents.add(createSentPendingIntent(context, smsId, smsBatchId, outboundId, attempt, i, partCount));
+                deliveredIntents.add(createDeliveredPendingIntent(context, smsId, smsBatchId, outboundId, attempt, i, partCount));
+            }
+            
+            smsManager.sendMultipartTextMessage(phoneNo, null, parts, sentIntents, deliveredIntents);
+        } else {
+            PendingIntent sentIntent = createSentPendingIntent(context, smsId, smsBatchId, outboundId, attempt, 0, 1);
+            PendingIntent deliveredIntent = createDeliveredPendingIntent(context, smsId, smsBatchId, outboundId, attempt, 0, 1);
+            smsManager.sendTextMessage(phoneNo, null, parts.get(0), sentIntent, deliveredIntent);
+        }
+    }
+    
     private static void reportPermissionError(Context context, String smsId, String smsBatchId) {
         SMSDTO smsDTO = new SMSDTO();
         smsDTO.setSmsId(smsId);
@@ -156,7 +154,7 @@ public class SMSHelper {
         smsDTO.setErrorCode("PERMISSION_DENIED");
         smsDTO.setErrorMessage("SMS permission not granted");
         
-        updateSMSStatus(context, smsDTO);
+        SMSStatusBatcher.getInstance(context).add(smsDTO);
     }
     
     private static void reportSendingError(Context context, String smsId, String smsBatchId, String errorMessage) {
@@ -168,69 +166,54 @@ public class SMSHelper {
         smsDTO.setErrorCode("SENDING_EXCEPTION");
         smsDTO.setErrorMessage(errorMessage);
         
-        updateSMSStatus(context, smsDTO);
-    }
-    
-    private static void updateSMSStatus(Context context, SMSDTO smsDTO) {
-        String deviceId = SharedPreferenceHelper.getSharedPreferenceString(context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, "");
-        String apiKey = SharedPreferenceHelper.getSharedPreferenceString(context, AppConstants.SHARED_PREFS_API_KEY_KEY, "");
-        
-        if (deviceId.isEmpty() || apiKey.isEmpty()) {
-            Log.e(TAG, "Device ID or API key not found");
-            return;
-        }
-        
-        GatewayApiService apiService = ApiManager.getApiService();
-        Call<SMSForwardResponseDTO> call = apiService.updateSMSStatus(deviceId, apiKey, smsDTO);
-        
-        call.enqueue(new Callback<SMSForwardResponseDTO>() {
-            @Override
-            public void onResponse(Call<SMSForwardResponseDTO> call, Response<SMSForwardResponseDTO> response) {
-                if (response.isSuccessful()) {
-                    Log.d(TAG, "SMS status updated successfully - ID: " + smsDTO.getSmsId() + ", Status: " + smsDTO.getStatus());
-                } else {
-                    Log.e(TAG, "Failed to update SMS status. Response code: " + response.code());
-                }
-            }
-            
-            @Override
-            public void onFailure(Call<SMSForwardResponseDTO> call, Throwable t) {
-                Log.e(TAG, "API call failed: " + t.getMessage());
-            }
-        });
+        SMSStatusBatcher.getInstance(context).add(smsDTO);
     }
     
-    private static PendingIntent createSentPendingIntent(Context context, String smsId, String smsBatchId) {
+    private static PendingIntent createSentPendingIntent(Context context, String smsId, String smsBatchId, long outboundId,
+                                                       int attempt, int partIndex, int partCount) {
         // Create explicit intent (specify the component)
         Intent intent = new Intent(context, SMSStatusReceiver.class);
         intent.setAction(SMSStatusReceiver.SMS_SENT);
         intent.putExtra("sms_id", smsId);
         intent.putExtra("sms_batch_id", smsBatchId);
+        intent.putExtra("outbound_id", outboundId);
+        intent.putExtra("attempt", attempt);
+        intent.putExtra("part_index", partIndex);
+        intent.putExtra("part_count", partCount);
         
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             flags |= PendingIntent.FLAG_MUTABLE;
         }
         
-        // Use a unique request code to avoid PendingIntent collisions
-        int requestCode = (smsId + "_sent").hashCode();
+        // A request code no live PendingIntent holds, so FLAG_UPDATE_CURRENT can't
+        // overwrite another message's extras
+        int requestCode = RequestCodeAllocator.getInstance(context).allocate(smsId);
+        intent.putExtra("request_code", requestCode);
         return PendingIntent.getBroadcast(context, requestCode, intent, flags);
     }
     
-    private static PendingIntent createDeliveredPendingIntent(Context context, String smsId, String smsBatchId) {
+    private static PendingIntent createDeliveredPendingIntent(Context context, String smsId, String smsBatchId, long outboundId,
+                                                       int attempt, int partIndex, int partCount) {
         // Create explicit intent (specify the component)
         Intent intent = new Intent(context, SMSStatusReceiver.class);
         intent.setAction(SMSStatusReceiver.SMS_DELIVERED);
         intent.putExtra("sms_id", smsId);
         intent.putExtra("sms_batch_id", smsBatchId);
+        intent.putExtra("outbound_id", outboundId);
+        intent.putExtra("attempt", attempt);
+        intent.putExtra("part_index", partIndex);
+        intent.putExtra("part_count", partCount);
         
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             flags |= PendingIntent.FLAG_MUTABLE;
         }
         
-        // Use a unique request code to avoid PendingIntent collisions
-        int requestCode = (smsId + "_delivered").hashCode();
+        // A request code no live PendingIntent holds, so FLAG_UPDATE_CURRENT can't
+        // overwrite another message's extras
+        int requestCode = RequestCodeAllocator.getInstance(context).allocate(smsId);
+        intent.putExtra("request_code", requestCode);
         return PendingIntent.getBroadcast(context, requestCode, intent, flags);
     }
 }
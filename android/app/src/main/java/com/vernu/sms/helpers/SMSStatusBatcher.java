@@ -0,0 +1,169 @@
+package com.vernu.sms.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.vernu.sms.dtos.SMSDTO;
+import com.vernu.sms.metrics.MessageTrace;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when SMS status updates go out. Every update is written to the {@link Outbox}
+ * as it arrives, so none is lost with the process, and the outbox is drained once a short
+ * window closes or enough updates pile up. The drain sends them in one request to the
+ * batch endpoint, with updates for the same smsId coalesced so only the latest state is sent.
+ */
+public class SMSStatusBatcher {
+    private static final String TAG = "SMSStatusBatcher";
+    public static final long WINDOW_MS = 2000;
+    public static final int MAX_EVENTS = 100;
+
+    private static volatile SMSStatusBatcher instance;
+
+    /**
+     * Where updates are kept until they are uploaded.
+     */
+    public interface StatusOutbox {
+        /**
+         * Persist an update; false if it couldn't be stored.
+         */
+        boolean append(SMSDTO update);
+
+        /**
+         * Upload everything appended so far. Called on the batcher's flush thread.
+         */
+        void drain();
+    }
+
+    private final StatusOutbox outbox;
+    private final long windowMs;
+    private final int maxEvents;
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "textbee-status-flush"));
+
+    private final Object lock = new Object();
+    // Updates appended since the last drain was started
+    private int pendingCount = 0;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public static SMSStatusBatcher getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SMSStatusBatcher.class) {
+                if (instance == null) {
+                    OutboxDrainer drainer = OutboxDrainer.getInstance(context.getApplicationContext());
+                    instance = new SMSStatusBatcher(new StatusOutbox() {
+                        @Override
+                        public boolean append(SMSDTO update) {
+                            return drainer.appendStatusUpdate(update);
+                        }
+
+                        @Override
+                        public void drain() {
+                            drainer.drainOrRetryLater();
+                        }
+                    }, WINDOW_MS, MAX_EVENTS);
+                }
+            }
+        }
+        return instance;
+    }
+
+    public SMSStatusBatcher(StatusOutbox outbox, long windowMs, int maxEvents) {
+        this.outbox = outbox;
+        this.windowMs = Math.max(0, windowMs);
+        this.maxEvents = Math.max(1, maxEvents);
+    }
+
+    /**
+     * Write a status update to the outbox; it is uploaded when the window closes or
+     * enough updates have piled up.
+     */
+    public void add(SMSDTO smsDTO) {
+        if (!outbox.append(smsDTO)) {
+            Log.e(TAG, "Could not store status update for " + smsDTO.getSmsId());
+            MessageTrace.record(smsDTO.getSmsId(), MessageTrace.STATUS_UPLOAD_FAILED, -1);
+            return;
+        }
+        synchronized (lock) {
+            if (++pendingCount >= maxEvents) {
+                resetPendingLocked();
+                flushExecutor.execute(outbox::drain);
+            } else if (scheduledFlush == null) {
+                scheduledFlush = flushExecutor.schedule(this::flushPending, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Drain without waiting for the window to close.
+     */
+    public void flush() {
+        flushExecutor.execute(this::flushPending);
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pendingCount;
+        }
+    }
+
+    /**
+     * Merge two updates for the same SMS. The later state wins unless it would move the
+     * message backwards (a late SENT after DELIVERED); details only the earlier update
+     * carries, like the sent time and SIM, are kept.
+     */
+    static SMSDTO coalesce(SMSDTO previous, SMSDTO update) {
+        SMSDTO latest = statusRank(update.getStatus()) >= statusRank(previous.getStatus()) ? update : previous;
+        SMSDTO other = latest == update ? previous : update;
+
+        if (latest.getSentAtInMillis() == 0) {
+            latest.setSentAtInMillis(other.getSentAtInMillis());
+        }
+        if (latest.getSimSubscriptionId() == null) {
+            latest.setSimSubscriptionId(other.getSimSubscriptionId());
+        }
+        if (latest.getAttemptCount() == null) {
+            latest.setAttemptCount(other.getAttemptCount());
+        }
+        if (latest.getSendAttempts() == null) {
+            latest.setSendAttempts(other.getSendAttempts());
+        }
+        return latest;
+    }
+
+    private static int statusRank(String status) {
+        if ("SENT".equals(status)) {
+            return 1;
+        }
+        if ("DELIVERED".equals(status) || "FAILED".equals(status) || "DELIVERY_FAILED".equals(status)) {
+            return 2;
+        }
+        return 0;
+    }
+
+    private void resetPendingLocked() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        pendingCount = 0;
+    }
+
+    private void flushPending() {
+        synchronized (lock) {
+            resetPendingLocked();
+        }
+        outbox.drain();
+    }
+
+    static void traceAll(List<SMSDTO> updates, int event, int responseCode) {
+        for (SMSDTO smsDTO : updates) {
+            MessageTrace.record(smsDTO.getSmsId(), event, responseCode);
+        }
+    }
+}
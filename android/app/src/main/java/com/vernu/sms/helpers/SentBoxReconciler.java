@@ -0,0 +1,251 @@
+package com.vernu.sms.helpers;
+
+import android.Manifest;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.Telephony;
+import android.util.Log;
+
+import com.vernu.sms.TextBeeUtils;
+import com.vernu.sms.database.local.AppDatabase;
+import com.vernu.sms.database.local.SMS;
+import com.vernu.sms.database.local.SMSDao;
+import com.vernu.sms.dtos.SMSDTO;
+import com.vernu.sms.dtos.SMSSendAttemptDTO;
+import com.vernu.sms.metrics.MessageTrace;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recovers the status of messages whose sent broadcast was lost, because the process died
+ * between handing them to SmsManager and the PendingIntent firing.
+ *
+ * Rows still SUBMITTED after a grace period are matched by recipient and text against what
+ * the framework wrote to the provider's sent box, and reported SENT or FAILED from there.
+ * Both sides are read for a bounded time window only: the rows through the (status,
+ * submitted_at) index, the provider with a date range around them.
+ */
+public class SentBoxReconciler {
+    private static final String TAG = "SentBoxReconciler";
+    // A sent broadcast normally arrives within seconds; give it this long before guessing
+    private static final long GRACE_MS = 5 * 60 * 1000;
+    // Older rows are left to the server's own timeout
+    private static final long LOOKBACK_MS = 24 * 60 * 60 * 1000;
+    // A message still in the provider's outbox, or missing from it, after this long has failed
+    private static final long MAX_UNRESOLVED_MS = 30 * 60 * 1000;
+    // The provider's date is taken on its side of the send; allow for the clocks not lining up
+    private static final long DATE_SLACK_MS = 60 * 1000;
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_PROVIDER_ROWS = 2000;
+    // Enough trailing digits to tell numbers apart whatever prefix the provider stored
+    private static final int ADDRESS_MATCH_DIGITS = 9;
+    private static final String[] PROJECTION = {
+            Telephony.Sms.ADDRESS,
+            Telephony.Sms.BODY,
+            Telephony.Sms.TYPE,
+            Telephony.Sms.DATE,
+    };
+
+    private static volatile SentBoxReconciler instance;
+
+    private final Context context;
+    private final SMSDao smsDao;
+
+    public static SentBoxReconciler getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SentBoxReconciler.class) {
+                if (instance == null) {
+                    instance = new SentBoxReconciler(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private SentBoxReconciler(Context context) {
+        this.context = context;
+        this.smsDao = AppDatabase.getInstance(context).smsDao();
+    }
+
+    /**
+     * Resolve the submitted rows past the grace period. Does database and provider I/O, so
+     * it must not be called on the main thread.
+     *
+     * @return how many rows were resolved
+     */
+    public synchronized int run() {
+        GatewayConfig config = GatewayConfig.get(context);
+        if (!config.hasCredentials()) {
+            return 0;
+        }
+        if (!TextBeeUtils.isPermissionGranted(context, Manifest.permission.READ_SMS)) {
+            Log.d(TAG, "READ_SMS not granted, skipping sent box reconciliation");
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        List<SMS> rows;
+        try {
+            rows = smsDao.getSubmittedBetween(new Date(now - LOOKBACK_MS), new Date(now - GRACE_MS), PAGE_SIZE);
+        } catch (Exception e) {
+            TextBeeUtils.logException(e, "Error reading submitted SMS");
+            return 0;
+        }
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        long from = rows.get(0).getSubmittedAt().getTime() - DATE_SLACK_MS;
+        long to = rows.get(rows.size() - 1).getSubmittedAt().getTime() + GRACE_MS;
+        Map<String, List<ProviderMessage>> sentBox = querySentBox(from, to);
+        if (sentBox == null) {
+            return 0;
+        }
+
+        int sent = 0;
+        int failed = 0;
+        for (SMS sms : rows) {
+            long submittedAt = sms.getSubmittedAt().getTime();
+            ProviderMessage match = claim(sentBox.get(matchKey(sms.getRecipient(), sms.getMessage())), submittedAt);
+            boolean expired = now - submittedAt > MAX_UNRESOLVED_MS;
+
+            if (match != null && match.type == Telephony.Sms.MESSAGE_TYPE_SENT) {
+                report(sms, SMS.STATUS_SENT, match.date, null, null);
+                sent++;
+            } else if (match != null && match.type == Telephony.Sms.MESSAGE_TYPE_FAILED) {
+                report(sms, SMS.STATUS_FAILED, match.date, "SENT_BOX_FAILED",
+                        "Marked failed in the sent box after the sent broadcast was lost");
+                failed++;
+            } else if (expired) {
+                // Still queued in the framework, or never reached it before the process died
+                report(sms, SMS.STATUS_FAILED, now, "SENT_STATUS_LOST",
+                        match != null ? "Still in the outbox after " + MAX_UNRESOLVED_MS / 60000 + " minutes"
+                                : "Sent broadcast lost and not found in the sent box");
+                failed++;
+            }
+        }
+
+        if (sent > 0 || failed > 0) {
+            Log.i(TAG, "Reconciled " + sent + " sent and " + failed + " failed SMS from the sent box");
+        }
+        return sent + failed;
+    }
+
+    private void report(SMS sms, String status, long at, String errorCode, String errorMessage) {
+        OutboundDispatcher.getInstance(context).recordStatus(sms.getId(), status, errorCode);
+        MessageTrace.record(sms.get_id(),
+                SMS.STATUS_SENT.equals(status) ? MessageTrace.RECONCILED_SENT : MessageTrace.RECONCILED_FAILED, 0);
+        if (sms.get_id() == null) {
+            return;
+        }
+
+        SMSDTO smsDTO = new SMSDTO();
+        smsDTO.setSmsId(sms.get_id());
+        smsDTO.setSmsBatchId(sms.getSmsBatchId());
+        smsDTO.setStatus(status);
+        if (SMS.STATUS_SENT.equals(status)) {
+            smsDTO.setSentAtInMillis(at);
+        } else {
+            smsDTO.setFailedAtInMillis(at);
+            smsDTO.setErrorCode(errorCode);
+            smsDTO.setErrorMessage(errorMessage);
+        }
+        smsDTO.setSimSubscriptionId(sms.getSubscriptionId());
+        smsDTO.setAttemptCount(sms.getAttemptCount());
+        List<SMSSendAttemptDTO> sendAttempts = OutboundDispatcher.parseAttemptHistory(sms.getAttemptHistory());
+        if (!sendAttempts.isEmpty()) {
+            smsDTO.setSendAttempts(sendAttempts);
+        }
+        SMSStatusBatcher.getInstance(context).add(smsDTO);
+    }
+
+    /**
+     * Sent, outbox and failed messages dated within the window, keyed by {@link #matchKey}.
+     *
+     * @return null if the provider couldn't be read
+     */
+    private Map<String, List<ProviderMessage>> querySentBox(long from, long to) {
+        String selection = Telephony.Sms.TYPE + " IN (?, ?, ?, ?) AND " + Telephony.Sms.DATE + " BETWEEN ? AND ?";
+        String[] selectionArgs = {
+                Integer.toString(Telephony.Sms.MESSAGE_TYPE_SENT),
+                Integer.toString(Telephony.Sms.MESSAGE_TYPE_OUTBOX),
+                Integer.toString(Telephony.Sms.MESSAGE_TYPE_QUEUED),
+                Integer.toString(Telephony.Sms.MESSAGE_TYPE_FAILED),
+                Long.toString(from),
+                Long.toString(to),
+        };
+        Map<String, List<ProviderMessage>> messages = new HashMap<>();
+        try (Cursor cursor = context.getContentResolver().query(Telephony.Sms.CONTENT_URI, PROJECTION, selection,
+                selectionArgs, Telephony.Sms.DATE + " ASC LIMIT " + MAX_PROVIDER_ROWS)) {
+            if (cursor == null) {
+                return null;
+            }
+            while (cursor.moveToNext()) {
+                String key = matchKey(cursor.getString(0), cursor.getString(1));
+                List<ProviderMessage> candidates = messages.get(key);
+                if (candidates == null) {
+                    candidates = new ArrayList<>(1);
+                    messages.put(key, candidates);
+                }
+                candidates.add(new ProviderMessage(cursor.getInt(2), cursor.getLong(3)));
+            }
+        } catch (RuntimeException e) {
+            TextBeeUtils.logException(e, "Error reading SMS sent box");
+            return null;
+        }
+        return messages;
+    }
+
+    /**
+     * Take the candidate dated closest after the submit time, so repeated sends of the same
+     * text to the same number are matched one to one.
+     */
+    private static ProviderMessage claim(List<ProviderMessage> candidates, long submittedAt) {
+        if (candidates == null) {
+            return null;
+        }
+        ProviderMessage best = null;
+        for (ProviderMessage candidate : candidates) {
+            if (candidate.claimed || candidate.date < submittedAt - DATE_SLACK_MS) {
+                continue;
+            }
+            if (best == null || Math.abs(candidate.date - submittedAt) < Math.abs(best.date - submittedAt)) {
+                best = candidate;
+            }
+        }
+        if (best != null) {
+            best.claimed = true;
+        }
+        return best;
+    }
+
+    static String matchKey(String address, String body) {
+        StringBuilder digits = new StringBuilder(ADDRESS_MATCH_DIGITS);
+        if (address != null) {
+            for (int i = address.length() - 1; i >= 0 && digits.length() < ADDRESS_MATCH_DIGITS; i--) {
+                char c = address.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    digits.append(c);
+                }
+            }
+        }
+        // Alphanumeric addresses have no digits to compare; fall back to the whole address
+        String addressKey = digits.length() > 0 ? digits.toString() : String.valueOf(address).trim();
+        return addressKey + "\n" + (body != null ? body : "");
+    }
+
+    private static class ProviderMessage {
+        final int type;
+        final long date;
+        boolean claimed = false;
+
+        ProviderMessage(int type, long date) {
+            this.type = type;
+            this.date = date;
+        }
+    }
+}
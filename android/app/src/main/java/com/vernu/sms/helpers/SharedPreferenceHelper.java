@@ -21,6 +21,13 @@ public class SharedPreferenceHelper {
         editor.apply();
     }
 
+    public static void setSharedPreferenceLong(Context context, String key, long value) {
+        SharedPreferences settings = context.getSharedPreferences(PREF_FILE, 0);
+        SharedPreferences.Editor editor = settings.edit();
+        editor.putLong(key, value);
+        editor.apply();
+    }
+
     public static void setSharedPreferenceBoolean(Context context, String key, boolean value) {
         SharedPreferences settings = context.getSharedPreferences(PREF_FILE, 0);
         SharedPreferences.Editor editor = settings.edit();
@@ -40,11 +47,21 @@ public class SharedPreferenceHelper {
     }
 
 
+    public static long getSharedPreferenceLong(Context context, String key, long defValue) {
+        SharedPreferences settings = context.getSharedPreferences(PREF_FILE, 0);
+        return settings.getLong(key, defValue);
+    }
+
+
     public static boolean getSharedPreferenceBoolean(Context context, String key, boolean defValue) {
         SharedPreferences settings = context.getSharedPreferences(PREF_FILE, 0);
         return settings.getBoolean(key, defValue);
     }
 
+    public static SharedPreferences getSharedPreferences(Context context) {
+        return context.getSharedPreferences(PREF_FILE, 0);
+    }
+
     public static void clearSharedPreference(Context context, String key) {
         SharedPreferences settings = context.getSharedPreferences(PREF_FILE, 0);
         SharedPreferences.Editor editor = settings.edit();
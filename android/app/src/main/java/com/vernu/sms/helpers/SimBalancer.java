@@ -0,0 +1,167 @@
+package com.vernu.sms.helpers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Spreads outbound messages across the active SIM subscriptions and keeps SIMs that
+ * keep failing out of rotation for a while.
+ */
+public class SimBalancer {
+    // A sent broadcast that never arrives shouldn't count against a SIM forever
+    private static final long IN_FLIGHT_EXPIRY_MS = 10 * 60 * 1000;
+    private static final int QUARANTINE_AFTER_FAILURES = 3;
+    private static final long QUARANTINE_DURATION_MS = 5 * 60 * 1000;
+
+    public enum Policy {
+        // Always use the preferred SIM (or the default one)
+        OFF,
+        ROUND_ROBIN,
+        // The SIM with the fewest messages waiting for their sent broadcast
+        LEAST_IN_FLIGHT,
+        // The SIM with the most rate-limit tokens left
+        QUOTA_WEIGHTED;
+
+        public static Policy fromPreference(String value) {
+            if (value == null) {
+                return OFF;
+            }
+            try {
+                return Policy.valueOf(value);
+            } catch (IllegalArgumentException e) {
+                return OFF;
+            }
+        }
+    }
+
+    private int nextIndex = 0;
+    private final Map<Integer, Integer> inFlightBySubscription = new HashMap<>();
+    private final Map<Long, InFlightMessage> inFlightMessages = new HashMap<>();
+    private final Map<Integer, Integer> consecutiveFailures = new HashMap<>();
+    private final Map<Integer, Long> quarantinedUntil = new HashMap<>();
+
+    /**
+     * Pick the subscription for the next message.
+     *
+     * @param policy balancing policy; OFF returns the fallback
+     * @param subscriptionIds active subscriptions
+     * @param rateLimiter consulted by QUOTA_WEIGHTED
+     * @param fallbackSubscriptionId used when balancing is off or no SIM is available
+     */
+    public synchronized int choose(Policy policy, int[] subscriptionIds, SmsRateLimiter rateLimiter,
+                                   int fallbackSubscriptionId) {
+        if (policy == Policy.OFF || subscriptionIds.length == 0) {
+            return fallbackSubscriptionId;
+        }
+        if (subscriptionIds.length == 1) {
+            return subscriptionIds[0];
+        }
+
+        // Start scanning where round robin left off so ties rotate between SIMs
+        int start = nextIndex % subscriptionIds.length;
+        nextIndex = start + 1;
+        if (policy == Policy.ROUND_ROBIN) {
+            return subscriptionIds[start];
+        }
+
+        expireInFlight();
+        int best = subscriptionIds[start];
+        double bestScore = score(policy, best, rateLimiter);
+        for (int i = 1; i < subscriptionIds.length; i++) {
+            int subscriptionId = subscriptionIds[(start + i) % subscriptionIds.length];
+            double score = score(policy, subscriptionId, rateLimiter);
+            if (score > bestScore) {
+                best = subscriptionId;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    public synchronized void onSubmitted(long outboundId, int subscriptionId) {
+        inFlightMessages.put(outboundId, new InFlightMessage(subscriptionId, System.currentTimeMillis()));
+        inFlightBySubscription.put(subscriptionId, getInFlight(subscriptionId) + 1);
+    }
+
+    /**
+     * The sent broadcast arrived; safe to call more than once per message.
+     */
+    public synchronized void onCompleted(long outboundId) {
+        InFlightMessage message = inFlightMessages.remove(outboundId);
+        if (message != null) {
+            inFlightBySubscription.put(message.subscriptionId, Math.max(0, getInFlight(message.subscriptionId) - 1));
+        }
+    }
+
+    /**
+     * The active subscriptions minus quarantined ones and the excluded ones.
+     */
+    public synchronized int[] available(int[] subscriptionIds, Collection<Integer> excludedSubscriptionIds) {
+        long now = System.currentTimeMillis();
+        int[] available = new int[subscriptionIds.length];
+        int count = 0;
+        for (int subscriptionId : subscriptionIds) {
+            Long until = quarantinedUntil.get(subscriptionId);
+            boolean quarantined = until != null && until > now;
+            if (!quarantined && !excludedSubscriptionIds.contains(subscriptionId)) {
+                available[count++] = subscriptionId;
+            }
+        }
+        return Arrays.copyOf(available, count);
+    }
+
+    public synchronized void recordSuccess(int subscriptionId) {
+        consecutiveFailures.remove(subscriptionId);
+    }
+
+    /**
+     * Count a radio/service failure; enough of them in a row quarantine the SIM.
+     */
+    public synchronized void recordFailure(int subscriptionId) {
+        Integer failures = consecutiveFailures.get(subscriptionId);
+        int count = failures == null ? 1 : failures + 1;
+        if (count >= QUARANTINE_AFTER_FAILURES) {
+            quarantinedUntil.put(subscriptionId, System.currentTimeMillis() + QUARANTINE_DURATION_MS);
+            consecutiveFailures.remove(subscriptionId);
+        } else {
+            consecutiveFailures.put(subscriptionId, count);
+        }
+    }
+
+    public synchronized int getInFlight(int subscriptionId) {
+        Integer count = inFlightBySubscription.get(subscriptionId);
+        return count == null ? 0 : count;
+    }
+
+    private double score(Policy policy, int subscriptionId, SmsRateLimiter rateLimiter) {
+        if (policy == Policy.LEAST_IN_FLIGHT) {
+            return -getInFlight(subscriptionId);
+        }
+        return rateLimiter.getAvailableTokens(subscriptionId);
+    }
+
+    private void expireInFlight() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Long, InFlightMessage>> iterator = inFlightMessages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            InFlightMessage message = iterator.next().getValue();
+            if (now - message.submittedAt > IN_FLIGHT_EXPIRY_MS) {
+                iterator.remove();
+                inFlightBySubscription.put(message.subscriptionId, Math.max(0, getInFlight(message.subscriptionId) - 1));
+            }
+        }
+    }
+
+    private static class InFlightMessage {
+        final int subscriptionId;
+        final long submittedAt;
+
+        InFlightMessage(int subscriptionId, long submittedAt) {
+            this.subscriptionId = subscriptionId;
+            this.submittedAt = submittedAt;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.vernu.sms.helpers;
+
+import android.util.Log;
+
+import com.vernu.sms.TextBeeUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent record of the smsIds already handed to SmsManager, consulted before any
+ * payload is queued so a message delivered by both FCM and the pending-sms poll is sent once.
+ *
+ * An exact LRU window answers for recent ids; older ids fall through to a rotating Bloom
+ * filter, so memory stays fixed however many ids pass through. Every id is appended to a
+ * journal per Bloom generation and replayed on startup, which keeps the ledger across
+ * process death while bounding the journal to two generations.
+ */
+public class SmsIdLedger {
+    private static final String TAG = "SmsIdLedger";
+    private static final String CURRENT_JOURNAL = "current.log";
+    private static final String PREVIOUS_JOURNAL = "previous.log";
+    private static final int RECENT_WINDOW_SIZE = 10000;
+    private static final int IDS_PER_GENERATION = 50000;
+    // Ids outside the exact window are only trusted to the Bloom filter, and a false
+    // positive there means a message is skipped, so keep it very low
+    private static final double FALSE_POSITIVE_RATE = 1e-6;
+
+    private final File directory;
+    private final RotatingBloomFilter bloomFilter = new RotatingBloomFilter(IDS_PER_GENERATION, FALSE_POSITIVE_RATE);
+    private final LinkedHashMap<String, Boolean> recentIds = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_WINDOW_SIZE;
+        }
+    };
+    private FileOutputStream journal;
+
+    /**
+     * @param directory where the journals are kept; created if missing
+     */
+    public SmsIdLedger(File directory) {
+        this.directory = directory;
+        load();
+    }
+
+    /**
+     * Whether the smsId was already sent.
+     */
+    public synchronized boolean hasSent(String smsId) {
+        return recentIds.get(smsId) != null || bloomFilter.mightContain(smsId);
+    }
+
+    /**
+     * Record that the smsId was handed to SmsManager and persist it before returning.
+     */
+    public synchronized void markSent(String smsId) {
+        if (recentIds.put(smsId, Boolean.TRUE) != null) {
+            return;
+        }
+        boolean rotated = bloomFilter.add(smsId);
+        appendToJournal(smsId);
+        if (rotated) {
+            rotateJournal();
+        }
+    }
+
+    private void load() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create ledger directory " + directory);
+            return;
+        }
+
+        int loaded = replay(new File(directory, PREVIOUS_JOURNAL));
+        // Keep the two journals in separate generations even if the previous one wasn't full
+        if (bloomFilter.getCurrentSize() > 0) {
+            bloomFilter.rotate();
+        }
+        loaded += replay(new File(directory, CURRENT_JOURNAL));
+
+        File current = new File(directory, CURRENT_JOURNAL);
+        try {
+            boolean torn = endsWithPartialLine(current);
+            journal = new FileOutputStream(current, true);
+            // Terminate a line cut short so the next id isn't glued onto it
+            if (torn) {
+                journal.write('\n');
+            }
+        } catch (IOException e) {
+            TextBeeUtils.logException(e, "Error opening SMS id ledger journal");
+        }
+        Log.d(TAG, "Loaded " + loaded + " sent SMS ids");
+    }
+
+    private static boolean endsWithPartialLine(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return false;
+        }
+        try (RandomAccessFile reader = new RandomAccessFile(file, "r")) {
+            reader.seek(file.length() - 1);
+            return reader.read() != '\n';
+        }
+    }
+
+    private int replay(File file) {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String smsId;
+            while ((smsId = reader.readLine()) != null) {
+                // A line cut short by process death only adds a harmless bogus key
+                if (smsId.isEmpty()) {
+                    continue;
+                }
+                recentIds.put(smsId, Boolean.TRUE);
+                bloomFilter.add(smsId);
+                count++;
+            }
+        } catch (IOException e) {
+            TextBeeUtils.logException(e, "Error reading SMS id ledger journal " + file.getName());
+        }
+        return count;
+    }
+
+    private void appendToJournal(String smsId) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            // Unbuffered: once write() returns the id is in the kernel and survives process death
+            journal.write((smsId + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending to SMS id ledger journal: " + e.getMessage());
+        }
+    }
+
+    private void rotateJournal() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+            File current = new File(directory, CURRENT_JOURNAL);
+            File previous = new File(directory, PREVIOUS_JOURNAL);
+            if (previous.exists() && !previous.delete()) {
+                Log.w(TAG, "Could not delete old SMS id ledger journal");
+            }
+            if (!current.renameTo(previous)) {
+                Log.w(TAG, "Could not rotate SMS id ledger journal");
+            }
+            journal = new FileOutputStream(current, false);
+        } catch (IOException e) {
+            journal = null;
+            TextBeeUtils.logException(e, "Error rotating SMS id ledger journal");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.vernu.sms.helpers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Token bucket per SIM subscription, charged by SMS segment rather than by message,
+ * so bursts stay under Android's outgoing SMS limit instead of failing with
+ * RESULT_ERROR_LIMIT_EXCEEDED.
+ */
+public class SmsRateLimiter {
+    public static final int SEGMENTS_PER_MINUTE = 30;
+    public static final int BURST_SEGMENTS = 30;
+
+    private final Map<Integer, TokenBucket> buckets = new HashMap<>();
+    private final double segmentsPerMs;
+    private final int burstSegments;
+
+    public SmsRateLimiter(int segmentsPerMinute, int burstSegments) {
+        this.segmentsPerMs = Math.max(1, segmentsPerMinute) / 60000.0;
+        this.burstSegments = Math.max(1, burstSegments);
+    }
+
+    /**
+     * Take tokens for a message if the SIM's bucket allows it.
+     *
+     * @param subscriptionId SIM subscription id, -1 for the default SIM
+     * @param segments number of parts the message is split into
+     * @return 0 if the tokens were taken, otherwise how many milliseconds to wait before trying again
+     */
+    public synchronized long tryAcquire(int subscriptionId, int segments) {
+        TokenBucket bucket = refilledBucket(subscriptionId);
+
+        // A message longer than the burst size can never fit, so it only needs a full bucket
+        // and leaves the bucket in debt
+        double required = Math.min(segments, burstSegments);
+        if (bucket.tokens >= required) {
+            bucket.tokens -= segments;
+            return 0;
+        }
+        return (long) Math.ceil((required - bucket.tokens) / segmentsPerMs);
+    }
+
+    /**
+     * Segments the SIM could send right now; negative while a long message is being paid off.
+     */
+    public synchronized double getAvailableTokens(int subscriptionId) {
+        return refilledBucket(subscriptionId).tokens;
+    }
+
+    private TokenBucket refilledBucket(int subscriptionId) {
+        long now = System.nanoTime();
+        TokenBucket bucket = buckets.get(subscriptionId);
+        if (bucket == null) {
+            bucket = new TokenBucket(burstSegments, now);
+            buckets.put(subscriptionId, bucket);
+        }
+        bucket.refill(now, segmentsPerMs, burstSegments);
+        return bucket;
+    }
+
+    private static class TokenBucket {
+        double tokens;
+        long lastRefillNanos;
+
+        TokenBucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefillNanos = now;
+        }
+
+        void refill(long now, double segmentsPerMs, int burstSegments) {
+            double elapsedMs = (now - lastRefillNanos) / 1_000_000.0;
+            tokens = Math.min(burstSegments, tokens + elapsedMs * segmentsPerMs);
+            lastRefillNanos = now;
+        }
+    }
+}
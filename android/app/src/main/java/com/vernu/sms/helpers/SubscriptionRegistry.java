@@ -0,0 +1,79 @@
+package com.vernu.sms.helpers;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import com.vernu.sms.TextBeeUtils;
+
+import java.util.List;
+
+/**
+ * Cached list of active SIM subscription ids, refreshed by OnSubscriptionsChangedListener
+ * instead of querying SubscriptionManager on every send.
+ */
+public class SubscriptionRegistry {
+    private static final String TAG = "SubscriptionRegistry";
+
+    private final Context context;
+    private volatile int[] activeSubscriptionIds = new int[0];
+
+    private final SubscriptionManager.OnSubscriptionsChangedListener subscriptionsChangedListener =
+            new SubscriptionManager.OnSubscriptionsChangedListener() {
+                @Override
+                public void onSubscriptionsChanged() {
+                    refresh();
+                }
+            };
+
+    public SubscriptionRegistry(Context context) {
+        this.context = context.getApplicationContext();
+        refresh();
+
+        // The listener needs a Looper; registering it also triggers an initial callback
+        new Handler(Looper.getMainLooper()).post(() -> {
+            try {
+                SubscriptionManager.from(this.context).addOnSubscriptionsChangedListener(subscriptionsChangedListener);
+            } catch (Exception e) {
+                Log.e(TAG, "Error registering subscription listener: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Active subscription ids in SIM slot order; empty if there are none or READ_PHONE_STATE isn't granted.
+     */
+    public int[] getActiveSubscriptionIds() {
+        return activeSubscriptionIds;
+    }
+
+    public boolean isActive(int subscriptionId) {
+        for (int activeSubscriptionId : activeSubscriptionIds) {
+            if (activeSubscriptionId == subscriptionId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void refresh() {
+        try {
+            List<SubscriptionInfo> subscriptions = TextBeeUtils.getAvailableSimSlots(context);
+            if (subscriptions == null) {
+                activeSubscriptionIds = new int[0];
+                return;
+            }
+            int[] subscriptionIds = new int[subscriptions.size()];
+            for (int i = 0; i < subscriptions.size(); i++) {
+                subscriptionIds[i] = subscriptions.get(i).getSubscriptionId();
+            }
+            activeSubscriptionIds = subscriptionIds;
+            Log.d(TAG, "Active subscriptions: " + subscriptionIds.length);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading active subscriptions: " + e.getMessage());
+        }
+    }
+}
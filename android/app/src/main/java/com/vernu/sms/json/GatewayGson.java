@@ -0,0 +1,30 @@
+package com.vernu.sms.json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.vernu.sms.dtos.PendingSMSResponseDTO;
+import com.vernu.sms.dtos.SMSDTO;
+import com.vernu.sms.dtos.SMSSendAttemptDTO;
+import com.vernu.sms.models.SMSPayload;
+
+/**
+ * The one Gson instance used for gateway JSON. The DTOs on the hot paths, every
+ * received SMS, status update and pending message, are bound by hand-written streaming
+ * adapters instead of reflection; anything else falls back to Gson's defaults.
+ */
+public final class GatewayGson {
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(SMSDTO.class, new SMSDTOAdapter())
+            .registerTypeAdapter(SMSSendAttemptDTO.class, SMSSendAttemptAdapter.INSTANCE)
+            .registerTypeAdapter(SMSPayload.class, SMSPayloadAdapter.INSTANCE)
+            .registerTypeAdapter(PendingSMSResponseDTO.class, new PendingSMSResponseAdapter())
+            .registerTypeAdapter(PendingSMSResponseDTO.PendingSMSData.class, PendingSMSDataAdapter.INSTANCE)
+            .create();
+
+    private GatewayGson() {
+    }
+
+    public static Gson get() {
+        return GSON;
+    }
+}
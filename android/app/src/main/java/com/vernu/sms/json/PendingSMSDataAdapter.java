@@ -0,0 +1,74 @@
+package com.vernu.sms.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vernu.sms.dtos.PendingSMSResponseDTO;
+import com.vernu.sms.models.SMSPayload;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Streams the data of a pending-sms response, which is also the payload of a pending-sms
+ * stream event.
+ */
+class PendingSMSDataAdapter extends TypeAdapter<PendingSMSResponseDTO.PendingSMSData> {
+    static final PendingSMSDataAdapter INSTANCE = new PendingSMSDataAdapter();
+
+    @Override
+    public void write(JsonWriter out, PendingSMSResponseDTO.PendingSMSData data) throws IOException {
+        if (data == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("count").value(data.count);
+        if (data.messages != null) {
+            out.name("messages").beginArray();
+            for (SMSPayload payload : data.messages) {
+                SMSPayloadAdapter.INSTANCE.write(out, payload);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    @Override
+    public PendingSMSResponseDTO.PendingSMSData read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        PendingSMSResponseDTO.PendingSMSData data = new PendingSMSResponseDTO.PendingSMSData();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "count":
+                    data.count = in.nextInt();
+                    break;
+                case "messages":
+                    data.messages = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        SMSPayload payload = SMSPayloadAdapter.INSTANCE.read(in);
+                        if (payload != null) {
+                            data.messages.add(payload);
+                        }
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return data;
+    }
+}
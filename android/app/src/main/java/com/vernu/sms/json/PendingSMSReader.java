@@ -0,0 +1,58 @@
+package com.vernu.sms.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.vernu.sms.models.SMSPayload;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a pending-sms response, {"data":{"count":n,"messages":[...]}}, one message at a
+ * time, handing each to the caller as soon as it is decoded. Only one message is held in
+ * memory however many the page has.
+ */
+public final class PendingSMSReader {
+    public interface PayloadHandler {
+        void onPayload(SMSPayload smsPayload);
+    }
+
+    private PendingSMSReader() {
+    }
+
+    /**
+     * @return how many messages were handed to the handler
+     */
+    public static int read(Reader reader, PayloadHandler handler) throws IOException {
+        JsonReader in = new JsonReader(reader);
+        int count = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!"data".equals(in.nextName()) || in.peek() != JsonToken.BEGIN_OBJECT) {
+                in.skipValue();
+                continue;
+            }
+
+            in.beginObject();
+            while (in.hasNext()) {
+                if (!"messages".equals(in.nextName()) || in.peek() != JsonToken.BEGIN_ARRAY) {
+                    in.skipValue();
+                    continue;
+                }
+
+                in.beginArray();
+                while (in.hasNext()) {
+                    SMSPayload smsPayload = SMSPayloadAdapter.INSTANCE.read(in);
+                    if (smsPayload != null) {
+                        handler.onPayload(smsPayload);
+                        count++;
+                    }
+                }
+                in.endArray();
+            }
+            in.endObject();
+        }
+        in.endObject();
+        return count;
+    }
+}
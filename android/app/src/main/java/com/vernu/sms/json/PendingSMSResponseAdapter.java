@@ -0,0 +1,44 @@
+package com.vernu.sms.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vernu.sms.dtos.PendingSMSResponseDTO;
+
+import java.io.IOException;
+
+class PendingSMSResponseAdapter extends TypeAdapter<PendingSMSResponseDTO> {
+    @Override
+    public void write(JsonWriter out, PendingSMSResponseDTO response) throws IOException {
+        if (response == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        if (response.data != null) {
+            out.name("data");
+            PendingSMSDataAdapter.INSTANCE.write(out, response.data);
+        }
+        out.endObject();
+    }
+
+    @Override
+    public PendingSMSResponseDTO read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        PendingSMSResponseDTO response = new PendingSMSResponseDTO();
+        in.beginObject();
+        while (in.hasNext()) {
+            if ("data".equals(in.nextName())) {
+                response.data = PendingSMSDataAdapter.INSTANCE.read(in);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return response;
+    }
+}
@@ -0,0 +1,146 @@
+package com.vernu.sms.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vernu.sms.dtos.SMSDTO;
+import com.vernu.sms.dtos.SMSSendAttemptDTO;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams {@link SMSDTO} without reflection. Nulls and zero timestamps are left out when
+ * writing; the API treats a missing field the same way.
+ */
+class SMSDTOAdapter extends TypeAdapter<SMSDTO> {
+    @Override
+    public void write(JsonWriter out, SMSDTO sms) throws IOException {
+        if (sms == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        writeString(out, "sender", sms.getSender());
+        writeString(out, "message", sms.getMessage());
+        writeMillis(out, "receivedAtInMillis", sms.getReceivedAtInMillis());
+        writeString(out, "smsId", sms.getSmsId());
+        writeString(out, "smsBatchId", sms.getSmsBatchId());
+        writeString(out, "status", sms.getStatus());
+        writeMillis(out, "sentAtInMillis", sms.getSentAtInMillis());
+        writeMillis(out, "deliveredAtInMillis", sms.getDeliveredAtInMillis());
+        writeMillis(out, "failedAtInMillis", sms.getFailedAtInMillis());
+        writeString(out, "errorCode", sms.getErrorCode());
+        writeString(out, "errorMessage", sms.getErrorMessage());
+        if (sms.getSimSubscriptionId() != null) {
+            out.name("simSubscriptionId").value(sms.getSimSubscriptionId());
+        }
+        if (sms.getAttemptCount() != null) {
+            out.name("attemptCount").value(sms.getAttemptCount());
+        }
+        writeString(out, "idempotencyKey", sms.getIdempotencyKey());
+        writeMillis(out, "deviceReceivedAtInMillis", sms.getDeviceReceivedAtInMillis());
+        if (sms.getSendAttempts() != null) {
+            out.name("sendAttempts").beginArray();
+            for (SMSSendAttemptDTO attempt : sms.getSendAttempts()) {
+                SMSSendAttemptAdapter.INSTANCE.write(out, attempt);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    @Override
+    public SMSDTO read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        SMSDTO sms = new SMSDTO();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "sender":
+                    sms.setSender(in.nextString());
+                    break;
+                case "message":
+                    sms.setMessage(in.nextString());
+                    break;
+                case "receivedAtInMillis":
+                    sms.setReceivedAtInMillis(in.nextLong());
+                    break;
+                case "smsId":
+                    sms.setSmsId(in.nextString());
+                    break;
+                case "smsBatchId":
+                    sms.setSmsBatchId(in.nextString());
+                    break;
+                case "status":
+                    sms.setStatus(in.nextString());
+                    break;
+                case "sentAtInMillis":
+                    sms.setSentAtInMillis(in.nextLong());
+                    break;
+                case "deliveredAtInMillis":
+                    sms.setDeliveredAtInMillis(in.nextLong());
+                    break;
+                case "failedAtInMillis":
+                    sms.setFailedAtInMillis(in.nextLong());
+                    break;
+                case "errorCode":
+                    sms.setErrorCode(in.nextString());
+                    break;
+                case "errorMessage":
+                    sms.setErrorMessage(in.nextString());
+                    break;
+                case "simSubscriptionId":
+                    sms.setSimSubscriptionId(in.nextInt());
+                    break;
+                case "attemptCount":
+                    sms.setAttemptCount(in.nextInt());
+                    break;
+                case "idempotencyKey":
+                    sms.setIdempotencyKey(in.nextString());
+                    break;
+                case "deviceReceivedAtInMillis":
+                    sms.setDeviceReceivedAtInMillis(in.nextLong());
+                    break;
+                case "sendAttempts":
+                    List<SMSSendAttemptDTO> attempts = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        SMSSendAttemptDTO attempt = SMSSendAttemptAdapter.INSTANCE.read(in);
+                        if (attempt != null) {
+                            attempts.add(attempt);
+                        }
+                    }
+                    in.endArray();
+                    sms.setSendAttempts(attempts);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return sms;
+    }
+
+    private static void writeString(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+
+    private static void writeMillis(JsonWriter out, String name, long value) throws IOException {
+        if (value != 0) {
+            out.name(name).value(value);
+        }
+    }
+}
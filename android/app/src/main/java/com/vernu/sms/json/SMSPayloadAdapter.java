@@ -0,0 +1,95 @@
+package com.vernu.sms.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vernu.sms.models.SMSPayload;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams {@link SMSPayload}, the message the server asks the device to send. The legacy
+ * receivers and smsBody fields are never read by the app and are skipped.
+ */
+class SMSPayloadAdapter extends TypeAdapter<SMSPayload> {
+    static final SMSPayloadAdapter INSTANCE = new SMSPayloadAdapter();
+
+    @Override
+    public void write(JsonWriter out, SMSPayload payload) throws IOException {
+        if (payload == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        if (payload.getRecipients() != null) {
+            out.name("recipients").beginArray();
+            for (String recipient : payload.getRecipients()) {
+                out.value(recipient);
+            }
+            out.endArray();
+        }
+        if (payload.getMessage() != null) {
+            out.name("message").value(payload.getMessage());
+        }
+        if (payload.getSmsId() != null) {
+            out.name("smsId").value(payload.getSmsId());
+        }
+        if (payload.getSmsBatchId() != null) {
+            out.name("smsBatchId").value(payload.getSmsBatchId());
+        }
+        out.endObject();
+    }
+
+    @Override
+    public SMSPayload read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        SMSPayload payload = new SMSPayload();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "recipients":
+                    payload.setRecipients(readStrings(in));
+                    break;
+                case "message":
+                    payload.setMessage(in.nextString());
+                    break;
+                case "smsId":
+                    payload.setSmsId(in.nextString());
+                    break;
+                case "smsBatchId":
+                    payload.setSmsBatchId(in.nextString());
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return payload;
+    }
+
+    private static String[] readStrings(JsonReader in) throws IOException {
+        List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                values.add(null);
+            } else {
+                values.add(in.nextString());
+            }
+        }
+        in.endArray();
+        return values.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,61 @@
+package com.vernu.sms.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vernu.sms.dtos.SMSSendAttemptDTO;
+
+import java.io.IOException;
+
+class SMSSendAttemptAdapter extends TypeAdapter<SMSSendAttemptDTO> {
+    static final SMSSendAttemptAdapter INSTANCE = new SMSSendAttemptAdapter();
+
+    @Override
+    public void write(JsonWriter out, SMSSendAttemptDTO attempt) throws IOException {
+        if (attempt == null) {
+            out.nullValue();
+            return;
+        }
+        // All three fields are required by the API, so zeroes are written too
+        out.beginObject();
+        out.name("simSubscriptionId").value(attempt.getSimSubscriptionId());
+        if (attempt.getErrorCode() != null) {
+            out.name("errorCode").value(attempt.getErrorCode());
+        }
+        out.name("failedAtInMillis").value(attempt.getFailedAtInMillis());
+        out.endObject();
+    }
+
+    @Override
+    public SMSSendAttemptDTO read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        SMSSendAttemptDTO attempt = new SMSSendAttemptDTO();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "simSubscriptionId":
+                    attempt.setSimSubscriptionId(in.nextInt());
+                    break;
+                case "errorCode":
+                    attempt.setErrorCode(in.nextString());
+                    break;
+                case "failedAtInMillis":
+                    attempt.setFailedAtInMillis(in.nextLong());
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return attempt;
+    }
+}
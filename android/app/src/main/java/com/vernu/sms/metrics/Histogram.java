@@ -0,0 +1,161 @@
+package com.vernu.sms.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket log-linear histogram of non-negative values, usually milliseconds.
+ *
+ * Values below 16 get a bucket each; every power of two above that is split into 8 linear
+ * sub-buckets, so a bucket is never more than 12.5% wide. Buckets are a fixed array
+ * striped by thread, so recording is a few atomic adds and never allocates or locks.
+ * Bucket counts from different devices can be summed, which percentiles can't.
+ */
+public class Histogram {
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_EXPONENT = 4;
+    // 2^41 ms is about 70 years; anything larger lands in the last bucket
+    private static final int LAST_EXPONENT = 40;
+    static final int BUCKET_COUNT = LINEAR_BUCKETS + (LAST_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+    private static final int STRIPES = 4;
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public Histogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKET_COUNT);
+        }
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        stripes[stripe].incrementAndGet(bucketIndex(value));
+        sum.add(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Lost the race to another recorder; try again against its max
+        }
+    }
+
+    /**
+     * Everything recorded since the last {@link #discard}; recording carries on meanwhile.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            for (AtomicLongArray stripe : stripes) {
+                counts[bucket] += stripe.get(bucket);
+            }
+            count += counts[bucket];
+        }
+        return new Snapshot(counts, count, sum.sum(), max.get());
+    }
+
+    /**
+     * Remove a snapshot's values once they are reported, keeping whatever was recorded since.
+     */
+    public void discard(Snapshot snapshot) {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            long remaining = snapshot.counts[bucket];
+            for (int i = 0; i < STRIPES && remaining > 0; i++) {
+                long taken = Math.min(remaining, stripes[i].get(bucket));
+                stripes[i].addAndGet(bucket, -taken);
+                remaining -= taken;
+            }
+        }
+        sum.add(-snapshot.sum);
+        // A larger value recorded since belongs to the next report
+        max.compareAndSet(snapshot.max, 0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > LAST_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Smallest value that lands in the bucket.
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int offset = bucket - LINEAR_BUCKETS;
+        int exponent = FIRST_EXPONENT + offset / SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + offset % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public static class Snapshot {
+        final long[] counts;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * The value at the given quantile, as the middle of its bucket and never above max.
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            if (rank >= count) {
+                return max;
+            }
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    long lower = lowerBound(bucket);
+                    long upper = bucket + 1 < counts.length ? lowerBound(bucket + 1) : lower;
+                    return Math.min(max, lower + (upper - lower - 1) / 2);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Non-empty buckets as [lower bound, count] pairs.
+         */
+        public long[][] buckets() {
+            int nonEmpty = 0;
+            for (long bucketCount : counts) {
+                if (bucketCount > 0) {
+                    nonEmpty++;
+                }
+            }
+            long[][] buckets = new long[nonEmpty][];
+            int i = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                if (counts[bucket] > 0) {
+                    buckets[i++] = new long[]{lowerBound(bucket), counts[bucket]};
+                }
+            }
+            return buckets;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.vernu.sms.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-message lifecycle trace: a fixed-size ring of binary records in a memory-mapped file,
+ * so the timeline of any recent message, from FCM or poll receipt to its status upload,
+ * can be reconstructed after the fact, even across process death.
+ *
+ * Each record is [sequence][time][smsId hash][detail][event], 32 bytes. Recording is a
+ * hash over the smsId's chars and a few absolute puts into the mapping: no allocation, no
+ * lock, well under a microsecond. The sequence number is cleared first and written last,
+ * so a record torn by a crash or by the ring wrapping onto a slot mid-write is skipped.
+ * The oldest records are overwritten.
+ *
+ * On the device, MainActivity's export action shares the decoded trace through
+ * MessageTraceExporter. This class has no Android dependencies, so a trace file pulled
+ * from a debug build can also be decoded on any JVM:
+ * {@code java com.vernu.sms.metrics.MessageTrace message-trace.bin [smsId]}.
+ */
+public class MessageTrace {
+    public static final int FCM_RECEIVED = 1;
+    public static final int POLL_RECEIVED = 2;
+    public static final int STREAM_RECEIVED = 3;
+    // Detail: recipients queued
+    public static final int QUEUED = 4;
+    public static final int SKIPPED_DUPLICATE = 5;
+    // Detail: SIM subscription id
+    public static final int SUBMITTED = 6;
+    // Detail: the broadcast's result code
+    public static final int SENT_RESULT = 7;
+    public static final int DELIVERY_RESULT = 8;
+    // Detail: the sent result code that caused the failover
+    public static final int FAILED_OVER = 9;
+    // Detail: HTTP status, or -1 if the request didn't complete
+    public static final int STATUS_UPLOADED = 10;
+    public static final int STATUS_UPLOAD_FAILED = 11;
+    public static final int RECONCILED_SENT = 12;
+    public static final int RECONCILED_FAILED = 13;
+
+    private static final String[] EVENT_NAMES = {
+            "UNKNOWN",
+            "FCM_RECEIVED",
+            "POLL_RECEIVED",
+            "STREAM_RECEIVED",
+            "QUEUED",
+            "SKIPPED_DUPLICATE",
+            "SUBMITTED",
+            "SENT_RESULT",
+            "DELIVERY_RESULT",
+            "FAILED_OVER",
+            "STATUS_UPLOADED",
+            "STATUS_UPLOAD_FAILED",
+            "RECONCILED_SENT",
+            "RECONCILED_FAILED",
+    };
+
+    public static final String FILE_NAME = "message-trace.bin";
+    // 16384 records, 512 KB: several days of traffic for a busy gateway
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private static final int MAGIC = 0x54425452;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int RECORD_BYTES = 32;
+    private static final int OFFSET_TIME = 8;
+    private static final int OFFSET_HASH = 16;
+    private static final int OFFSET_DETAIL = 24;
+    private static final int OFFSET_EVENT = 28;
+
+    private static volatile MessageTrace instance;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicLong nextSequence;
+
+    /**
+     * Open the process-wide trace in the given directory. Until this is called
+     * {@link #record(String, int, int)} does nothing.
+     */
+    public static void open(File directory) throws IOException {
+        if (instance == null) {
+            synchronized (MessageTrace.class) {
+                if (instance == null) {
+                    instance = new MessageTrace(new File(directory, FILE_NAME), DEFAULT_CAPACITY);
+                }
+            }
+        }
+    }
+
+    public static MessageTrace getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record an event on the process-wide trace, if it is open.
+     */
+    public static void record(String smsId, int event, int detail) {
+        MessageTrace trace = instance;
+        if (trace != null) {
+            trace.append(System.currentTimeMillis(), hash(smsId), event, detail);
+        }
+    }
+
+    /**
+     * @param file the ring's file; created, or reset if it was written with another layout
+     * @param capacity how many records the ring holds
+     */
+    public MessageTrace(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        long size = HEADER_BYTES + (long) capacity * RECORD_BYTES;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean reset = raf.length() != size;
+            if (reset) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (reset || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != RECORD_BYTES || buffer.getInt(12) != capacity) {
+                for (int position = 0; position < size; position += 8) {
+                    buffer.putLong(position, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_BYTES);
+                buffer.putInt(12, capacity);
+            }
+        }
+
+        long lastSequence = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            lastSequence = Math.max(lastSequence, buffer.getLong(HEADER_BYTES + slot * RECORD_BYTES));
+        }
+        nextSequence = new AtomicLong(lastSequence + 1);
+    }
+
+    public void append(long timeMillis, long idHash, int event, int detail) {
+        long sequence = nextSequence.getAndIncrement();
+        int position = HEADER_BYTES + (int) (sequence % capacity) * RECORD_BYTES;
+        buffer.putLong(position, 0);
+        buffer.putLong(position + OFFSET_TIME, timeMillis);
+        buffer.putLong(position + OFFSET_HASH, idHash);
+        buffer.putInt(position + OFFSET_DETAIL, detail);
+        buffer.putInt(position + OFFSET_EVENT, event);
+        buffer.putLong(position, sequence);
+    }
+
+    /**
+     * Write the ring, oldest first, as one JSON object per line.
+     *
+     * @param smsId only export this message's events, or null for all of them
+     * @return how many records were written
+     */
+    public int exportNdjson(Writer writer, String smsId) throws IOException {
+        return export(buffer.duplicate(), writer, smsId);
+    }
+
+    /**
+     * 64-bit FNV-1a over the id's chars; 0 for a null id.
+     */
+    public static long hash(CharSequence smsId) {
+        if (smsId == null) {
+            return 0;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < smsId.length(); i++) {
+            hash ^= smsId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static int export(ByteBuffer buffer, Writer writer, String smsId) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a message trace");
+        }
+        int capacity = buffer.getInt(12);
+        long filter = smsId != null ? hash(smsId) : 0;
+
+        long newest = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            newest = Math.max(newest, buffer.getLong(HEADER_BYTES + slot * RECORD_BYTES));
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        int written = 0;
+        for (long sequence = Math.max(1, newest - capacity + 1); sequence <= newest; sequence++) {
+            int position = HEADER_BYTES + (int) (sequence % capacity) * RECORD_BYTES;
+            if (buffer.getLong(position) != sequence) {
+                // Never written, torn, or overwritten while exporting
+                continue;
+            }
+            long idHash = buffer.getLong(position + OFFSET_HASH);
+            if (smsId != null && idHash != filter) {
+                continue;
+            }
+            long timeMillis = buffer.getLong(position + OFFSET_TIME);
+            int event = buffer.getInt(position + OFFSET_EVENT);
+            writer.write("{\"seq\":" + sequence
+                    + ",\"time\":\"" + format.format(new Date(timeMillis)) + "\""
+                    + ",\"timeMillis\":" + timeMillis
+                    + ",\"smsIdHash\":\"" + String.format(Locale.US, "%016x", idHash) + "\""
+                    + ",\"event\":\"" + (event > 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : EVENT_NAMES[0]) + "\""
+                    + ",\"detail\":" + buffer.getInt(position + OFFSET_DETAIL)
+                    + "}\n");
+            written++;
+        }
+        writer.flush();
+        return written;
+    }
+
+    /**
+     * Decode a trace file pulled from a device to NDJSON on stdout.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: MessageTrace <trace file> [smsId]");
+            System.exit(2);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(args[0], "r")) {
+            ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            export(buffer, new OutputStreamWriter(System.out, StandardCharsets.UTF_8), args.length > 1 ? args[1] : null);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.vernu.sms.metrics;
+
+import com.vernu.sms.dtos.DeviceMetricsDTO;
+import com.vernu.sms.dtos.HistogramSnapshotDTO;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The gateway's on-device measurements: latency histograms along the send and receive
+ * paths and sent-failure counts per SmsManager result code. Recording never locks or
+ * allocates, so it is safe from broadcast receivers and the sender thread.
+ *
+ * The MetricsReportWorker attaches a snapshot to the device update and discards it once
+ * the server has it, so each report covers the interval since the previous one.
+ */
+public class MetricsRegistry {
+    // Result codes at or above this are counted together
+    private static final int RESULT_CODE_SLOTS = 256;
+
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    // Round trip of a pending-sms poll, until the response headers arrive
+    public final Histogram pollRtt = new Histogram();
+    // Recipients waiting in the outbound queue, sampled on every poll
+    public final Histogram pendingQueueDepth = new Histogram();
+    // From a payload reaching the app, over FCM or a poll, to its first hand-off to SmsManager
+    public final Histogram receiveToSubmit = new Histogram();
+    public final Histogram submitToSent = new Histogram();
+    public final Histogram sentToDelivered = new Histogram();
+    // Round trip of a batched status update
+    public final Histogram statusUpload = new Histogram();
+    // From an inbound SMS's broadcast to the server accepting it, per path
+    public final Histogram inboundDirect = new Histogram();
+    public final Histogram inboundQueued = new Histogram();
+    // Phases of every gateway HTTP call; DNS, connect and TLS only when a new connection was made
+    public final Histogram httpDns = new Histogram();
+    public final Histogram httpConnect = new Histogram();
+    public final Histogram httpTls = new Histogram();
+    public final Histogram httpTtfb = new Histogram();
+
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final AtomicLongArray sentFailures = new AtomicLongArray(RESULT_CODE_SLOTS + 1);
+    private volatile long intervalStartedAt = System.currentTimeMillis();
+
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    private MetricsRegistry() {
+        histograms.put("pollRtt", pollRtt);
+        histograms.put("pendingQueueDepth", pendingQueueDepth);
+        histograms.put("receiveToSubmit", receiveToSubmit);
+        histograms.put("submitToSent", submitToSent);
+        histograms.put("sentToDelivered", sentToDelivered);
+        histograms.put("statusUpload", statusUpload);
+        histograms.put("inboundDirect", inboundDirect);
+        histograms.put("inboundQueued", inboundQueued);
+        histograms.put("httpDns", httpDns);
+        histograms.put("httpConnect", httpConnect);
+        histograms.put("httpTls", httpTls);
+        histograms.put("httpTtfb", httpTtfb);
+    }
+
+    /**
+     * Count a sent broadcast that came back with an error result code.
+     */
+    public void recordSentFailure(int resultCode) {
+        int slot = resultCode >= 0 && resultCode < RESULT_CODE_SLOTS ? resultCode : RESULT_CODE_SLOTS;
+        sentFailures.incrementAndGet(slot);
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Histogram.Snapshot> histogramSnapshots = new LinkedHashMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            histogramSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        long[] failures = new long[sentFailures.length()];
+        for (int slot = 0; slot < failures.length; slot++) {
+            failures[slot] = sentFailures.get(slot);
+        }
+        return new Snapshot(histogramSnapshots, failures, intervalStartedAt, System.currentTimeMillis());
+    }
+
+    /**
+     * Drop a reported snapshot; the next one starts where it ended.
+     */
+    public void discard(Snapshot snapshot) {
+        for (Map.Entry<String, Histogram.Snapshot> entry : snapshot.histograms.entrySet()) {
+            histograms.get(entry.getKey()).discard(entry.getValue());
+        }
+        for (int slot = 0; slot < snapshot.sentFailures.length; slot++) {
+            if (snapshot.sentFailures[slot] > 0) {
+                sentFailures.addAndGet(slot, -snapshot.sentFailures[slot]);
+            }
+        }
+        intervalStartedAt = snapshot.takenAt;
+    }
+
+    public static class Snapshot {
+        final Map<String, Histogram.Snapshot> histograms;
+        final long[] sentFailures;
+        final long startedAt;
+        final long takenAt;
+
+        Snapshot(Map<String, Histogram.Snapshot> histograms, long[] sentFailures, long startedAt, long takenAt) {
+            this.histograms = histograms;
+            this.sentFailures = sentFailures;
+            this.startedAt = startedAt;
+            this.takenAt = takenAt;
+        }
+
+        public boolean isEmpty() {
+            for (Histogram.Snapshot histogram : histograms.values()) {
+                if (histogram.count > 0) {
+                    return false;
+                }
+            }
+            for (long failures : sentFailures) {
+                if (failures > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public DeviceMetricsDTO toDTO() {
+            Map<String, HistogramSnapshotDTO> histogramDTOs = new LinkedHashMap<>();
+            for (Map.Entry<String, Histogram.Snapshot> entry : histograms.entrySet()) {
+                Histogram.Snapshot histogram = entry.getValue();
+                if (histogram.count == 0) {
+                    continue;
+                }
+                histogramDTOs.put(entry.getKey(), new HistogramSnapshotDTO(histogram.count, histogram.sum, histogram.max,
+                        histogram.percentile(0.5), histogram.percentile(0.9), histogram.percentile(0.99),
+                        histogram.buckets()));
+            }
+
+            Map<String, Long> failureCounts = new LinkedHashMap<>();
+            for (int slot = 0; slot < sentFailures.length; slot++) {
+                if (sentFailures[slot] > 0) {
+                    failureCounts.put(slot < RESULT_CODE_SLOTS ? Integer.toString(slot) : "other", sentFailures[slot]);
+                }
+            }
+            return new DeviceMetricsDTO(startedAt, takenAt, histogramDTOs, failureCounts);
+        }
+    }
+}
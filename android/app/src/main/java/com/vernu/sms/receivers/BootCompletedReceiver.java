@@ -16,6 +16,8 @@ import com.vernu.sms.dtos.RegisterDeviceInputDTO;
 import com.vernu.sms.dtos.RegisterDeviceResponseDTO;
 import com.vernu.sms.helpers.SharedPreferenceHelper;
 import com.vernu.sms.services.StickyNotificationService;
+import com.vernu.sms.workers.InboxBackfillWorker;
+import com.vernu.sms.workers.MetricsReportWorker;
 
 import retrofit2.Call;
 import retrofit2.Callback;
@@ -54,6 +56,9 @@ public class BootCompletedReceiver extends BroadcastReceiver {
             // Only proceed if both device ID and API key are available
             if (!deviceId.isEmpty() && !apiKey.isEmpty()) {
                 updateDeviceInfo(context, deviceId, apiKey);
+                // SMS that arrived before the receiver could run after boot are still in the inbox
+                InboxBackfillWorker.schedule(context);
+                MetricsReportWorker.schedule(context);
             }
         }
     }
@@ -6,11 +6,14 @@ import android.content.Intent;
 import android.provider.Telephony;
 import android.telephony.SmsMessage;
 import android.util.Log;
-import com.vernu.sms.AppConstants;
 import com.vernu.sms.dtos.SMSDTO;
-import com.vernu.sms.helpers.SharedPreferenceHelper;
-import com.vernu.sms.workers.SMSReceivedWorker;
+import com.vernu.sms.helpers.ConcatenatedSMSReassembler;
+import com.vernu.sms.helpers.GatewayConfig;
+import com.vernu.sms.helpers.InboundFingerprintCache;
+import com.vernu.sms.helpers.InboundSMSForwarder;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 
@@ -32,35 +35,39 @@ public class SMSBroadcastReceiver extends BroadcastReceiver {
             return;
         }
 
-        String deviceId = SharedPreferenceHelper.getSharedPreferenceString(context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, "");
-        String apiKey = SharedPreferenceHelper.getSharedPreferenceString(context, AppConstants.SHARED_PREFS_API_KEY_KEY, "");
-        boolean receiveSMSEnabled = SharedPreferenceHelper.getSharedPreferenceBoolean(context, AppConstants.SHARED_PREFS_RECEIVE_SMS_ENABLED_KEY, false);
-
-        if (deviceId.isEmpty() || apiKey.isEmpty() || !receiveSMSEnabled) {
+        GatewayConfig config = GatewayConfig.get(context);
+        if (!config.hasCredentials() || !config.receiveSMSEnabled) {
             Log.d(TAG, "Device ID or API Key is empty or Receive SMS Feature is disabled");
             return;
         }
 
-//        SMS receivedSMS = new SMS();
-//        receivedSMS.setType("RECEIVED");
-//        for (SmsMessage message : messages) {
-//            receivedSMS.setMessage(receivedSMS.getMessage() + message.getMessageBody());
-//            receivedSMS.setSender(message.getOriginatingAddress());
-//            receivedSMS.setReceivedAt(new Date(message.getTimestampMillis()));
-//        }
-
-        SMSDTO receivedSMSDTO = new SMSDTO();
+        long receivedAt = System.currentTimeMillis();
+        // Parts of a long message may come in separate broadcasts; only whole messages are uploaded
+        List<SMSDTO> receivedSMSDTOs = ConcatenatedSMSReassembler.getInstance()
+                .onReceived(messages, intent.getStringExtra("format"));
 
-        for (SmsMessage message : messages) {
-            receivedSMSDTO.setMessage(receivedSMSDTO.getMessage() + message.getMessageBody());
-            receivedSMSDTO.setSender(message.getOriginatingAddress());
-            receivedSMSDTO.setReceivedAtInMillis(message.getTimestampMillis());
+        // Drop broadcasts already forwarded; the fingerprint also lets the server drop replays,
+        // including a second delivery that arrives while the first is still uploading
+        InboundFingerprintCache fingerprints = InboundFingerprintCache.getInstance(context);
+        List<SMSDTO> newSMSDTOs = new ArrayList<>(receivedSMSDTOs.size());
+        for (SMSDTO receivedSMSDTO : receivedSMSDTOs) {
+            String fingerprint = InboundFingerprintCache.fingerprint(receivedSMSDTO.getSender(),
+                    receivedSMSDTO.getReceivedAtInMillis(), receivedSMSDTO.getMessage());
+            if (fingerprints.contains(fingerprint, receivedAt)) {
+                Log.d(TAG, "Duplicate SMS broadcast, skipping - fingerprint: " + fingerprint);
+                continue;
+            }
+            receivedSMSDTO.setIdempotencyKey(fingerprint);
+            receivedSMSDTO.setDeviceReceivedAtInMillis(receivedAt);
+            newSMSDTOs.add(receivedSMSDTO);
+        }
+        if (newSMSDTOs.isEmpty()) {
+            return;
         }
-//        receivedSMSDTO.setSender(receivedSMS.getSender());
-//        receivedSMSDTO.setMessage(receivedSMS.getMessage());
-//        receivedSMSDTO.setReceivedAt(receivedSMS.getReceivedAt());
 
-        SMSReceivedWorker.enqueueWork(context, deviceId, apiKey, receivedSMSDTO);
+        // Upload within the broadcast's time budget; whatever doesn't make it is queued
+        PendingResult pendingResult = goAsync();
+        InboundSMSForwarder.getInstance(context).forward(newSMSDTOs, pendingResult::finish);
     }
 
 //    private void updateLocalReceivedSMS(SMS localReceivedSMS, Context context) {
@@ -7,10 +7,18 @@ import android.content.Intent;
 import android.telephony.SmsManager;
 import android.util.Log;
 
-import com.vernu.sms.AppConstants;
+import com.vernu.sms.database.local.SMS;
 import com.vernu.sms.dtos.SMSDTO;
-import com.vernu.sms.helpers.SharedPreferenceHelper;
-import com.vernu.sms.workers.SMSStatusUpdateWorker;
+import com.vernu.sms.dtos.SMSSendAttemptDTO;
+import com.vernu.sms.helpers.MultipartAggregator;
+import com.vernu.sms.helpers.OutboundDispatcher;
+import com.vernu.sms.helpers.RequestCodeAllocator;
+import com.vernu.sms.helpers.SMSStatusBatcher;
+import com.vernu.sms.helpers.GatewayConfig;
+import com.vernu.sms.metrics.MessageTrace;
+import com.vernu.sms.metrics.MetricsRegistry;
+
+import java.util.List;
 
 
 public class SMSStatusReceiver extends BroadcastReceiver {
@@ -23,21 +31,97 @@ public class SMSStatusReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         String smsId = intent.getStringExtra("sms_id");
         String smsBatchId = intent.getStringExtra("sms_batch_id");
+        long outboundId = intent.getLongExtra("outbound_id", -1);
+        int attempt = intent.getIntExtra("attempt", 1);
+        int partIndex = intent.getIntExtra("part_index", 0);
+        int partCount = intent.getIntExtra("part_count", 1);
         String action = intent.getAction();
         
+        int requestCode = intent.getIntExtra("request_code", 0);
+        if (requestCode != 0) {
+            String owner = RequestCodeAllocator.getInstance(context).release(requestCode);
+            if (owner != null && !owner.equals(smsId == null ? "" : smsId)) {
+                Log.w(TAG, "Request code " + requestCode + " was allocated for " + owner + " but reported " + smsId);
+            }
+        }
+        
+        // Report a multipart message once, after all of its parts have resolved
+        String partKey = smsId + "_" + outboundId + "_" + attempt + "_" + action;
+        Integer aggregateResultCode = MultipartAggregator.getInstance()
+                .onPartResult(partKey, partIndex, partCount, getResultCode());
+        if (aggregateResultCode == null) {
+            Log.d(TAG, action + " for part " + (partIndex + 1) + "/" + partCount + " - ID: " + smsId);
+            return;
+        }
+        
         SMSDTO smsDTO = new SMSDTO();
         smsDTO.setSmsId(smsId);
         smsDTO.setSmsBatchId(smsBatchId);
         
         if (SMS_SENT.equals(action)) {
-            handleSentStatus(context, getResultCode(), smsDTO);
+            MessageTrace.record(smsId, MessageTrace.SENT_RESULT, aggregateResultCode);
+            int resultCode = aggregateResultCode;
+            handleSentStatus(resultCode, smsDTO);
+            if (outboundId > 0) {
+                recordSentResult(context, outboundId, attempt, resultCode, smsDTO);
+            } else {
+                updateSMSStatus(context, smsDTO);
+            }
         } else if (SMS_DELIVERED.equals(action)) {
-            handleDeliveredStatus(context, getResultCode(), smsDTO);
+            MessageTrace.record(smsId, MessageTrace.DELIVERY_RESULT, aggregateResultCode);
+            handleDeliveredStatus(context, aggregateResultCode, smsDTO);
+            recordLocalStatus(context, outboundId, smsDTO);
         }
     }
+
+    /**
+     * Store the sent result on the queued row and report it, unless the message failed over
+     * to another SIM, in which case that attempt's broadcast reports the outcome instead.
+     */
+    private void recordSentResult(Context context, long outboundId, int attempt, int resultCode, SMSDTO smsDTO) {
+        final PendingResult pendingResult = goAsync();
+        OutboundDispatcher.getInstance(context).handleSentResult(outboundId, attempt, resultCode, smsDTO.getErrorCode(),
+                (sms, superseded) -> {
+                    try {
+                        if (superseded) {
+                            Log.d(TAG, "Sent result superseded by SIM failover - ID: " + smsDTO.getSmsId());
+                            return;
+                        }
+                        if (sms != null && "SENT".equals(smsDTO.getStatus()) && sms.getSubmittedAt() != null) {
+                            MetricsRegistry.getInstance().submitToSent.record(
+                                    smsDTO.getSentAtInMillis() - sms.getSubmittedAt().getTime());
+                        }
+                        if (sms != null) {
+                            smsDTO.setSimSubscriptionId(sms.getSubscriptionId());
+                            smsDTO.setAttemptCount(sms.getAttemptCount());
+                            List<SMSSendAttemptDTO> sendAttempts = OutboundDispatcher.parseAttemptHistory(sms.getAttemptHistory());
+                            if (!sendAttempts.isEmpty()) {
+                                smsDTO.setSendAttempts(sendAttempts);
+                            }
+                        }
+                        updateSMSStatus(context, smsDTO);
+                    } finally {
+                        pendingResult.finish();
+                    }
+                });
+    }
+
+    /**
+     * Mirror the delivery outcome onto the recipient's row in the local outbound queue.
+     */
+    private void recordLocalStatus(Context context, long outboundId, SMSDTO smsDTO) {
+        if (outboundId <= 0) {
+            return;
+        }
+        String status = "DELIVERED".equals(smsDTO.getStatus()) ? SMS.STATUS_DELIVERED : SMS.STATUS_FAILED;
+        OutboundDispatcher.getInstance(context).recordStatus(outboundId, status, smsDTO.getErrorCode());
+    }
     
-    private void handleSentStatus(Context context, int resultCode, SMSDTO smsDTO) {
+    private void handleSentStatus(int resultCode, SMSDTO smsDTO) {
         long timestamp = System.currentTimeMillis();
+        if (resultCode != Activity.RESULT_OK) {
+            MetricsRegistry.getInstance().recordSentFailure(resultCode);
+        }
         String errorMessage = "";
         
         switch (resultCode) {
@@ -111,8 +195,6 @@ public class SMSStatusReceiver extends BroadcastReceiver {
                 Log.e(TAG, "SMS failed to send - ID: " + smsDTO.getSmsId() + ", Unknown error code: " + resultCode);
                 break;
         }
-        
-        updateSMSStatus(context, smsDTO);
     }
     
     private void handleDeliveredStatus(Context context, int resultCode, SMSDTO smsDTO) {
@@ -145,14 +227,11 @@ public class SMSStatusReceiver extends BroadcastReceiver {
     }
     
     private void updateSMSStatus(Context context, SMSDTO smsDTO) {
-        String deviceId = SharedPreferenceHelper.getSharedPreferenceString(context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, "");
-        String apiKey = SharedPreferenceHelper.getSharedPreferenceString(context, AppConstants.SHARED_PREFS_API_KEY_KEY, "");
-        
-        if (deviceId.isEmpty() || apiKey.isEmpty()) {
+        GatewayConfig config = GatewayConfig.get(context);
+        if (!config.hasCredentials()) {
             Log.e(TAG, "Device ID or API key not found");
             return;
         }
-
-        SMSStatusUpdateWorker.enqueueWork(context, deviceId, apiKey, smsDTO);
+        SMSStatusBatcher.getInstance(context).add(smsDTO);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.vernu.sms.services;
+
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Dns;
+
+/**
+ * Caches DNS lookups for the gateway host, so a poll every 15 s doesn't wait on the
+ * resolver each time a pooled connection has been dropped. A stale entry is used when a
+ * fresh lookup fails, which rides out short resolver outages.
+ */
+public class CachingDns implements Dns {
+    private static final String TAG = "CachingDns";
+    private static final long TTL_MS = 5 * 60 * 1000;
+    private static final long MAX_STALE_MS = 60 * 60 * 1000;
+
+    private final Dns delegate;
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    public CachingDns(Dns delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Entry cached = cache.get(hostname);
+        if (cached != null && now - cached.resolvedAt < TTL_MS) {
+            return cached.addresses;
+        }
+
+        try {
+            List<InetAddress> addresses = delegate.lookup(hostname);
+            cache.put(hostname, new Entry(addresses, now));
+            return addresses;
+        } catch (UnknownHostException e) {
+            if (cached != null && now - cached.resolvedAt < MAX_STALE_MS) {
+                Log.w(TAG, "Lookup of " + hostname + " failed, using cached addresses: " + e.getMessage());
+                return cached.addresses;
+            }
+            throw e;
+        }
+    }
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final long resolvedAt;
+
+        Entry(List<InetAddress> addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
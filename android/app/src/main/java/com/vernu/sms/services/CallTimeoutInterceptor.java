@@ -0,0 +1,34 @@
+package com.vernu.sms.services;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import retrofit2.Invocation;
+
+/**
+ * Applies the {@link CallTimeouts} of the Retrofit method behind each request.
+ */
+public class CallTimeoutInterceptor implements Interceptor {
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Invocation invocation = chain.request().tag(Invocation.class);
+        CallTimeouts timeouts = invocation != null ? invocation.method().getAnnotation(CallTimeouts.class) : null;
+        if (timeouts == null) {
+            return chain.proceed(chain.request());
+        }
+
+        Chain tuned = chain;
+        if (timeouts.connectMs() > 0) {
+            tuned = tuned.withConnectTimeout(timeouts.connectMs(), TimeUnit.MILLISECONDS);
+        }
+        if (timeouts.readMs() > 0) {
+            tuned = tuned.withReadTimeout(timeouts.readMs(), TimeUnit.MILLISECONDS);
+        }
+        if (timeouts.writeMs() > 0) {
+            tuned = tuned.withWriteTimeout(timeouts.writeMs(), TimeUnit.MILLISECONDS);
+        }
+        return tuned.proceed(chain.request());
+    }
+}
@@ -0,0 +1,20 @@
+package com.vernu.sms.services;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Per-call timeouts for a {@link GatewayApiService} method, applied by
+ * {@link CallTimeoutInterceptor}. Zero keeps the client's default.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CallTimeouts {
+    int connectMs() default 0;
+
+    int readMs() default 0;
+
+    int writeMs() default 0;
+}
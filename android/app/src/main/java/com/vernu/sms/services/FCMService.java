@@ -12,12 +12,13 @@ import android.util.Log;
 import androidx.core.app.NotificationCompat;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
-import com.google.gson.Gson;
 import com.vernu.sms.AppConstants;
 import com.vernu.sms.R;
 import com.vernu.sms.activities.MainActivity;
-import com.vernu.sms.helpers.SMSHelper;
+import com.vernu.sms.helpers.OutboundDispatcher;
 import com.vernu.sms.helpers.SharedPreferenceHelper;
+import com.vernu.sms.json.GatewayGson;
+import com.vernu.sms.metrics.MessageTrace;
 import com.vernu.sms.models.SMSPayload;
 import com.vernu.sms.dtos.RegisterDeviceInputDTO;
 import com.vernu.sms.dtos.RegisterDeviceResponseDTO;
@@ -37,11 +38,13 @@ public class FCMService extends FirebaseMessagingService {
 
         try {
             // Parse SMS payload data
-            Gson gson = new Gson();
-            SMSPayload smsPayload = gson.fromJson(remoteMessage.getData().get("smsData"), SMSPayload.class);
+            SMSPayload smsPayload = GatewayGson.get().fromJson(remoteMessage.getData().get("smsData"), SMSPayload.class);
 
             // Check if message contains a data payload
             if (remoteMessage.getData().size() > 0) {
+                if (smsPayload != null) {
+                    MessageTrace.record(smsPayload.getSmsId(), MessageTrace.FCM_RECEIVED, 0);
+                }
                 sendSMS(smsPayload);
             }
 
@@ -55,72 +58,16 @@ public class FCMService extends FirebaseMessagingService {
     }
 
     /**
-     * Send SMS to recipients using the provided payload
+     * Hand the payload to the shared outbound dispatcher. FCM callbacks run on a
+     * background thread, so the payload is persisted before this returns.
      */
     private void sendSMS(SMSPayload smsPayload) {
-        if (smsPayload == null) {
-            Log.e(TAG, "SMS payload is null");
-            return;
-        }
+        int queuedCount = OutboundDispatcher.getInstance(this).submit(smsPayload);
 
-        // Get preferred SIM
-        int preferredSim = SharedPreferenceHelper.getSharedPreferenceInt(
-                this, AppConstants.SHARED_PREFS_PREFERRED_SIM_KEY, -1);
-        
-        // Check if SMS payload contains valid recipients
-        String[] recipients = smsPayload.getRecipients();
-        if (recipients == null || recipients.length == 0) {
-            Log.e(TAG, "No recipients found in SMS payload");
-            return;
-        }
-        
-        // Send SMS to each recipient
-        boolean atLeastOneSent = false;
-        int sentCount = 0;
-        int failedCount = 0;
-        
-        for (String recipient : recipients) {
-            boolean smsSent;
-            
-            // Try to send using default or specific SIM based on preference
-            if (preferredSim == -1) {
-                // Use default SIM
-                smsSent = SMSHelper.sendSMS(
-                    recipient, 
-                    smsPayload.getMessage(), 
-                    smsPayload.getSmsId(), 
-                    smsPayload.getSmsBatchId(), 
-                    this
-                );
-            } else {
-                // Use specific SIM
-                try {
-                    smsSent = SMSHelper.sendSMSFromSpecificSim(
-                        recipient, 
-                        smsPayload.getMessage(), 
-                        preferredSim, 
-                        smsPayload.getSmsId(), 
-                        smsPayload.getSmsBatchId(), 
-                        this
-                    );
-                } catch (Exception e) {
-                    Log.e(TAG, "Error sending SMS from specific SIM: " + e.getMessage());
-                    smsSent = false;
-                }
-            }
-            
-            // Track sent and failed counts
-            if (smsSent) {
-                sentCount++;
-                atLeastOneSent = true;
-            } else {
-                failedCount++;
-            }
+        if (smsPayload != null) {
+            Log.d(TAG, "SMS queued for sending - Batch: " + smsPayload.getSmsBatchId() +
+                  ", Queued: " + queuedCount);
         }
-        
-        // Log summary
-        Log.d(TAG, "SMS sending complete - Batch: " + smsPayload.getSmsBatchId() + 
-              ", Sent: " + sentCount + ", Failed: " + failedCount);
     }
 
     @Override
@@ -1,11 +1,13 @@
 package com.vernu.sms.services;
 
-import com.vernu.sms.dtos.PendingSMSResponseDTO;
 import com.vernu.sms.dtos.SMSDTO;
 import com.vernu.sms.dtos.SMSForwardResponseDTO;
+import com.vernu.sms.dtos.SMSStatusBatchDTO;
 import com.vernu.sms.dtos.RegisterDeviceInputDTO;
 import com.vernu.sms.dtos.RegisterDeviceResponseDTO;
 
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
@@ -14,6 +16,7 @@ import retrofit2.http.PATCH;
 import retrofit2.http.POST;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 public interface GatewayApiService {
     @POST("gateway/devices")
@@ -25,9 +28,22 @@ public interface GatewayApiService {
     @POST("gateway/devices/{deviceId}/receive-sms")
     Call<SMSForwardResponseDTO> sendReceivedSMS(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() SMSDTO body);
 
+    @CallTimeouts(readMs = 30000, writeMs = 30000)
+    @POST("gateway/devices/{deviceId}/receive-sms/batch")
+    Call<SMSForwardResponseDTO> sendReceivedSMSBatch(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Header("Content-Encoding") String contentEncoding, @Body() RequestBody body);
+
     @PATCH("gateway/devices/{deviceId}/sms-status")
     Call<SMSForwardResponseDTO> updateSMSStatus(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() SMSDTO body);
 
+    @CallTimeouts(readMs = 30000, writeMs = 30000)
+    @PATCH("gateway/devices/{deviceId}/sms-status/batch")
+    Call<SMSForwardResponseDTO> updateSMSStatusBatch(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() SMSStatusBatchDTO body);
+
+    // Polled every 5 s to 5 min; a trigger that arrives while a poll is in flight is skipped
+    // and the next one is scheduled when this returns, so a slow answer never overlaps another
+    @CallTimeouts(readMs = 15000)
+    // Read with PendingSMSReader as it arrives, so a large page is never held in memory
+    @Streaming
     @GET("gateway/devices/{deviceId}/pending-sms")
-    Call<PendingSMSResponseDTO> getPendingSMS(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Query("limit") int limit);
+    Call<ResponseBody> getPendingSMS(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Query("limit") int limit);
 }
\ No newline at end of file
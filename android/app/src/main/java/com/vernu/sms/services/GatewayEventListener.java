@@ -0,0 +1,123 @@
+package com.vernu.sms.services;
+
+import android.util.Log;
+
+import com.vernu.sms.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+/**
+ * Times the phases of every gateway call: DNS, connect, TLS and time to first byte
+ * (request headers sent until response headers start), and records them in the
+ * {@link MetricsRegistry}. Phases skipped because a pooled connection was reused aren't
+ * recorded, and are logged as 0.
+ */
+public class GatewayEventListener extends EventListener {
+    private static final String TAG = "GatewayEventListener";
+
+    public static final Factory FACTORY = call -> new GatewayEventListener();
+
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+    private long callStart;
+    private long dnsStart;
+    private long connectStart;
+    private long secureConnectStart;
+    private long requestHeadersStart;
+    private final CallTimings timings = new CallTimings();
+
+    @Override
+    public void callStart(Call call) {
+        callStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        timings.dnsMs = elapsedMs(dnsStart);
+        metrics.httpDns.record(timings.dnsMs);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        secureConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        timings.tlsMs = elapsedMs(secureConnectStart);
+        metrics.httpTls.record(timings.tlsMs);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        timings.connectMs = elapsedMs(connectStart);
+        timings.protocol = protocol != null ? protocol.toString() : null;
+        metrics.httpConnect.record(timings.connectMs);
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        requestHeadersStart = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        timings.ttfbMs = elapsedMs(requestHeadersStart);
+        metrics.httpTtfb.record(timings.ttfbMs);
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        finish(call, true);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        finish(call, false);
+    }
+
+    private void finish(Call call, boolean succeeded) {
+        timings.totalMs = elapsedMs(callStart);
+        timings.succeeded = succeeded;
+        Log.d(TAG, call.request().url().encodedPath() + " " + timings);
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return startNanos == 0 ? 0 : (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static class CallTimings {
+        long dnsMs;
+        long connectMs;
+        long tlsMs;
+        long ttfbMs;
+        long totalMs;
+        String protocol;
+        boolean succeeded;
+
+        @Override
+        public String toString() {
+            return "dns=" + dnsMs + "ms connect=" + connectMs + "ms tls=" + tlsMs + "ms ttfb=" + ttfbMs
+                    + "ms total=" + totalMs + "ms" + (protocol != null ? " " + protocol : "")
+                    + (succeeded ? "" : " failed");
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.vernu.sms.services;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.vernu.sms.ApiManager;
+import com.vernu.sms.dtos.PendingSMSResponseDTO;
+import com.vernu.sms.models.SMSPayload;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Holds a server-sent event connection to gateway/devices/{deviceId}/pending-sms/stream
+ * so pending messages arrive as soon as the server creates them instead of on the next poll.
+ * Runs on its own thread and reconnects with exponential backoff until closed.
+ */
+public class PendingSMSStreamClient {
+    private static final String TAG = "PendingSMSStreamClient";
+    private static final String EVENT_PENDING_SMS = "pending-sms";
+    private static final long MIN_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 60 * 1000;
+    // The server sends a heartbeat every 25 seconds
+    private static final long HEALTH_TIMEOUT_MS = 60 * 1000;
+
+    public interface Listener {
+        void onConnected();
+
+        void onPendingSMS(SMSPayload smsPayload);
+
+        void onDisconnected(Throwable error);
+    }
+
+    private final OkHttpClient httpClient;
+    private final String baseUrl;
+    private final Gson gson;
+
+    private volatile boolean closed = false;
+    private volatile boolean connected = false;
+    private volatile long lastEventAt = 0;
+    private volatile Call currentCall;
+    private Thread streamThread;
+
+    public PendingSMSStreamClient(String baseUrl, Gson gson) {
+        // Shares the connection pool, DNS cache and timings of the gateway client
+        this(ApiManager.getHttpClient().newBuilder()
+                .readTimeout(HEALTH_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build(), baseUrl, gson);
+    }
+
+    public PendingSMSStreamClient(OkHttpClient httpClient, String baseUrl, Gson gson) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.gson = gson;
+    }
+
+    /**
+     * Open the stream on a background thread. Listener callbacks run on that thread.
+     *
+     * @param deviceId the registered device id
+     * @param apiKey the API key sent as the x-api-key header
+     * @param listener receives connection changes and pending messages
+     */
+    public synchronized void connect(String deviceId, String apiKey, Listener listener) {
+        if (streamThread != null) {
+            Log.d(TAG, "Stream already started");
+            return;
+        }
+        closed = false;
+        streamThread = new Thread(() -> runStreamLoop(deviceId, apiKey, listener), "textbee-sms-stream");
+        streamThread.setDaemon(true);
+        streamThread.start();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        connected = false;
+        Call call = currentCall;
+        if (call != null) {
+            call.cancel();
+        }
+        if (streamThread != null) {
+            streamThread.interrupt();
+            streamThread = null;
+        }
+    }
+
+    /**
+     * Whether the stream is connected and has heard from the server recently.
+     */
+    public boolean isHealthy() {
+        return connected && System.currentTimeMillis() - lastEventAt < HEALTH_TIMEOUT_MS;
+    }
+
+    private void runStreamLoop(String deviceId, String apiKey, Listener listener) {
+        long reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+
+        while (!closed) {
+            Throwable error = null;
+            boolean receivedEvents;
+            try {
+                receivedEvents = stream(deviceId, apiKey, listener);
+            } catch (Exception e) {
+                error = e;
+                receivedEvents = false;
+            }
+
+            boolean wasConnected = connected;
+            connected = false;
+            if (closed) {
+                return;
+            }
+            if (wasConnected) {
+                Log.w(TAG, "Stream disconnected" + (error != null ? ": " + error.getMessage() : ""));
+                listener.onDisconnected(error);
+            } else if (error != null) {
+                Log.e(TAG, "Error opening stream: " + error.getMessage());
+            }
+
+            // A connection that delivered events resets the backoff
+            reconnectDelayMs = receivedEvents
+                    ? MIN_RECONNECT_DELAY_MS
+                    : Math.min(reconnectDelayMs * 2, MAX_RECONNECT_DELAY_MS);
+            try {
+                Thread.sleep(reconnectDelayMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read one connection until it ends.
+     *
+     * @return whether any event was received
+     */
+    private boolean stream(String deviceId, String apiKey, Listener listener) throws IOException {
+        Request request = new Request.Builder()
+                .url(baseUrl + "gateway/devices/" + deviceId + "/pending-sms/stream")
+                .header("x-api-key", apiKey)
+                .header("Accept", "text/event-stream")
+                .get()
+                .build();
+
+        Call call = httpClient.newCall(request);
+        currentCall = call;
+        try (Response response = call.execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("Unexpected stream response: " + response.code());
+            }
+
+            connected = true;
+            lastEventAt = System.currentTimeMillis();
+            Log.i(TAG, "Stream connected");
+            listener.onConnected();
+
+            return readEvents(new BufferedReader(body.charStream()), listener);
+        } finally {
+            currentCall = null;
+        }
+    }
+
+    private boolean readEvents(BufferedReader reader, Listener listener) throws IOException {
+        boolean receivedEvents = false;
+        String eventType = null;
+        StringBuilder data = new StringBuilder();
+
+        String line;
+        while (!closed && (line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                // A blank line terminates the event
+                if (data.length() > 0) {
+                    lastEventAt = System.currentTimeMillis();
+                    receivedEvents = true;
+                    dispatchEvent(eventType, data.toString(), listener);
+                }
+                eventType = null;
+                data.setLength(0);
+            } else if (line.startsWith("event:")) {
+                eventType = line.substring("event:".length()).trim();
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(line.substring("data:".length()).trim());
+            }
+            // id:, retry: and comment lines are not used
+        }
+        return receivedEvents;
+    }
+
+    private void dispatchEvent(String eventType, String data, Listener listener) {
+        if (!EVENT_PENDING_SMS.equals(eventType)) {
+            return;
+        }
+
+        PendingSMSResponseDTO.PendingSMSData pendingSMSData;
+        try {
+            pendingSMSData = gson.fromJson(data, PendingSMSResponseDTO.PendingSMSData.class);
+        } catch (Exception e) {
+            Log.e(TAG, "Invalid pending-sms event: " + e.getMessage());
+            return;
+        }
+        if (pendingSMSData == null || pendingSMSData.messages == null) {
+            return;
+        }
+
+        Log.d(TAG, "Received " + pendingSMSData.messages.size() + " pending SMS from stream");
+        for (SMSPayload smsPayload : pendingSMSData.messages) {
+            listener.onPendingSMS(smsPayload);
+        }
+    }
+}
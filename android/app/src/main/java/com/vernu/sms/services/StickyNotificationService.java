@@ -4,7 +4,9 @@ import android.app.*;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 
@@ -13,15 +15,25 @@ import androidx.core.app.NotificationCompat;
 import com.vernu.sms.ApiManager;
 import com.vernu.sms.R;
 import com.vernu.sms.activities.MainActivity;
-import com.vernu.sms.dtos.PendingSMSResponseDTO;
-import com.vernu.sms.helpers.SMSHelper;
+import com.vernu.sms.helpers.OutboundDispatcher;
+import com.vernu.sms.helpers.PollingScheduler;
+import com.vernu.sms.json.GatewayGson;
+import com.vernu.sms.json.PendingSMSReader;
+import com.vernu.sms.metrics.MessageTrace;
+import com.vernu.sms.metrics.MetricsRegistry;
 import com.vernu.sms.models.SMSPayload;
 import com.vernu.sms.receivers.AlarmReceiver;
+import com.vernu.sms.workers.InboxBackfillWorker;
 import com.vernu.sms.AppConstants;
+import com.vernu.sms.helpers.GatewayConfig;
 import com.vernu.sms.helpers.SharedPreferenceHelper;
 
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.ResponseBody;
 import retrofit2.Call;
-import retrofit2.Callback;
 import retrofit2.Response;
 
 /**
@@ -31,11 +43,26 @@ import retrofit2.Response;
 public class StickyNotificationService extends Service {
 
     private static final String TAG = "StickyNotificationService";
-    private static final long POLLING_INTERVAL_MS = 15000; // Poll every 15 seconds
+    private static final int NOTIFICATION_ID = 1;
+    private static final int MIN_PENDING_SMS_PAGE_SIZE = 10;
+    // The server allows up to 500, but pages are streamed into the send queue and the next
+    // one is prefetched before it runs dry, so a bigger page only lengthens the server's
+    // query; 200 also leaves room for a full page under the queue's 500-recipient capacity
+    private static final int MAX_PENDING_SMS_PAGE_SIZE = 200;
+    // How far ahead of the sender thread each page should keep the queue filled
+    private static final long PREFETCH_HORIZON_MS = 10000;
 
     private AlarmManager alarmManager;
     private PendingIntent alarmPendingIntent;
+    private PollingScheduler pollingScheduler;
     private boolean isPolling = false;
+    private boolean isPollInFlight = false;
+    private volatile long lastFetchLatencyMs = 1000;
+    private Handler mainHandler;
+    private PendingSMSStreamClient streamClient;
+    // Reads pending-sms responses, which can't be done on the main thread
+    private final ExecutorService pollExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "textbee-poll"));
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -48,6 +75,9 @@ public class StickyNotificationService extends Service {
         super.onCreate();
         Log.i(TAG, "Service onCreate");
         alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        pollingScheduler = new PollingScheduler();
     }
 
     @Override
@@ -70,21 +100,16 @@ public class StickyNotificationService extends Service {
 
         // Start as foreground service with notification
         Notification notification = createNotification();
-        startForeground(1, notification);
+        startForeground(NOTIFICATION_ID, notification);
         Log.i(TAG, "Started foreground service with sticky notification");
 
-        // Handle alarm-triggered poll
-        if (intent != null && AlarmReceiver.ACTION_POLL_SMS.equals(intent.getAction())) {
-            Log.d(TAG, "Received poll trigger from AlarmReceiver");
-            pollForPendingSMS();
-        }
-
-        // Start or ensure polling is active
+        // Start polling (service may have been recreated), or handle an alarm-triggered poll.
+        // Each poll schedules the next one when it completes.
         if (!isPolling) {
             startPolling();
-        } else {
-            // Re-schedule next poll (service may have been recreated)
-            scheduleNextPoll();
+        } else if (intent != null && AlarmReceiver.ACTION_POLL_SMS.equals(intent.getAction())) {
+            Log.d(TAG, "Received poll trigger from AlarmReceiver");
+            pollForPendingSMS();
         }
 
         return START_STICKY;
@@ -94,6 +119,7 @@ public class StickyNotificationService extends Service {
     public void onDestroy() {
         super.onDestroy();
         stopPolling();
+        pollExecutor.shutdown();
         Log.i(TAG, "StickyNotificationService destroyed");
     }
 
@@ -131,25 +157,84 @@ public class StickyNotificationService extends Service {
 
         isPolling = true;
 
-        // Do immediate first poll
+        startStreamIfEnabled();
+
+        // Pick up whatever arrived while the service wasn't running
+        InboxBackfillWorker.schedule(this);
+
+        // Do immediate first poll, which schedules the subsequent ones
         pollForPendingSMS();
 
-        // Schedule subsequent polls using AlarmManager
-        scheduleNextPoll();
+        Log.i(TAG, "Started AlarmManager-based adaptive polling");
+    }
+
+    /**
+     * In stream mode pending messages are pushed over a server-sent event connection and
+     * the alarm loop only runs as a slow watchdog while that connection is healthy.
+     */
+    private void startStreamIfEnabled() {
+        GatewayConfig config = GatewayConfig.get(this);
+        boolean streamModeEnabled = config.streamModeEnabled;
+        String deviceId = config.deviceId;
+        String apiKey = config.apiKey;
+
+        if (!streamModeEnabled || deviceId.isEmpty() || apiKey.isEmpty()) {
+            return;
+        }
+
+        OutboundDispatcher dispatcher = OutboundDispatcher.getInstance(getApplicationContext());
+        streamClient = new PendingSMSStreamClient(AppConstants.API_BASE_URL, GatewayGson.get());
+        streamClient.connect(deviceId, apiKey, new PendingSMSStreamClient.Listener() {
+            @Override
+            public void onConnected() {
+                mainHandler.post(() -> updateNotification());
+            }
+
+            @Override
+            public void onPendingSMS(SMSPayload smsPayload) {
+                // Runs on the stream thread, so persisting it doesn't block the main thread
+                MessageTrace.record(smsPayload.getSmsId(), MessageTrace.STREAM_RECEIVED, 0);
+                dispatcher.submit(smsPayload);
+            }
 
-        Log.i(TAG, "Started AlarmManager-based polling every " + (POLLING_INTERVAL_MS / 1000) + " seconds");
+            @Override
+            public void onDisconnected(Throwable error) {
+                // Catch up on anything missed while the stream was down
+                mainHandler.post(() -> {
+                    if (!isPolling) {
+                        return;
+                    }
+                    pollingScheduler.onActivity();
+                    pollForPendingSMS();
+                });
+            }
+        });
+        Log.i(TAG, "Started pending SMS stream");
     }
 
     /**
      * Schedule the next poll using AlarmManager.setExactAndAllowWhileIdle().
      * This method survives Doze mode and will wake the device if needed.
+     * A zero delay means the server has more pending messages: the next page is fetched
+     * as soon as the send queue is about to run dry, so fetching page N+1 overlaps with
+     * the modem sending page N. The alarm stays armed as a fallback.
      */
-    private void scheduleNextPoll() {
+    private void scheduleNextPoll(long delayMs) {
         if (!isPolling) {
             Log.d(TAG, "Not scheduling next poll - polling is stopped");
             return;
         }
 
+        Log.d(TAG, "Next poll in " + (delayMs / 1000) + " seconds (" + pollingScheduler.getReason().getDescription() + ")");
+        updateNotification();
+
+        if (delayMs <= 0) {
+            OutboundDispatcher dispatcher = OutboundDispatcher.getInstance(getApplicationContext());
+            int prefetchThreshold = (int) Math.ceil(dispatcher.getDrainRatePerSecond() * lastFetchLatencyMs / 1000.0) + 1;
+            dispatcher.notifyWhenDrained(prefetchThreshold, () -> mainHandler.post(this::pollForPendingSMS));
+            delayMs = pollingScheduler.getCurrentIntervalMs();
+        }
+
         Intent intent = new Intent(this, AlarmReceiver.class);
         intent.setAction(AlarmReceiver.ACTION_POLL_SMS);
 
@@ -160,7 +245,7 @@ public class StickyNotificationService extends Service {
                 PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
         );
 
-        long triggerAtMillis = SystemClock.elapsedRealtime() + POLLING_INTERVAL_MS;
+        long triggerAtMillis = SystemClock.elapsedRealtime() + delayMs;
 
         // Use appropriate alarm method based on Android version
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
@@ -171,7 +256,7 @@ public class StickyNotificationService extends Service {
                         triggerAtMillis,
                         alarmPendingIntent
                 );
-                Log.d(TAG, "Scheduled exact alarm for next poll in " + (POLLING_INTERVAL_MS / 1000) + " seconds");
+                Log.d(TAG, "Scheduled exact alarm for next poll");
             } else {
                 // Fallback to inexact alarm if exact alarms not allowed
                 alarmManager.setAndAllowWhileIdle(
@@ -188,7 +273,7 @@ public class StickyNotificationService extends Service {
                     triggerAtMillis,
                     alarmPendingIntent
             );
-            Log.d(TAG, "Scheduled exact alarm for next poll in " + (POLLING_INTERVAL_MS / 1000) + " seconds");
+            Log.d(TAG, "Scheduled exact alarm for next poll");
         } else {
             // Android 5 and below: use setExact
             alarmManager.setExact(
@@ -196,7 +281,7 @@ public class StickyNotificationService extends Service {
                     triggerAtMillis,
                     alarmPendingIntent
             );
-            Log.d(TAG, "Scheduled exact alarm for next poll in " + (POLLING_INTERVAL_MS / 1000) + " seconds");
+            Log.d(TAG, "Scheduled exact alarm for next poll");
         }
     }
 
@@ -205,6 +290,14 @@ public class StickyNotificationService extends Service {
      */
     private void stopPolling() {
         isPolling = false;
+        isPollInFlight = false;
+        // The dispatcher outlives the service; don't let it call back into a stopped one
+        OutboundDispatcher.getInstance(getApplicationContext()).cancelDrainedCallback();
+
+        if (streamClient != null) {
+            streamClient.close();
+            streamClient = null;
+        }
 
         if (alarmManager != null && alarmPendingIntent != null) {
             alarmManager.cancel(alarmPendingIntent);
@@ -220,101 +313,133 @@ public class StickyNotificationService extends Service {
      * After completion (success or failure), schedules the next poll.
      */
     private void pollForPendingSMS() {
-        String deviceId = SharedPreferenceHelper.getSharedPreferenceString(
-                getApplicationContext(), AppConstants.SHARED_PREFS_DEVICE_ID_KEY, "");
-        String apiKey = SharedPreferenceHelper.getSharedPreferenceString(
-                getApplicationContext(), AppConstants.SHARED_PREFS_API_KEY_KEY, "");
-        boolean gatewayEnabled = SharedPreferenceHelper.getSharedPreferenceBoolean(
-                getApplicationContext(), AppConstants.SHARED_PREFS_GATEWAY_ENABLED_KEY, false);
-
-        if (deviceId.isEmpty() || apiKey.isEmpty() || !gatewayEnabled) {
+        if (!isPolling || pollExecutor.isShutdown()) {
+            // A drained callback or alarm that fired after polling stopped
+            Log.d(TAG, "Not polling - polling is stopped");
+            return;
+        }
+        if (isPollInFlight) {
+            Log.d(TAG, "Poll already in flight, skipping");
+            return;
+        }
+
+        GatewayConfig config = GatewayConfig.get(this);
+        String deviceId = config.deviceId;
+        String apiKey = config.apiKey;
+
+        if (!config.hasCredentials() || !config.gatewayEnabled) {
             Log.d(TAG, "Skipping poll - device not configured or gateway disabled");
-            scheduleNextPoll(); // Still schedule next poll
+            scheduleNextPoll(pollingScheduler.onPollSucceeded(0, false)); // Still schedule next poll
             return;
         }
 
-        Log.d(TAG, "Polling for pending SMS...");
-
-        ApiManager.getApiService().getPendingSMS(deviceId, apiKey, 10)
-                .enqueue(new Callback<PendingSMSResponseDTO>() {
-                    @Override
-                    public void onResponse(Call<PendingSMSResponseDTO> call, Response<PendingSMSResponseDTO> response) {
-                        if (!response.isSuccessful() || response.body() == null || response.body().data == null) {
-                            Log.e(TAG, "Failed to fetch pending SMS: " + response.code());
-                            scheduleNextPoll();
-                            return;
-                        }
-
-                        int count = response.body().data.count;
-                        if (count == 0) {
-                            Log.d(TAG, "No pending SMS");
-                        } else {
-                            Log.i(TAG, "Found " + count + " pending SMS to send");
-
-                            // Process each pending SMS
-                            for (SMSPayload smsPayload : response.body().data.messages) {
-                                sendSMS(smsPayload);
-                            }
-                        }
-
-                        scheduleNextPoll();
-                    }
+        OutboundDispatcher dispatcher = OutboundDispatcher.getInstance(getApplicationContext());
+        if (!dispatcher.hasCapacity()) {
+            Log.d(TAG, "Skipping poll - outbound queue is full (depth: " + dispatcher.getQueueDepth() + ")");
+            scheduleNextPoll(pollingScheduler.onQueueFull());
+            return;
+        }
 
-                    @Override
-                    public void onFailure(Call<PendingSMSResponseDTO> call, Throwable t) {
-                        Log.e(TAG, "Error polling for pending SMS: " + t.getMessage());
-                        scheduleNextPoll();
-                    }
-                });
+        isPollInFlight = true;
+
+        int pageSize = choosePageSize(dispatcher);
+        long fetchStartedAt = SystemClock.elapsedRealtime();
+        Log.d(TAG, "Polling for pending SMS (limit " + pageSize + ")...");
+
+        Call<ResponseBody> call = ApiManager.getApiService().getPendingSMS(deviceId, apiKey, pageSize);
+        pollExecutor.execute(() -> fetchPendingSMS(call, dispatcher, pageSize, fetchStartedAt));
     }
 
     /**
-     * Send SMS using the SMS payload.
+     * Run the poll on the poll thread, queueing each pending SMS as soon as it is read from
+     * the response so the sender can start on the first while the rest are still arriving.
+     * Ones already sent or queued are skipped.
      */
-    private void sendSMS(SMSPayload smsPayload) {
-        if (smsPayload == null) {
-            Log.e(TAG, "SMS payload is null");
+    private void fetchPendingSMS(Call<ResponseBody> call, OutboundDispatcher dispatcher, int pageSize, long fetchStartedAt) {
+        int[] queuedCount = {0};
+        int count;
+        try {
+            Response<ResponseBody> response = call.execute();
+            lastFetchLatencyMs = SystemClock.elapsedRealtime() - fetchStartedAt;
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            metrics.pollRtt.record(lastFetchLatencyMs);
+            metrics.pendingQueueDepth.record(dispatcher.getQueueDepth());
+            if (!response.isSuccessful() || response.body() == null) {
+                Log.e(TAG, "Failed to fetch pending SMS: " + response.code());
+                mainHandler.post(this::onPollFailed);
+                return;
+            }
+
+            try (ResponseBody body = response.body()) {
+                count = PendingSMSReader.read(body.charStream(), smsPayload -> {
+                    MessageTrace.record(smsPayload.getSmsId(), MessageTrace.POLL_RECEIVED, 0);
+                    if (dispatcher.submit(smsPayload) > 0) {
+                        queuedCount[0]++;
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            // Whatever was read before the failure is already queued
+            Log.e(TAG, "Error polling for pending SMS: " + e.getMessage());
+            mainHandler.post(this::onPollFailed);
             return;
         }
 
-        // Get preferred SIM
-        int preferredSim = SharedPreferenceHelper.getSharedPreferenceInt(
-                getApplicationContext(), AppConstants.SHARED_PREFS_PREFERRED_SIM_KEY, -1);
+        if (count == 0) {
+            Log.d(TAG, "No pending SMS");
+        }
+        int fetchedCount = count;
+        mainHandler.post(() -> {
+            isPollInFlight = false;
+            onPendingSMSQueued(fetchedCount, queuedCount[0], pageSize);
+        });
+    }
 
-        String[] recipients = smsPayload.getRecipients();
-        if (recipients == null || recipients.length == 0) {
-            Log.e(TAG, "No recipients in SMS payload");
-            return;
+    private void onPollFailed() {
+        isPollInFlight = false;
+        scheduleNextPoll(pollingScheduler.onPollFailed());
+    }
+
+    private void onPendingSMSQueued(int count, int queuedCount, int pageSize) {
+        if (count > 0) {
+            Log.i(TAG, "Found " + count + " pending SMS, " + queuedCount + " new");
         }
 
-        for (String recipient : recipients) {
-            boolean smsSent;
-            if (preferredSim == -1) {
-                smsSent = SMSHelper.sendSMS(
-                        recipient,
-                        smsPayload.getMessage(),
-                        smsPayload.getSmsId(),
-                        smsPayload.getSmsBatchId(),
-                        getApplicationContext()
-                );
-            } else {
-                try {
-                    smsSent = SMSHelper.sendSMSFromSpecificSim(
-                            recipient,
-                            smsPayload.getMessage(),
-                            preferredSim,
-                            smsPayload.getSmsId(),
-                            smsPayload.getSmsBatchId(),
-                            getApplicationContext()
-                    );
-                } catch (Exception e) {
-                    Log.e(TAG, "Error sending SMS from specific SIM: " + e.getMessage());
-                    smsSent = false;
-                }
-            }
+        if (streamClient != null && streamClient.isHealthy()) {
+            scheduleNextPoll(pollingScheduler.onStreamHealthy());
+        } else if (count > 0 && queuedCount == 0) {
+            // Everything returned is already on its way; wait for statuses to reach the server
+            pollingScheduler.onActivity();
+            scheduleNextPoll(pollingScheduler.getCurrentIntervalMs());
+        } else {
+            scheduleNextPoll(pollingScheduler.onPollSucceeded(queuedCount, count >= pageSize));
+        }
+    }
+
+    /**
+     * Ask for enough new messages to keep the sender busy until the following fetch
+     * returns, plus the ones sent recently that the server may still report as pending.
+     */
+    private int choosePageSize(OutboundDispatcher dispatcher) {
+        int wanted = (int) Math.ceil(dispatcher.getDrainRatePerSecond() * (lastFetchLatencyMs + PREFETCH_HORIZON_MS) / 1000.0);
+        int pageSize = wanted + dispatcher.getRecentlySentCount();
+        return Math.max(MIN_PENDING_SMS_PAGE_SIZE, Math.min(MAX_PENDING_SMS_PAGE_SIZE, pageSize));
+    }
+
+    /**
+     * Refresh the foreground notification with the current polling cadence.
+     */
+    private void updateNotification() {
+        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(NOTIFICATION_ID, createNotification());
+    }
 
-            Log.d(TAG, "SMS to " + recipient + ": " + (smsSent ? "sent" : "failed"));
+    private String getPollingStatusText() {
+        if (pollingScheduler == null) {
+            return "SMS gateway polling for messages";
         }
+        long intervalSeconds = pollingScheduler.getCurrentIntervalMs() / 1000;
+        return "SMS gateway polling every " + intervalSeconds + " seconds (" + pollingScheduler.getReason().getDescription() + ")";
     }
 
     /**
@@ -345,17 +470,19 @@ public class StickyNotificationService extends Service {
             Notification.Builder builder = new Notification.Builder(this, notificationChannelId);
             return builder
                     .setContentTitle("TextBee Active")
-                    .setContentText("SMS gateway polling every 15 seconds")
+                    .setContentText(getPollingStatusText())
                     .setContentIntent(pendingIntent)
                     .setOngoing(true)
+                    .setOnlyAlertOnce(true)
                     .setSmallIcon(R.mipmap.ic_launcher)
                     .build();
         } else {
             NotificationCompat.Builder builder = new NotificationCompat.Builder(this, notificationChannelId);
             return builder
                     .setContentTitle("TextBee Active")
-                    .setContentText("SMS gateway polling every 15 seconds")
+                    .setContentText(getPollingStatusText())
                     .setOngoing(true)
+                    .setOnlyAlertOnce(true)
                     .setSmallIcon(R.mipmap.ic_launcher)
                     .build();
         }
@@ -0,0 +1,51 @@
+package com.vernu.sms.workers;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.vernu.sms.helpers.InboxBackfill;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link InboxBackfill}: every 15 minutes, and once right away on boot, service
+ * start or when receiving is switched on. It only reads the inbox into the outbox, so it
+ * needs no network.
+ */
+public class InboxBackfillWorker extends Worker {
+    private static final String PERIODIC_WORK_NAME = "inbox_backfill";
+    private static final String ONE_TIME_WORK_NAME = "inbox_backfill_now";
+
+    public InboxBackfillWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        InboxBackfill.getInstance(getApplicationContext()).run();
+        return Result.success();
+    }
+
+    /**
+     * Schedule the periodic backfill, if it isn't already, and run one now.
+     */
+    public static void schedule(Context context) {
+        WorkManager workManager = WorkManager.getInstance(context);
+        PeriodicWorkRequest periodicRequest = new PeriodicWorkRequest.Builder(
+                InboxBackfillWorker.class, 15, TimeUnit.MINUTES)
+                .build();
+        workManager.enqueueUniquePeriodicWork(PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, periodicRequest);
+
+        OneTimeWorkRequest oneTimeRequest = new OneTimeWorkRequest.Builder(InboxBackfillWorker.class).build();
+        workManager.enqueueUniqueWork(ONE_TIME_WORK_NAME, ExistingWorkPolicy.KEEP, oneTimeRequest);
+    }
+}
@@ -0,0 +1,89 @@
+package com.vernu.sms.workers;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.vernu.sms.ApiManager;
+import com.vernu.sms.BuildConfig;
+import com.vernu.sms.dtos.RegisterDeviceInputDTO;
+import com.vernu.sms.dtos.RegisterDeviceResponseDTO;
+import com.vernu.sms.helpers.GatewayConfig;
+import com.vernu.sms.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Response;
+
+/**
+ * Reports the {@link MetricsRegistry} every hour on the device update. A report that
+ * doesn't reach the server stays in the registry and goes out with the next one.
+ */
+public class MetricsReportWorker extends Worker {
+    private static final String TAG = "MetricsReportWorker";
+    private static final String WORK_NAME = "metrics_report";
+
+    public MetricsReportWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        GatewayConfig config = GatewayConfig.get(getApplicationContext());
+        if (!config.hasCredentials()) {
+            return Result.success();
+        }
+
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        MetricsRegistry.Snapshot snapshot = registry.snapshot();
+        if (snapshot.isEmpty()) {
+            return Result.success();
+        }
+
+        RegisterDeviceInputDTO updateInput = new RegisterDeviceInputDTO();
+        // The server treats a missing flag as enabling the device
+        updateInput.setEnabled(config.gatewayEnabled);
+        updateInput.setAppVersionCode(BuildConfig.VERSION_CODE);
+        updateInput.setAppVersionName(BuildConfig.VERSION_NAME);
+        updateInput.setMetrics(snapshot.toDTO());
+
+        try {
+            Response<RegisterDeviceResponseDTO> response = ApiManager.getApiService()
+                    .updateDevice(config.deviceId, config.apiKey, updateInput)
+                    .execute();
+            if (response.isSuccessful()) {
+                registry.discard(snapshot);
+                Log.d(TAG, "Metrics reported");
+            } else {
+                Log.e(TAG, "Failed to report metrics. Response code: " + response.code());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Metrics report failed: " + e.getMessage());
+        }
+        return Result.success();
+    }
+
+    /**
+     * Schedule the hourly report if it isn't already.
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(MetricsReportWorker.class, 1, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+}
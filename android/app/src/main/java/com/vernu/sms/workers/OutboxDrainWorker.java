@@ -0,0 +1,54 @@
+package com.vernu.sms.workers;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.vernu.sms.helpers.OutboxDrainer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the outbox once the network is available. There is only ever one of these queued.
+ */
+public class OutboxDrainWorker extends Worker {
+    private static final String TAG = "OutboxDrainWorker";
+    private static final String WORK_NAME = "outbox_drain";
+
+    public OutboxDrainWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        if (OutboxDrainer.getInstance(getApplicationContext()).drain()) {
+            return Result.success();
+        }
+        Log.d(TAG, "Outbox not drained, retrying later");
+        return Result.retry();
+    }
+
+    public static void enqueueWork(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(OutboxDrainWorker.class)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.SECONDS)
+                .build();
+
+        WorkManager.getInstance(context)
+                .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, workRequest);
+    }
+}
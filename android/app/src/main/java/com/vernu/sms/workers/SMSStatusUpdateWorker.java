@@ -4,26 +4,23 @@ import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.work.Data;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
-import androidx.work.BackoffPolicy;
-import androidx.work.Constraints;
-import androidx.work.NetworkType;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.WorkManager;
 
-import com.google.gson.Gson;
 import com.vernu.sms.ApiManager;
 import com.vernu.sms.dtos.SMSDTO;
 import com.vernu.sms.dtos.SMSForwardResponseDTO;
+import com.vernu.sms.json.GatewayGson;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 import retrofit2.Call;
 import retrofit2.Response;
 
+/**
+ * Sends a status update queued by an older version of the app; new ones are written to
+ * the outbox by SMSStatusBatcher.
+ */
 public class SMSStatusUpdateWorker extends Worker {
     private static final String TAG = "SMSStatusUpdateWorker";
     private static final int MAX_RETRIES = 5;
@@ -56,7 +53,7 @@ public class SMSStatusUpdateWorker extends Worker {
             return Result.failure();
         }
         
-        SMSDTO smsDTO = new Gson().fromJson(smsDtoJson, SMSDTO.class);
+        SMSDTO smsDTO = GatewayGson.get().fromJson(smsDtoJson, SMSDTO.class);
         
         try {
             Call<SMSForwardResponseDTO> call = ApiManager.getApiService().updateSMSStatus(deviceId, apiKey, smsDTO);
@@ -74,32 +71,4 @@ public class SMSStatusUpdateWorker extends Worker {
             return Result.retry();
         }
     }
-    
-    public static void enqueueWork(Context context, String deviceId, String apiKey, SMSDTO smsDTO) {
-        Data inputData = new Data.Builder()
-                .putString(KEY_DEVICE_ID, deviceId)
-                .putString(KEY_API_KEY, apiKey)
-                .putString(KEY_SMS_DTO, new Gson().toJson(smsDTO))
-                .putInt(KEY_RETRY_COUNT, 0)
-                .build();
-        
-        Constraints constraints = new Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.CONNECTED)
-                .build();
-        
-        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(SMSStatusUpdateWorker.class)
-                .setConstraints(constraints)
-                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.SECONDS)
-                .setInputData(inputData)
-                .build();
-        
-        String uniqueWorkName = "sms_status_" + smsDTO.getStatus() + "_" + System.currentTimeMillis();
-        WorkManager.getInstance(context)
-                .beginUniqueWork(uniqueWorkName, 
-                        androidx.work.ExistingWorkPolicy.REPLACE, 
-                        workRequest)
-                .enqueue();
-        
-        Log.d(TAG, "Work enqueued for SMS status update - ID: " + smsDTO.getSmsId());
-    }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package com.vernu.sms.workers;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.vernu.sms.helpers.SentBoxReconciler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link SentBoxReconciler} every 15 minutes. The status updates it produces go
+ * through the status batcher, which falls back to the outbox, so it needs no network itself.
+ */
+public class SentBoxReconcileWorker extends Worker {
+    private static final String WORK_NAME = "sent_box_reconcile";
+
+    public SentBoxReconcileWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        SentBoxReconciler.getInstance(getApplicationContext()).run();
+        return Result.success();
+    }
+
+    /**
+     * Schedule the periodic reconciliation if it isn't already.
+     */
+    public static void schedule(Context context) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                SentBoxReconcileWorker.class, 15, TimeUnit.MINUTES)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+}
@@ -0,0 +1,151 @@
+package com.vernu.sms.helpers;
+
+import com.vernu.sms.dtos.SMSDTO;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConcatenatedSMSReassemblerTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void parsesEightBitReferenceHeader() {
+        ConcatenatedSMSReassembler.ConcatHeader header = ConcatenatedSMSReassembler.parseConcatHeader(
+                deliverPdu(0x40, new byte[]{0x05, 0x00, 0x03, 0x2a, 0x03, 0x02}));
+
+        assertNotNull(header);
+        assertEquals(0x2a, header.reference);
+        assertEquals(3, header.total);
+        assertEquals(2, header.sequence);
+    }
+
+    @Test
+    public void parsesSixteenBitReferenceHeaderAfterOtherElements() {
+        ConcatenatedSMSReassembler.ConcatHeader header = ConcatenatedSMSReassembler.parseConcatHeader(
+                deliverPdu(0x40, new byte[]{0x09, 0x24, 0x01, 0x01, 0x08, 0x04, 0x12, 0x34, 0x02, 0x01}));
+
+        assertNotNull(header);
+        assertEquals(0x1234, header.reference);
+        assertEquals(2, header.total);
+        assertEquals(1, header.sequence);
+    }
+
+    @Test
+    public void ignoresPdusWithoutHeader() {
+        assertNull(ConcatenatedSMSReassembler.parseConcatHeader(deliverPdu(0x04, new byte[0])));
+        assertNull(ConcatenatedSMSReassembler.parseConcatHeader(new byte[]{0x07, 0x01}));
+        assertNull(ConcatenatedSMSReassembler.parseConcatHeader(null));
+    }
+
+    @Test
+    public void joinsPartsSplitAcrossBroadcastsAndInterleavedSenders() {
+        ConcatenatedSMSReassembler reassembler = new ConcatenatedSMSReassembler();
+
+        List<SMSDTO> first = reassembler.add(Arrays.asList(
+                part("+15550100", "world", 2, 7, 2, 2),
+                part("+15550199", "Your code ", 2, 7, 1, 1)), NOW);
+        assertTrue(first.isEmpty());
+        assertEquals(2, reassembler.getPendingCount());
+
+        List<SMSDTO> second = reassembler.add(Collections.singletonList(part("+15550100", "hello ", 2, 7, 1, 0)), NOW + 1000);
+        assertEquals(1, second.size());
+        assertEquals("+15550100", second.get(0).getSender());
+        assertEquals("hello world", second.get(0).getMessage());
+        assertEquals(NOW, second.get(0).getReceivedAtInMillis());
+
+        List<SMSDTO> third = reassembler.add(Collections.singletonList(part("+15550199", "is 123456", 2, 7, 2, 3)), NOW + 2000);
+        assertEquals(1, third.size());
+        assertEquals("Your code is 123456", third.get(0).getMessage());
+        assertEquals(0, reassembler.getPendingCount());
+    }
+
+    @Test
+    public void sameReferenceFromDifferentSendersStaysApart() {
+        ConcatenatedSMSReassembler reassembler = new ConcatenatedSMSReassembler();
+
+        List<SMSDTO> complete = reassembler.add(Arrays.asList(
+                part("A", "a1", 2, 9, 1, 0),
+                part("B", "b1", 2, 9, 1, 0),
+                part("B", "b2", 2, 9, 2, 0),
+                part("A", "a2", 2, 9, 2, 0)), NOW);
+
+        assertEquals(2, complete.size());
+        assertEquals("b1b2", complete.get(0).getMessage());
+        assertEquals("a1a2", complete.get(1).getMessage());
+    }
+
+    @Test
+    public void repeatedPartIsIgnored() {
+        ConcatenatedSMSReassembler reassembler = new ConcatenatedSMSReassembler();
+
+        assertTrue(reassembler.add(Collections.singletonList(part("A", "x", 2, 1, 1, 0)), NOW).isEmpty());
+        assertTrue(reassembler.add(Collections.singletonList(part("A", "x", 2, 1, 1, 0)), NOW).isEmpty());
+        assertEquals("xy", reassembler.add(Collections.singletonList(part("A", "y", 2, 1, 2, 0)), NOW).get(0).getMessage());
+    }
+
+    @Test
+    public void incompleteMessageIsEmittedAfterHoldTime() {
+        ConcatenatedSMSReassembler reassembler = new ConcatenatedSMSReassembler();
+        reassembler.add(Collections.singletonList(part("A", "first ", 3, 5, 1, 0)), NOW);
+        reassembler.add(Collections.singletonList(part("A", "third", 3, 5, 3, 0)), NOW);
+
+        List<SMSDTO> complete = reassembler.add(Collections.emptyList(), NOW + 11 * 60 * 1000);
+        assertEquals(1, complete.size());
+        assertEquals("first third", complete.get(0).getMessage());
+        assertEquals(0, reassembler.getPendingCount());
+    }
+
+    @Test
+    public void takeExpiredEmitsWithoutABroadcast() {
+        ConcatenatedSMSReassembler reassembler = new ConcatenatedSMSReassembler();
+        reassembler.add(Collections.singletonList(part("A", "first ", 2, 5, 1, 0)), NOW);
+
+        assertTrue(reassembler.takeExpired(NOW + 60 * 1000).isEmpty());
+        List<SMSDTO> expired = reassembler.takeExpired(NOW + 11 * 60 * 1000);
+        assertEquals(1, expired.size());
+        assertEquals("first ", expired.get(0).getMessage());
+        assertEquals(NOW, expired.get(0).getDeviceReceivedAtInMillis());
+        assertEquals(0, reassembler.getPendingCount());
+    }
+
+    @Test
+    public void partsWithoutHeaderAreJoinedPerSender() {
+        ConcatenatedSMSReassembler reassembler = new ConcatenatedSMSReassembler();
+
+        List<SMSDTO> complete = reassembler.add(Arrays.asList(
+                new ConcatenatedSMSReassembler.Part("A", "one ", NOW, null),
+                new ConcatenatedSMSReassembler.Part("B", "other", NOW, null),
+                new ConcatenatedSMSReassembler.Part("A", "two", NOW, null)), NOW);
+
+        assertEquals(2, complete.size());
+        assertEquals("one two", complete.get(0).getMessage());
+        assertEquals("other", complete.get(1).getMessage());
+    }
+
+    private static ConcatenatedSMSReassembler.Part part(String sender, String body, int total, int reference, int sequence, long offsetMs) {
+        return new ConcatenatedSMSReassembler.Part(sender, body, NOW + offsetMs,
+                ConcatenatedSMSReassembler.ConcatHeader.of(reference, total, sequence));
+    }
+
+    /**
+     * A 3GPP SMS-DELIVER PDU from +15550100, with the given user data header and no text.
+     */
+    private static byte[] deliverPdu(int firstOctet, byte[] userDataHeader) {
+        byte[] prefix = {
+                0x07, (byte) 0x91, 0x51, 0x55, 0x00, 0x00, 0x00, (byte) 0xf0,
+                (byte) firstOctet,
+                0x0b, (byte) 0x91, 0x51, 0x55, 0x05, 0x01, 0x00, (byte) 0xf0,
+                0x00, 0x00,
+                0x32, 0x10, 0x61, 0x51, 0x42, 0x30, 0x00,
+                (byte) userDataHeader.length
+        };
+        byte[] pdu = Arrays.copyOf(prefix, prefix.length + userDataHeader.length);
+        System.arraycopy(userDataHeader, 0, pdu, prefix.length, userDataHeader.length);
+        return pdu;
+    }
+}
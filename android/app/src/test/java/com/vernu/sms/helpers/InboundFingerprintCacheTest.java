@@ -0,0 +1,86 @@
+package com.vernu.sms.helpers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class InboundFingerprintCacheTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void markedFingerprintsSurviveRestart() throws Exception {
+        File directory = folder.newFolder("fingerprints");
+        InboundFingerprintCache first = new InboundFingerprintCache(directory, NOW);
+        String fingerprint = InboundFingerprintCache.fingerprint("+15550100", NOW, "Your code is 123456");
+        first.mark(fingerprint, NOW);
+
+        InboundFingerprintCache restarted = new InboundFingerprintCache(directory, NOW + 1000);
+        assertTrue(restarted.contains(fingerprint, NOW + 1000));
+        assertFalse(restarted.contains(InboundFingerprintCache.fingerprint("+15550100", NOW, "other"), NOW + 1000));
+    }
+
+    @Test
+    public void oldFingerprintsAreEvicted() throws Exception {
+        File directory = folder.newFolder("fingerprints");
+        InboundFingerprintCache cache = new InboundFingerprintCache(directory, NOW);
+        cache.mark("old", NOW);
+        cache.mark("new", NOW + InboundFingerprintCache.MAX_AGE_MS / 2);
+
+        long later = NOW + InboundFingerprintCache.MAX_AGE_MS;
+        assertFalse(cache.contains("old", later));
+        assertTrue(cache.contains("new", later));
+
+        InboundFingerprintCache restarted = new InboundFingerprintCache(directory, later);
+        assertEquals(1, restarted.size());
+        assertTrue(restarted.contains("new", later));
+    }
+
+    @Test
+    public void countIsBoundedAcrossJournalRotations() throws Exception {
+        File directory = folder.newFolder("fingerprints");
+        InboundFingerprintCache cache = new InboundFingerprintCache(directory, NOW);
+        int count = InboundFingerprintCache.MAX_FINGERPRINTS * 3;
+        for (int i = 0; i < count; i++) {
+            cache.mark("fp-" + i, NOW + i);
+        }
+        assertEquals(InboundFingerprintCache.MAX_FINGERPRINTS, cache.size());
+        assertFalse(cache.contains("fp-0", NOW + count));
+        assertTrue(cache.contains("fp-" + (count - InboundFingerprintCache.MAX_FINGERPRINTS), NOW + count));
+
+        // The two journals hold at least the latest generation
+        InboundFingerprintCache restarted = new InboundFingerprintCache(directory, NOW + count);
+        assertTrue(restarted.size() <= InboundFingerprintCache.MAX_FINGERPRINTS);
+        for (int i = count - InboundFingerprintCache.MAX_FINGERPRINTS / 2; i < count; i++) {
+            assertTrue("fp-" + i, restarted.contains("fp-" + i, NOW + count));
+        }
+        assertFalse(restarted.contains("fp-0", NOW + count));
+    }
+
+    @Test
+    public void lineCutShortIsSkipped() throws Exception {
+        File directory = folder.newFolder("fingerprints");
+        InboundFingerprintCache first = new InboundFingerprintCache(directory, NOW);
+        first.mark("first", NOW);
+        first.mark("second", NOW);
+        try (FileOutputStream journal = new FileOutputStream(new File(directory, "current.log"), true)) {
+            journal.write("third 17".getBytes(StandardCharsets.UTF_8));
+        }
+
+        InboundFingerprintCache restarted = new InboundFingerprintCache(directory, NOW);
+        assertTrue(restarted.contains("first", NOW));
+        assertTrue(restarted.contains("second", NOW));
+        restarted.mark("fourth", NOW);
+
+        InboundFingerprintCache again = new InboundFingerprintCache(directory, NOW);
+        assertTrue(again.contains("fourth", NOW));
+    }
+}
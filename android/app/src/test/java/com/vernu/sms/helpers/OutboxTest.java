@@ -0,0 +1,138 @@
+package com.vernu.sms.helpers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutboxTest {
+    // Length, CRC and type in front of every payload
+    private static final int HEADER_BYTES = 9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsComeBackInOrderAcrossSegments() throws Exception {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        char[] filler = new char[1000];
+        Arrays.fill(filler, 'x');
+        // About 2.5 MB, so the log spans three 1 MB segments
+        int count = 2500;
+        for (int i = 0; i < count; i++) {
+            assertTrue(outbox.append(i % 2 == 0 ? Outbox.TYPE_RECEIVED_SMS : Outbox.TYPE_SMS_STATUS,
+                    i + ":" + new String(filler)));
+        }
+        assertTrue(segmentCount(directory) >= 3);
+
+        List<Outbox.Record> read = drain(outbox, 300);
+        assertEquals(count, read.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(read.get(i).payload.startsWith(i + ":"));
+            assertEquals(i % 2 == 0 ? Outbox.TYPE_RECEIVED_SMS : Outbox.TYPE_SMS_STATUS, read.get(i).type);
+        }
+        assertTrue(outbox.isEmpty());
+        // Only the segment still being written is left
+        assertEquals(1, segmentCount(directory));
+    }
+
+    @Test
+    public void checkpointSurvivesReopen() throws Exception {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        for (int i = 0; i < 10; i++) {
+            outbox.append(Outbox.TYPE_RECEIVED_SMS, "sms-" + i);
+        }
+        List<Outbox.Record> first = outbox.peek(4, Long.MAX_VALUE);
+        outbox.commit(first.get(first.size() - 1));
+
+        Outbox reopened = new Outbox(directory);
+        reopened.append(Outbox.TYPE_RECEIVED_SMS, "sms-10");
+        List<Outbox.Record> rest = reopened.peek(100, Long.MAX_VALUE);
+        assertEquals(7, rest.size());
+        for (int i = 0; i < rest.size(); i++) {
+            assertEquals("sms-" + (i + 4), rest.get(i).payload);
+        }
+    }
+
+    @Test
+    public void corruptLastRecordIsDropped() throws Exception {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        outbox.append(Outbox.TYPE_SMS_STATUS, "first");
+        outbox.append(Outbox.TYPE_SMS_STATUS, "second");
+        outbox.append(Outbox.TYPE_SMS_STATUS, "third");
+
+        // Flip a payload byte of the last record so its CRC no longer matches
+        long third = 2L * HEADER_BYTES + "first".length() + "second".length();
+        try (RandomAccessFile segment = new RandomAccessFile(onlySegment(directory), "rw")) {
+            segment.seek(third + HEADER_BYTES);
+            segment.write('T');
+        }
+
+        assertReopensWith(directory, "first", "second");
+    }
+
+    @Test
+    public void recordCutShortIsDropped() throws Exception {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        outbox.append(Outbox.TYPE_RECEIVED_SMS, "first");
+        outbox.append(Outbox.TYPE_RECEIVED_SMS, "second");
+        outbox.append(Outbox.TYPE_RECEIVED_SMS, "third");
+
+        // The length is in place but the end of the payload never reached the page cache
+        long third = 2L * HEADER_BYTES + "first".length() + "second".length();
+        try (RandomAccessFile segment = new RandomAccessFile(onlySegment(directory), "rw")) {
+            segment.seek(third + HEADER_BYTES + 2);
+            segment.write(new byte[3]);
+        }
+
+        assertReopensWith(directory, "first", "second");
+    }
+
+    private static void assertReopensWith(File directory, String... payloads) throws Exception {
+        Outbox reopened = new Outbox(directory);
+        List<Outbox.Record> records = reopened.peek(100, Long.MAX_VALUE);
+        assertEquals(payloads.length, records.size());
+        for (int i = 0; i < payloads.length; i++) {
+            assertEquals(payloads[i], records.get(i).payload);
+        }
+
+        // New records go where the dropped one was
+        reopened.append(Outbox.TYPE_SMS_STATUS, "fourth");
+        records = new Outbox(directory).peek(100, Long.MAX_VALUE);
+        assertEquals(payloads.length + 1, records.size());
+        assertEquals("fourth", records.get(payloads.length).payload);
+    }
+
+    private static List<Outbox.Record> drain(Outbox outbox, int batchSize) throws Exception {
+        List<Outbox.Record> read = new ArrayList<>();
+        List<Outbox.Record> batch;
+        while (!(batch = outbox.peek(batchSize, Long.MAX_VALUE)).isEmpty()) {
+            read.addAll(batch);
+            outbox.commit(batch.get(batch.size() - 1));
+        }
+        return read;
+    }
+
+    private static int segmentCount(File directory) {
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        return segments != null ? segments.length : 0;
+    }
+
+    private static File onlySegment(File directory) {
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        assertNotNull(segments);
+        assertEquals(1, segments.length);
+        return segments[0];
+    }
+}
@@ -0,0 +1,83 @@
+package com.vernu.sms.helpers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class RequestCodeAllocatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void oneMillionIdsGetDistinctCodes() {
+        RequestCodeAllocator allocator = new RequestCodeAllocator(null);
+        int count = 1_000_000;
+        int[] codes = new int[count];
+        BitSet seen = new BitSet();
+
+        for (int i = 0; i < count; i++) {
+            int code = allocator.allocate("sms-" + i);
+            assertTrue("request codes are positive", code > 0);
+            assertFalse("collision on request code " + code, seen.get(code));
+            seen.set(code);
+            codes[i] = code;
+        }
+
+        assertEquals(count, seen.cardinality());
+        int recent = RequestCodeAllocator.MAX_LIVE_CODES / 2;
+        for (int i = count - recent; i < count; i += 97) {
+            assertEquals("sms-" + i, allocator.lookup(codes[i]));
+        }
+
+        for (int i = count - recent; i < count; i++) {
+            assertEquals("sms-" + i, allocator.release(codes[i]));
+        }
+        assertNull(allocator.release(codes[count - 1]));
+    }
+
+    @Test
+    public void codesThatAreNeverReleasedAreForgotten() {
+        RequestCodeAllocator allocator = new RequestCodeAllocator(null);
+        int first = allocator.allocate("sms-first");
+        int last = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            last = allocator.allocate("sms-" + i);
+            assertTrue(allocator.getLiveCount() <= RequestCodeAllocator.MAX_LIVE_CODES);
+        }
+
+        assertNull(allocator.lookup(first));
+        assertEquals("sms-999999", allocator.lookup(last));
+    }
+
+    @Test
+    public void codesAreNotReusedAfterRestart() throws Exception {
+        File counterFile = new File(folder.getRoot(), "counter");
+        RequestCodeAllocator first = new RequestCodeAllocator(counterFile);
+        int last = 0;
+        for (int i = 0; i < 10_000; i++) {
+            last = first.allocate("sms-" + i);
+        }
+
+        RequestCodeAllocator restarted = new RequestCodeAllocator(counterFile);
+        assertTrue(restarted.allocate("sms-next") > last);
+    }
+
+    @Test
+    public void mapSurvivesInterleavedAllocateAndRelease() {
+        RequestCodeAllocator allocator = new RequestCodeAllocator(null);
+        int[] window = new int[5000];
+        for (int i = 0; i < 1_000_000; i++) {
+            int slot = i % window.length;
+            if (window[slot] != 0) {
+                assertEquals("sms-" + (i - window.length), allocator.release(window[slot]));
+            }
+            window[slot] = allocator.allocate("sms-" + i);
+        }
+        assertEquals(window.length, allocator.getLiveCount());
+    }
+}
@@ -0,0 +1,136 @@
+package com.vernu.sms.helpers;
+
+import com.vernu.sms.dtos.SMSDTO;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SMSStatusBatcherTest {
+    private final List<SMSDTO> appended = Collections.synchronizedList(new ArrayList<>());
+    // Number of updates in the outbox at each drain
+    private final BlockingQueue<Integer> drains = new LinkedBlockingQueue<>();
+    private volatile boolean appendFails = false;
+
+    @Test
+    public void updatesReachTheOutboxBeforeTheWindowCloses() throws Exception {
+        SMSStatusBatcher batcher = newBatcher(60_000, 100);
+
+        batcher.add(status("sms-1", "SENT"));
+        batcher.add(status("sms-2", "SENT"));
+        batcher.add(status("sms-1", "DELIVERED"));
+
+        // Already durable, though nothing has been uploaded yet
+        assertEquals(3, appended.size());
+        assertEquals(3, batcher.getPendingCount());
+        assertNull(drains.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void drainsWhenMaxEventsAccumulate() throws Exception {
+        SMSStatusBatcher batcher = newBatcher(60_000, 100);
+
+        for (int i = 0; i < 250; i++) {
+            batcher.add(status("sms-" + i, "SENT"));
+        }
+        assertNotNull(drains.poll(5, TimeUnit.SECONDS));
+        assertNotNull(drains.poll(5, TimeUnit.SECONDS));
+        assertEquals(50, batcher.getPendingCount());
+
+        batcher.flush();
+        assertEquals(250, (int) drains.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, batcher.getPendingCount());
+        assertNull(drains.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void drainsOnceTheWindowCloses() throws Exception {
+        SMSStatusBatcher batcher = newBatcher(100, 100);
+
+        batcher.add(status("sms-1", "SENT"));
+        batcher.add(status("sms-2", "SENT"));
+
+        assertEquals(2, (int) drains.poll(5, TimeUnit.SECONDS));
+        assertNull(drains.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void updateThatCannotBeStoredIsNotCounted() throws Exception {
+        appendFails = true;
+        SMSStatusBatcher batcher = newBatcher(100, 1);
+
+        batcher.add(status("sms-1", "SENT"));
+
+        assertEquals(0, batcher.getPendingCount());
+        assertNull(drains.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void drainCoalescesSentAndDeliveredIntoOneUpdate() {
+        List<SMSDTO> outbox = new ArrayList<>();
+        // A 500-recipient batch used to cost one request per status event
+        for (int i = 0; i < 500; i++) {
+            outbox.add(status("sms-" + i, "SENT"));
+        }
+        for (int i = 0; i < 500; i++) {
+            outbox.add(status("sms-" + i, "DELIVERED"));
+        }
+
+        List<SMSDTO> updates = OutboxDrainer.coalesce(outbox);
+        assertEquals(500, updates.size());
+        for (int i = 0; i < updates.size(); i++) {
+            assertEquals("sms-" + i, updates.get(i).getSmsId());
+            assertEquals("DELIVERED", updates.get(i).getStatus());
+            // The sent time survives coalescing
+            assertEquals(1000L, updates.get(i).getSentAtInMillis());
+        }
+    }
+
+    @Test
+    public void lateSentDoesNotOverwriteDelivered() {
+        SMSDTO delivered = status("sms-1", "DELIVERED");
+        delivered.setSentAtInMillis(0);
+        SMSDTO merged = SMSStatusBatcher.coalesce(delivered, status("sms-1", "SENT"));
+
+        assertEquals("DELIVERED", merged.getStatus());
+        assertEquals(1000L, merged.getSentAtInMillis());
+    }
+
+    private SMSStatusBatcher newBatcher(long windowMs, int maxEvents) {
+        return new SMSStatusBatcher(new SMSStatusBatcher.StatusOutbox() {
+            @Override
+            public boolean append(SMSDTO update) {
+                if (appendFails) {
+                    return false;
+                }
+                appended.add(update);
+                return true;
+            }
+
+            @Override
+            public void drain() {
+                drains.add(appended.size());
+            }
+        }, windowMs, maxEvents);
+    }
+
+    private static SMSDTO status(String smsId, String status) {
+        SMSDTO smsDTO = new SMSDTO();
+        smsDTO.setSmsId(smsId);
+        smsDTO.setSmsBatchId("batch-1");
+        smsDTO.setStatus(status);
+        if ("SENT".equals(status)) {
+            smsDTO.setSentAtInMillis(1000);
+        } else if ("DELIVERED".equals(status)) {
+            smsDTO.setDeliveredAtInMillis(2000);
+        }
+        return smsDTO;
+    }
+}
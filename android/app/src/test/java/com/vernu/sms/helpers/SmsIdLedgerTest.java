@@ -0,0 +1,68 @@
+package com.vernu.sms.helpers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class SmsIdLedgerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sentIdsSurviveRestart() throws Exception {
+        File directory = folder.newFolder("ledger");
+        SmsIdLedger first = new SmsIdLedger(directory);
+        for (int i = 0; i < 1000; i++) {
+            first.markSent("sms-" + i);
+        }
+
+        SmsIdLedger restarted = new SmsIdLedger(directory);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue("sms-" + i, restarted.hasSent("sms-" + i));
+        }
+        assertFalse(restarted.hasSent("sms-unknown"));
+    }
+
+    @Test
+    public void bothGenerationsAreReplayedAfterRotation() throws Exception {
+        File directory = folder.newFolder("ledger");
+        SmsIdLedger first = new SmsIdLedger(directory);
+        // More than one generation, so the oldest ids are only in previous.log
+        for (int i = 0; i < 60_000; i++) {
+            first.markSent("sms-" + i);
+        }
+        assertTrue(new File(directory, "previous.log").exists());
+
+        SmsIdLedger restarted = new SmsIdLedger(directory);
+        for (int i = 0; i < 60_000; i += 101) {
+            assertTrue("sms-" + i, restarted.hasSent("sms-" + i));
+        }
+        assertTrue(restarted.hasSent("sms-59999"));
+        assertFalse(restarted.hasSent("sms-60000"));
+    }
+
+    @Test
+    public void lineCutShortDoesNotLoseEarlierIds() throws Exception {
+        File directory = folder.newFolder("ledger");
+        SmsIdLedger first = new SmsIdLedger(directory);
+        first.markSent("sms-1");
+        first.markSent("sms-2");
+        try (FileOutputStream journal = new FileOutputStream(new File(directory, "current.log"), true)) {
+            journal.write("sms-3".getBytes(StandardCharsets.UTF_8));
+        }
+
+        SmsIdLedger restarted = new SmsIdLedger(directory);
+        assertTrue(restarted.hasSent("sms-1"));
+        assertTrue(restarted.hasSent("sms-2"));
+        restarted.markSent("sms-4");
+
+        SmsIdLedger again = new SmsIdLedger(directory);
+        assertTrue(again.hasSent("sms-4"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.vernu.sms.json;
+
+import com.google.gson.Gson;
+import com.vernu.sms.dtos.PendingSMSResponseDTO;
+import com.vernu.sms.dtos.SMSDTO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import static com.vernu.sms.json.GatewayGsonTest.PENDING_JSON;
+import static com.vernu.sms.json.GatewayGsonTest.STATUS_JSON;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the streaming adapters against the old path of a new Gson per message. Skipped
+ * in the normal test run; use
+ * ./gradlew testDebugUnitTest --tests '*GatewayGsonBenchmarkTest' -Pbenchmark -i to see the numbers.
+ */
+public class GatewayGsonBenchmarkTest {
+    private static final int ROUNDS = 5;
+    private static final int WARMUP = 10_000;
+    private static final int ITERATIONS = 50_000;
+
+    @Before
+    public void onlyWhenAsked() {
+        assumeTrue("benchmark, run with -Pbenchmark", Boolean.getBoolean("textbee.benchmark"));
+    }
+
+    @Test
+    public void benchmarkAgainstReflectivePath() {
+        SMSDTO status = GatewayGson.get().fromJson(STATUS_JSON, SMSDTO.class);
+
+        Op reflectiveOp = () -> {
+            // What the workers and FCMService did for every message
+            Gson gson = new Gson();
+            gson.fromJson(PENDING_JSON, PendingSMSResponseDTO.class);
+            gson.fromJson(STATUS_JSON, SMSDTO.class);
+            return gson.toJson(status).length();
+        };
+        Gson sharedReflective = new Gson();
+        Op reflectiveSharedOp = () -> {
+            sharedReflective.fromJson(PENDING_JSON, PendingSMSResponseDTO.class);
+            sharedReflective.fromJson(STATUS_JSON, SMSDTO.class);
+            return sharedReflective.toJson(status).length();
+        };
+        Op streamedOp = () -> {
+            Gson gson = GatewayGson.get();
+            gson.fromJson(PENDING_JSON, PendingSMSResponseDTO.class);
+            gson.fromJson(STATUS_JSON, SMSDTO.class);
+            return gson.toJson(status).length();
+        };
+
+        // Interleave the rounds and keep each path's best, so JIT warm-up order doesn't favour one
+        Measurement reflective = null;
+        Measurement reflectiveShared = null;
+        Measurement streamed = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            reflective = Measurement.best(reflective, measure(reflectiveOp));
+            reflectiveShared = Measurement.best(reflectiveShared, measure(reflectiveSharedOp));
+            streamed = Measurement.best(streamed, measure(streamedOp));
+        }
+
+        System.out.println("new Gson per message:      " + reflective);
+        System.out.println("shared reflective Gson:    " + reflectiveShared);
+        System.out.println("shared streaming adapters: " + streamed);
+
+        if (streamed.bytesPerOp >= 0) {
+            assertTrue("adapters should allocate less than a new Gson per message",
+                    streamed.bytesPerOp < reflective.bytesPerOp);
+        }
+    }
+
+    private interface Op {
+        int run();
+    }
+
+    private static Measurement measure(Op op) {
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += op.run();
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+
+        assertTrue(sink > 0);
+        return new Measurement(elapsed / ITERATIONS,
+                allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / ITERATIONS);
+    }
+
+    /**
+     * Bytes allocated by this thread so far, or -1 on a JVM that can't tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static class Measurement {
+        final long nanosPerOp;
+        final long bytesPerOp;
+
+        Measurement(long nanosPerOp, long bytesPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        static Measurement best(Measurement current, Measurement next) {
+            return current == null || next.nanosPerOp < current.nanosPerOp ? next : current;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%,d ns/op, %,d bytes/op", nanosPerOp, bytesPerOp);
+        }
+    }
+}
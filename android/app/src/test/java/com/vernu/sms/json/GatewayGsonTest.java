@@ -0,0 +1,60 @@
+package com.vernu.sms.json;
+
+import com.google.gson.Gson;
+import com.vernu.sms.dtos.PendingSMSResponseDTO;
+import com.vernu.sms.dtos.SMSDTO;
+import com.vernu.sms.dtos.SMSSendAttemptDTO;
+import com.vernu.sms.models.SMSPayload;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the streaming adapters agree with reflective Gson.
+ */
+public class GatewayGsonTest {
+    static final String STATUS_JSON = "{\"smsId\":\"65f1c0ffee\",\"smsBatchId\":\"65f1batch\",\"status\":\"DELIVERED\","
+            + "\"sentAtInMillis\":1700000000000,\"deliveredAtInMillis\":1700000004200,\"simSubscriptionId\":2,"
+            + "\"attemptCount\":2,\"sendAttempts\":[{\"simSubscriptionId\":1,\"errorCode\":\"4\",\"failedAtInMillis\":1699999999000}]}";
+    static final String PENDING_JSON = "{\"data\":{\"count\":2,\"messages\":["
+            + "{\"recipients\":[\"+15550100\",\"+15550101\"],\"message\":\"Your code is 123456\",\"smsId\":\"a1\",\"smsBatchId\":\"b1\"},"
+            + "{\"recipients\":[\"+15550102\"],\"message\":\"Hello\",\"smsId\":\"a2\",\"smsBatchId\":\"b1\",\"receivers\":[\"x\"],\"smsBody\":\"y\"}]}}";
+
+    @Test
+    public void statusUpdateReadsLikeReflectiveGson() {
+        SMSDTO reflective = new Gson().fromJson(STATUS_JSON, SMSDTO.class);
+        SMSDTO streamed = GatewayGson.get().fromJson(STATUS_JSON, SMSDTO.class);
+
+        assertEquals(new Gson().toJson(reflective), new Gson().toJson(streamed));
+        assertEquals(1, streamed.getSendAttempts().size());
+        assertEquals("4", streamed.getSendAttempts().get(0).getErrorCode());
+    }
+
+    @Test
+    public void zeroTimestampsAndNullsAreNotWritten() {
+        SMSDTO sms = new SMSDTO();
+        sms.setSmsId("s1");
+        sms.setStatus("SENT");
+        sms.setSentAtInMillis(1700000000000L);
+        sms.setSendAttempts(Arrays.asList(new SMSSendAttemptDTO(1, null, 0)));
+
+        assertEquals("{\"message\":\"\",\"smsId\":\"s1\",\"status\":\"SENT\",\"sentAtInMillis\":1700000000000,"
+                        + "\"sendAttempts\":[{\"simSubscriptionId\":1,\"failedAtInMillis\":0}]}",
+                GatewayGson.get().toJson(sms));
+    }
+
+    @Test
+    public void pendingSMSReadsLikeReflectiveGson() {
+        PendingSMSResponseDTO streamed = GatewayGson.get().fromJson(PENDING_JSON, PendingSMSResponseDTO.class);
+
+        assertEquals(2, streamed.data.count);
+        assertEquals(2, streamed.data.messages.size());
+        SMSPayload first = streamed.data.messages.get(0);
+        assertArrayEquals(new String[]{"+15550100", "+15550101"}, first.getRecipients());
+        assertEquals("Your code is 123456", first.getMessage());
+        assertEquals("b1", streamed.data.messages.get(1).getSmsBatchId());
+    }
+}
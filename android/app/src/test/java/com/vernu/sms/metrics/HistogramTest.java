@@ -0,0 +1,80 @@
+package com.vernu.sms.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+    @Test
+    public void bucketsAreContiguousAndAtMostOneEighthWide() {
+        for (int bucket = 0; bucket < Histogram.BUCKET_COUNT - 1; bucket++) {
+            long lower = Histogram.lowerBound(bucket);
+            long upper = Histogram.lowerBound(bucket + 1);
+            assertEquals(bucket, Histogram.bucketIndex(lower));
+            assertEquals(bucket, Histogram.bucketIndex(upper - 1));
+            assertTrue("bucket " + bucket + " is too wide", lower < 16 ? upper - lower == 1 : (upper - lower) * 8 <= lower);
+        }
+        assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals(0, Histogram.bucketIndex(0));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10001, snapshot.count);
+        assertEquals(10000L * 10001 / 2, snapshot.sum);
+        assertEquals(10000, snapshot.max);
+        assertEquals(5000, snapshot.percentile(0.5), 5000 * 0.125);
+        assertEquals(9900, snapshot.percentile(0.99), 9900 * 0.125);
+        assertEquals(10000, snapshot.percentile(1.0));
+    }
+
+    @Test
+    public void discardKeepsValuesRecordedAfterTheSnapshot() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(random.nextInt(100000));
+        }
+        Histogram.Snapshot reported = histogram.snapshot();
+        histogram.record(7);
+        histogram.record(7);
+
+        histogram.discard(reported);
+
+        Histogram.Snapshot next = histogram.snapshot();
+        assertEquals(2, next.count);
+        assertEquals(14, next.sum);
+        assertEquals(1, next.buckets().length);
+        assertArrayEquals(new long[]{7, 2}, next.buckets()[0]);
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(i % 5000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(800000, snapshot.count);
+        assertEquals(4999, snapshot.max);
+    }
+}
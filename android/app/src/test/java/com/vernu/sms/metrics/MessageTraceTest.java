@@ -0,0 +1,84 @@
+package com.vernu.sms.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class MessageTraceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void exportsOneMessagesTimelineInOrder() throws Exception {
+        MessageTrace trace = new MessageTrace(folder.newFile("trace.bin"), 64);
+        trace.append(1000, MessageTrace.hash("sms-1"), MessageTrace.FCM_RECEIVED, 0);
+        trace.append(1001, MessageTrace.hash("sms-2"), MessageTrace.POLL_RECEIVED, 0);
+        trace.append(1002, MessageTrace.hash("sms-1"), MessageTrace.SUBMITTED, 3);
+        trace.append(1500, MessageTrace.hash("sms-1"), MessageTrace.SENT_RESULT, -1);
+
+        StringWriter writer = new StringWriter();
+        assertEquals(3, trace.exportNdjson(writer, "sms-1"));
+
+        String[] lines = writer.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].contains("\"event\":\"FCM_RECEIVED\""));
+        assertTrue(lines[0], lines[0].contains("\"time\":\"1970-01-01T00:00:01.000Z\""));
+        assertTrue(lines[1], lines[1].contains("\"event\":\"SUBMITTED\",\"detail\":3"));
+        assertTrue(lines[2], lines[2].contains("\"timeMillis\":1500"));
+        assertTrue(lines[2], lines[2].contains("\"detail\":-1"));
+    }
+
+    @Test
+    public void keepsOnlyTheNewestRecordsAndSurvivesReopening() throws Exception {
+        File file = folder.newFile("trace.bin");
+        MessageTrace trace = new MessageTrace(file, 16);
+        for (int i = 0; i < 40; i++) {
+            trace.append(i, MessageTrace.hash("sms-" + i), MessageTrace.QUEUED, i);
+        }
+
+        MessageTrace reopened = new MessageTrace(file, 16);
+        reopened.append(40, MessageTrace.hash("sms-40"), MessageTrace.QUEUED, 40);
+
+        StringWriter writer = new StringWriter();
+        assertEquals(16, reopened.exportNdjson(writer, null));
+        String[] lines = writer.toString().split("\n");
+        assertTrue(lines[0], lines[0].startsWith("{\"seq\":26,"));
+        assertTrue(lines[15], lines[15].startsWith("{\"seq\":41,"));
+        assertTrue(lines[15], lines[15].contains("\"detail\":40"));
+    }
+
+    @Test
+    public void resetsAFileWithAnotherLayout() throws Exception {
+        File file = folder.newFile("trace.bin");
+        new MessageTrace(file, 16).append(1, 1, MessageTrace.QUEUED, 1);
+
+        MessageTrace resized = new MessageTrace(file, 32);
+        StringWriter writer = new StringWriter();
+        assertEquals(0, resized.exportNdjson(writer, null));
+    }
+
+    @Test
+    public void recordingStaysUnderAMicrosecond() throws Exception {
+        MessageTrace trace = new MessageTrace(folder.newFile("trace.bin"), MessageTrace.DEFAULT_CAPACITY);
+        String smsId = "665f1c2e9b1d4a0012345678";
+        int events = 1_000_000;
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long startedAt = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                trace.append(System.currentTimeMillis(), MessageTrace.hash(smsId), MessageTrace.SENT_RESULT, i);
+            }
+            best = Math.min(best, System.nanoTime() - startedAt);
+        }
+
+        double nanosPerEvent = (double) best / events;
+        System.out.println("MessageTrace: " + nanosPerEvent + " ns per event");
+        assertTrue(nanosPerEvent + " ns per event", nanosPerEvent < 1000);
+    }
+}
@@ -0,0 +1,106 @@
+package com.vernu.sms.services;
+
+import com.google.gson.Gson;
+import com.vernu.sms.models.SMSPayload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+public class PendingSMSStreamClientTest {
+    private MockWebServer server;
+    private PendingSMSStreamClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        client = new PendingSMSStreamClient(
+                new OkHttpClient.Builder().readTimeout(5, TimeUnit.SECONDS).build(),
+                server.url("/api/v1/").toString(),
+                new Gson());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void deliversPendingSMSEventsAndIgnoresHeartbeats() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody("event: heartbeat\n"
+                        + "data: {\"at\":1}\n"
+                        + "\n"
+                        + ": comment\n"
+                        + "event: pending-sms\n"
+                        + "id: 1\n"
+                        + "data: {\"count\":2,\"messages\":["
+                        + "{\"smsId\":\"sms-1\",\"smsBatchId\":\"batch-1\",\"message\":\"hello\",\"recipients\":[\"+15550001\"]},"
+                        + "{\"smsId\":\"sms-2\",\"smsBatchId\":\"batch-1\",\"message\":\"hello\",\"recipients\":[\"+15550002\"]}]}\n"
+                        + "\n"));
+
+        BlockingQueue<SMSPayload> received = new LinkedBlockingQueue<>();
+        CountDownLatch connected = new CountDownLatch(1);
+        CountDownLatch disconnected = new CountDownLatch(1);
+
+        client.connect("device-1", "key-1", new PendingSMSStreamClient.Listener() {
+            @Override
+            public void onConnected() {
+                connected.countDown();
+            }
+
+            @Override
+            public void onPendingSMS(SMSPayload smsPayload) {
+                received.add(smsPayload);
+            }
+
+            @Override
+            public void onDisconnected(Throwable error) {
+                disconnected.countDown();
+            }
+        });
+
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+        SMSPayload first = received.poll(5, TimeUnit.SECONDS);
+        SMSPayload second = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals("sms-1", first.getSmsId());
+        assertEquals("batch-1", first.getSmsBatchId());
+        assertEquals("hello", first.getMessage());
+        assertArrayEquals(new String[]{"+15550001"}, first.getRecipients());
+        assertEquals("sms-2", second.getSmsId());
+
+        // The body ends after the events, which the client reports as a disconnect
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("GET", request.getMethod());
+        assertEquals("/api/v1/gateway/devices/device-1/pending-sms/stream", request.getPath());
+        assertEquals("key-1", request.getHeader("x-api-key"));
+        assertEquals("text/event-stream", request.getHeader("Accept"));
+    }
+
+    @Test
+    public void isNotHealthyBeforeConnecting() {
+        assertFalse(client.isHealthy());
+    }
+}
@@ -10,6 +10,8 @@ import {
   Delete,
   HttpCode,
   HttpStatus,
+  MessageEvent,
+  Sse,
 } from '@nestjs/common'
 import {
   ApiBearerAuth,
@@ -21,20 +23,27 @@ import {
 import { AuthGuard } from '../auth/guards/auth.guard'
 import {
   ReceivedSMSDTO,
+  ReceivedSMSBatchDTO,
   RegisterDeviceInputDTO,
   RetrieveSMSResponseDTO,
   SendBulkSMSInputDTO,
   SendSMSInputDTO,
   UpdateSMSStatusDTO,
+  UpdateSMSStatusBatchDTO,
 } from './gateway.dto'
 import { GatewayService } from './gateway.service'
 import { CanModifyDevice } from './guards/can-modify-device.guard'
+import { PendingSmsStreamService } from './pending-sms-stream.service'
+import { Observable } from 'rxjs'
 
 @ApiTags('gateway')
 @ApiBearerAuth()
 @Controller('gateway')
 export class GatewayController {
-  constructor(private readonly gatewayService: GatewayService) {}
+  constructor(
+    private readonly gatewayService: GatewayService,
+    private readonly pendingSmsStreamService: PendingSmsStreamService,
+  ) {}
 
   @UseGuards(AuthGuard)
   @Get('/stats')
@@ -112,6 +121,21 @@ export class GatewayController {
     return { data }
   }
 
+  @ApiOperation({
+    summary: 'Received SMS from a device, in bulk',
+    description: 'The request body may be gzip-compressed (Content-Encoding: gzip)',
+  })
+  @HttpCode(HttpStatus.OK)
+  @Post('/devices/:id/receive-sms/batch')
+  @UseGuards(AuthGuard, CanModifyDevice)
+  async receiveSMSBatch(
+    @Param('id') deviceId: string,
+    @Body() dto: ReceivedSMSBatchDTO,
+  ) {
+    const data = await this.gatewayService.receiveSMSBatch(deviceId, dto)
+    return { data }
+  }
+
   @ApiOperation({ summary: 'Get received SMS from a device' })
   @ApiResponse({ status: 200, type: RetrieveSMSResponseDTO })
   @ApiQuery({ name: 'page', required: false, type: Number, description: 'Page number (default: 1)' })
@@ -163,6 +187,18 @@ export class GatewayController {
     return { data };
   }
 
+  @ApiOperation({ summary: 'Update the status of multiple SMS at once' })
+  @UseGuards(AuthGuard, CanModifyDevice)
+  @HttpCode(HttpStatus.OK)
+  @Patch('/devices/:id/sms-status/batch')
+  async updateSMSStatusBatch(
+    @Param('id') deviceId: string,
+    @Body() dto: UpdateSMSStatusBatchDTO,
+  ) {
+    const data = await this.gatewayService.updateSMSStatusBatch(deviceId, dto);
+    return { data };
+  }
+
   @ApiOperation({ summary: 'Get a single SMS by ID' })
   @UseGuards(AuthGuard, CanModifyDevice)
   @Get('/devices/:id/sms/:smsId')
@@ -186,15 +222,25 @@ export class GatewayController {
   }
 
   @ApiOperation({ summary: 'Get pending SMS messages for a device (for polling)' })
-  @ApiQuery({ name: 'limit', required: false, type: Number, description: 'Max number of pending SMS to return (default: 10)' })
+  @ApiQuery({ name: 'limit', required: false, type: Number, description: 'Max number of pending SMS to return (default: 10, max: 500)' })
   @UseGuards(AuthGuard, CanModifyDevice)
   @Get('/devices/:id/pending-sms')
   async getPendingSMS(
     @Param('id') deviceId: string,
     @Request() req,
   ) {
-    const limit = req.query.limit ? Math.min(parseInt(req.query.limit, 10), 50) : 10;
+    // The app streams the response into its send queue, so larger pages are cheap for it
+    const limit = req.query.limit ? Math.min(parseInt(req.query.limit, 10), 500) : 10;
     const data = await this.gatewayService.getPendingSMS(deviceId, limit);
     return { data };
   }
+
+  @ApiOperation({
+    summary: 'Stream pending SMS messages for a device (server-sent events)',
+  })
+  @UseGuards(AuthGuard, CanModifyDevice)
+  @Sse('/devices/:id/pending-sms/stream')
+  streamPendingSMS(@Param('id') deviceId: string): Observable<MessageEvent> {
+    return this.pendingSmsStreamService.stream(deviceId)
+  }
 }
@@ -1,5 +1,57 @@
 import { ApiProperty } from '@nestjs/swagger'
 
+export class HistogramSnapshotDTO {
+  @ApiProperty({ type: Number })
+  count: number
+
+  @ApiProperty({ type: Number })
+  sum: number
+
+  @ApiProperty({ type: Number })
+  max: number
+
+  @ApiProperty({ type: Number })
+  p50: number
+
+  @ApiProperty({ type: Number })
+  p90: number
+
+  @ApiProperty({ type: Number })
+  p99: number
+
+  @ApiProperty({
+    type: Array,
+    description:
+      'Non-empty buckets as [lower bound, count] pairs; sum counts across devices for fleet-wide percentiles',
+    example: [
+      [112, 4],
+      [120, 9],
+    ],
+  })
+  buckets: number[][]
+}
+
+export class DeviceMetricsDTO {
+  @ApiProperty({ type: Number, description: 'Start of the reported interval' })
+  fromInMillis: number
+
+  @ApiProperty({ type: Number, description: 'End of the reported interval' })
+  toInMillis: number
+
+  @ApiProperty({
+    type: Object,
+    description:
+      'Histograms by name: pollRtt, pendingQueueDepth, receiveToSubmit, submitToSent, sentToDelivered, statusUpload, inboundDirect, inboundQueued, httpDns, httpConnect, httpTls, httpTtfb',
+  })
+  histograms: Record<string, HistogramSnapshotDTO>
+
+  @ApiProperty({
+    type: Object,
+    description: 'Failed sends by SmsManager result code',
+  })
+  sentFailuresByResultCode: Record<string, number>
+}
+
 export class RegisterDeviceInputDTO {
   @ApiProperty({ type: Boolean })
   enabled?: boolean
@@ -33,6 +85,13 @@ export class RegisterDeviceInputDTO {
 
   @ApiProperty({ type: String })
   appVersionCode?: number
+
+  @ApiProperty({
+    type: DeviceMetricsDTO,
+    required: false,
+    description: 'Metrics recorded on the device since its previous report',
+  })
+  metrics?: DeviceMetricsDTO
 }
 
 export class SMSData {
@@ -122,6 +181,23 @@ export class ReceivedSMSDTO {
     description: 'The time the message was created',
   })
   receivedAtInMillis?: number
+
+  @ApiProperty({
+    type: String,
+    required: false,
+    description:
+      'Key identifying this message; a message received again with the same key is not stored twice',
+  })
+  idempotencyKey?: string
+}
+
+export class ReceivedSMSBatchDTO {
+  @ApiProperty({
+    type: [ReceivedSMSDTO],
+    required: true,
+    description: 'Messages received by the device, oldest first',
+  })
+  messages: ReceivedSMSDTO[]
 }
 
 export class DeviceDTO {
@@ -241,6 +317,29 @@ export class RetrieveSMSResponseDTO {
   meta?: PaginationMetaDTO
 }
 
+export class SMSSendAttemptDTO {
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'The SIM subscription the attempt was sent from',
+  })
+  simSubscriptionId: number
+
+  @ApiProperty({
+    type: String,
+    required: false,
+    description: 'Error code the attempt failed with',
+  })
+  errorCode?: string
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'The time the attempt failed (in milliseconds)',
+  })
+  failedAtInMillis: number
+}
+
 export class UpdateSMSStatusDTO {
   @ApiProperty({
     type: String,
@@ -298,4 +397,34 @@ export class UpdateSMSStatusDTO {
     description: 'Error message if the message failed',
   })
   errorMessage?: string
+
+  @ApiProperty({
+    type: Number,
+    required: false,
+    description: 'The SIM subscription the final attempt was sent from',
+  })
+  simSubscriptionId?: number
+
+  @ApiProperty({
+    type: Number,
+    required: false,
+    description: 'How many SIMs the message was tried on, including the final attempt',
+  })
+  attemptCount?: number
+
+  @ApiProperty({
+    type: [SMSSendAttemptDTO],
+    required: false,
+    description: 'Earlier attempts that failed and were retried on another SIM',
+  })
+  sendAttempts?: SMSSendAttemptDTO[]
+}
+
+export class UpdateSMSStatusBatchDTO {
+  @ApiProperty({
+    type: [UpdateSMSStatusDTO],
+    required: true,
+    description: 'Status updates to apply, at most one per SMS',
+  })
+  updates: UpdateSMSStatusDTO[]
 }
@@ -14,6 +14,7 @@ import { ConfigModule } from '@nestjs/config'
 import { SmsQueueService } from './queue/sms-queue.service'
 import { SmsQueueProcessor } from './queue/sms-queue.processor'
 import { SmsStatusUpdateTask } from './tasks/sms-status-update.task'
+import { PendingSmsStreamService } from './pending-sms-stream.service'
 
 @Module({
   imports: [
@@ -50,7 +51,13 @@ import { SmsStatusUpdateTask } from './tasks/sms-status-update.task'
     ConfigModule,
   ],
   controllers: [GatewayController],
-  providers: [GatewayService, SmsQueueService, SmsQueueProcessor, SmsStatusUpdateTask],
+  providers: [
+    GatewayService,
+    SmsQueueService,
+    SmsQueueProcessor,
+    SmsStatusUpdateTask,
+    PendingSmsStreamService,
+  ],
   exports: [MongooseModule, GatewayService, SmsQueueService],
 })
 export class GatewayModule {}
@@ -18,6 +18,7 @@ import { WebhookEvent } from '../webhook/webhook-event.enum'
 import { RegisterDeviceInputDTO, SendBulkSMSInputDTO, SendSMSInputDTO } from './gateway.dto'
 import { User } from '../users/schemas/user.schema'
 import { BatchResponse } from 'firebase-admin/messaging'
+import { EventEmitter2 } from '@nestjs/event-emitter'
 
 // Mock firebase-admin
 jest.mock('firebase-admin', () => ({
@@ -49,6 +50,7 @@ describe('GatewayService', () => {
 
   const mockSmsModel = {
     create: jest.fn(),
+    findOne: jest.fn(),
     find: jest.fn(),
     updateMany: jest.fn(),
     countDocuments: jest.fn(),
@@ -76,6 +78,10 @@ describe('GatewayService', () => {
     addSendSmsJob: jest.fn(),
   }
 
+  const mockEventEmitter = {
+    emit: jest.fn(),
+  }
+
   beforeEach(async () => {
     const module: TestingModule = await Test.createTestingModule({
       providers: [
@@ -108,6 +114,10 @@ describe('GatewayService', () => {
           provide: SmsQueueService,
           useValue: mockSmsQueueService,
         },
+        {
+          provide: EventEmitter2,
+          useValue: mockEventEmitter,
+        },
       ],
       imports: [ConfigModule],
     }).compile()
@@ -276,6 +286,43 @@ describe('GatewayService', () => {
       expect(result).toBeDefined()
     })
 
+    it('should stamp a metrics report with the time it arrived', async () => {
+      const metricsInput: RegisterDeviceInputDTO = {
+        enabled: true,
+        metrics: {
+          fromInMillis: 1000,
+          toInMillis: 2000,
+          histograms: {
+            pollRtt: {
+              count: 1,
+              sum: 120,
+              max: 120,
+              p50: 120,
+              p90: 120,
+              p99: 120,
+              buckets: [[120, 1]],
+            },
+          },
+          sentFailuresByResultCode: { '1': 2 },
+        },
+      }
+      mockDeviceModel.findById.mockResolvedValue(mockDevice)
+      mockDeviceModel.findByIdAndUpdate.mockResolvedValue(mockDevice)
+
+      await service.updateDevice(mockDeviceId, metricsInput)
+
+      expect(mockDeviceModel.findByIdAndUpdate).toHaveBeenCalledWith(
+        mockDeviceId,
+        {
+          $set: {
+            ...metricsInput,
+            metricsReportedAt: expect.any(Date),
+          },
+        },
+        { new: true },
+      )
+    })
+
     it('should throw an error if device does not exist', async () => {
       mockDeviceModel.findById.mockResolvedValue(null)
 
@@ -565,6 +612,24 @@ describe('GatewayService', () => {
       expect(result).toEqual(mockSms)
     })
 
+    it('should return the stored SMS for a replayed idempotency key', async () => {
+      mockSmsModel.findOne.mockResolvedValue(mockSms)
+
+      const result = await service.receiveSMS(mockDeviceId, {
+        ...mockReceivedSmsData,
+        idempotencyKey: 'abc123',
+      })
+
+      expect(mockSmsModel.findOne).toHaveBeenCalledWith({
+        device: mockDeviceId,
+        idempotencyKey: 'abc123',
+      })
+      expect(mockSmsModel.create).not.toHaveBeenCalled()
+      expect(mockBillingService.canPerformAction).not.toHaveBeenCalled()
+      expect(mockWebhookService.deliverNotification).not.toHaveBeenCalled()
+      expect(result).toEqual(mockSms)
+    })
+
     it('should throw error if device does not exist', async () => {
       mockDeviceModel.findById.mockResolvedValue(null)
 
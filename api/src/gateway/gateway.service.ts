@@ -5,11 +5,13 @@ import { Model, Types } from 'mongoose'
 import * as firebaseAdmin from 'firebase-admin'
 import {
   ReceivedSMSDTO,
+  ReceivedSMSBatchDTO,
   RegisterDeviceInputDTO,
   RetrieveSMSDTO,
   SendBulkSMSInputDTO,
   SendSMSInputDTO,
   UpdateSMSStatusDTO,
+  UpdateSMSStatusBatchDTO,
 } from './gateway.dto'
 import { User } from '../users/schemas/user.schema'
 import { AuthService } from '../auth/auth.service'
@@ -21,6 +23,8 @@ import { WebhookEvent } from '../webhook/webhook-event.enum'
 import { WebhookService } from '../webhook/webhook.service'
 import { BillingService } from '../billing/billing.service'
 import { SmsQueueService } from './queue/sms-queue.service'
+import { EventEmitter2 } from '@nestjs/event-emitter'
+import { PENDING_SMS_CREATED_EVENT } from './pending-sms-stream.service'
 
 @Injectable()
 export class GatewayService {
@@ -32,6 +36,7 @@ export class GatewayService {
     private webhookService: WebhookService,
     private billingService: BillingService,
     private smsQueueService: SmsQueueService,
+    private eventEmitter: EventEmitter2,
   ) {}
 
   /**
@@ -98,10 +103,15 @@ export class GatewayService {
     if (input.enabled !== false) {
       input.enabled = true;
     }
+
+    const update: Record<string, any> = { ...input }
+    if (input.metrics) {
+      update.metricsReportedAt = new Date()
+    }
     
     return await this.deviceModel.findByIdAndUpdate(
       deviceId,
-      { $set: input },
+      { $set: update },
       { new: true },
     )
   }
@@ -225,6 +235,9 @@ export class GatewayService {
       fcmMessages.push(fcmMessage)
     }
 
+    // Wake up any device listening on the pending-sms stream
+    this.eventEmitter.emit(PENDING_SMS_CREATED_EVENT, { deviceId })
+
     // Check if we should use the queue
     if (this.smsQueueService.isQueueEnabled()) {
       try {
@@ -433,6 +446,9 @@ recipient,
       }
     }
 
+    // Wake up any device listening on the pending-sms stream
+    this.eventEmitter.emit(PENDING_SMS_CREATED_EVENT, { deviceId })
+
     // Check if we should use the queue
     if (this.smsQueueService.isQueueEnabled()) {
       try {
@@ -584,6 +600,17 @@ recipient,
       )
     }
 
+    // A replayed upload returns the stored message without billing or notifying again
+    if (dto.idempotencyKey) {
+      const existing = await this.smsModel.findOne({
+        device: device._id,
+        idempotencyKey: dto.idempotencyKey,
+      })
+      if (existing) {
+        return existing
+      }
+    }
+
     await this.billingService.canPerformAction(
       device.user.toString(),
       'receive_sms',
@@ -594,14 +621,27 @@ recipient,
       ? new Date(dto.receivedAtInMillis)
       : dto.receivedAt
 
-    const sms = await this.smsModel.create({
-      device: device._id,
-      message: dto.message,
-      type: SMSType.RECEIVED,
-      status: 'received',
-      sender: dto.sender,
-      receivedAt,
-    })
+    let sms
+    try {
+      sms = await this.smsModel.create({
+        device: device._id,
+        message: dto.message,
+        type: SMSType.RECEIVED,
+        status: 'received',
+        sender: dto.sender,
+        receivedAt,
+        idempotencyKey: dto.idempotencyKey,
+      })
+    } catch (e) {
+      // The same message arriving twice at once; the other request stored it
+      if (e?.code === 11000 && dto.idempotencyKey) {
+        return this.smsModel.findOne({
+          device: device._id,
+          idempotencyKey: dto.idempotencyKey,
+        })
+      }
+      throw e
+    }
 
     this.deviceModel
       .findByIdAndUpdate(deviceId, {
@@ -626,6 +666,138 @@ recipient,
     return sms
   }
 
+  async receiveSMSBatch(deviceId: string, dto: ReceivedSMSBatchDTO): Promise<any> {
+    const device = await this.deviceModel.findById(deviceId)
+
+    if (!device) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Device does not exist',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    if (!Array.isArray(dto.messages) || dto.messages.length === 0) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'messages must be a non-empty array',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    if (dto.messages.length > 1000) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Cannot receive more than 1000 SMS at once',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    // Skip malformed messages rather than failing the batch; the device can't fix them
+    const wellFormedMessages = dto.messages.filter(
+      (message) =>
+        (message.receivedAt || message.receivedAtInMillis) &&
+        message.sender &&
+        message.message,
+    )
+
+    // Skip messages already stored by an earlier upload, or repeated within this batch
+    const keys = wellFormedMessages
+      .map((message) => message.idempotencyKey)
+      .filter((key) => !!key)
+    const seenKeys = new Set<string>()
+    if (keys.length > 0) {
+      const existing = await this.smsModel
+        .find({ device: device._id, idempotencyKey: { $in: keys } })
+        .select('idempotencyKey')
+        .lean()
+      existing.forEach((sms) => seenKeys.add(sms.idempotencyKey))
+    }
+    const validMessages = wellFormedMessages.filter((message) => {
+      if (!message.idempotencyKey) {
+        return true
+      }
+      if (seenKeys.has(message.idempotencyKey)) {
+        return false
+      }
+      seenKeys.add(message.idempotencyKey)
+      return true
+    })
+    const duplicateCount = wellFormedMessages.length - validMessages.length
+
+    if (validMessages.length === 0) {
+      return {
+        receivedCount: 0,
+        duplicateCount,
+        skippedCount: dto.messages.length - wellFormedMessages.length,
+      }
+    }
+
+    await this.billingService.canPerformAction(
+      device.user.toString(),
+      'receive_sms',
+      validMessages.length,
+    )
+
+    let smsList
+    try {
+      smsList = await this.smsModel.insertMany(
+        validMessages.map((message) => ({
+          device: device._id,
+          message: message.message,
+          type: SMSType.RECEIVED,
+          status: 'received',
+          sender: message.sender,
+          receivedAt: message.receivedAtInMillis
+            ? new Date(message.receivedAtInMillis)
+            : message.receivedAt,
+          idempotencyKey: message.idempotencyKey,
+        })),
+        { ordered: false },
+      )
+    } catch (e) {
+      // Messages stored by a concurrent upload are duplicates; the rest were inserted
+      if (e?.code !== 11000 || !Array.isArray(e.insertedDocs)) {
+        throw e
+      }
+      smsList = e.insertedDocs
+    }
+
+    this.deviceModel
+      .findByIdAndUpdate(deviceId, {
+        $inc: { receivedSMSCount: smsList.length },
+      })
+      .exec()
+      .catch((e) => {
+        console.log('Failed to update receivedSMSCount')
+        console.log(e)
+      })
+
+    for (const sms of smsList) {
+      this.webhookService
+        .deliverNotification({
+          sms,
+          user: device.user,
+          event: WebhookEvent.MESSAGE_RECEIVED,
+        })
+        .catch((e) => {
+          console.log(e)
+        })
+    }
+
+    return {
+      receivedCount: smsList.length,
+      duplicateCount: duplicateCount + validMessages.length - smsList.length,
+      skippedCount: dto.messages.length - wellFormedMessages.length,
+    }
+  }
+
   async getReceivedSMS(
     deviceId: string,
     page = 1,
@@ -761,6 +933,92 @@ recipient,
       );
     }
     
+    const normalizedStatus = await this.applySMSStatusUpdate(device, dto)
+
+    if (dto.smsBatchId) {
+      await this.refreshSMSBatchStatus(dto.smsBatchId, normalizedStatus)
+    }
+
+    return {
+      success: true,
+      message: 'SMS status updated successfully',
+    };
+  }
+
+  async updateSMSStatusBatch(
+    deviceId: string,
+    dto: UpdateSMSStatusBatchDTO,
+  ): Promise<any> {
+    const device = await this.deviceModel.findById(deviceId)
+
+    if (!device) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Device not found',
+        },
+        HttpStatus.NOT_FOUND,
+      )
+    }
+
+    if (!Array.isArray(dto.updates) || dto.updates.length === 0) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'updates must be a non-empty array',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    if (dto.updates.length > 500) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Cannot update more than 500 SMS statuses at once',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    // One status check per batch instead of one per message
+    const batchStatuses = new Map<string, string>()
+    const failed: { smsId: string; error: string }[] = []
+
+    for (const update of dto.updates) {
+      try {
+        const normalizedStatus = await this.applySMSStatusUpdate(device, update)
+        if (update.smsBatchId) {
+          batchStatuses.set(update.smsBatchId, normalizedStatus)
+        }
+      } catch (error) {
+        failed.push({
+          smsId: update.smsId,
+          error:
+            error instanceof HttpException
+              ? error.getResponse()['error'] || error.message
+              : error.message,
+        })
+      }
+    }
+
+    for (const [smsBatchId, normalizedStatus] of batchStatuses) {
+      await this.refreshSMSBatchStatus(smsBatchId, normalizedStatus)
+    }
+
+    return {
+      success: true,
+      updatedCount: dto.updates.length - failed.length,
+      failed,
+    }
+  }
+
+  private async applySMSStatusUpdate(
+    device: DeviceDocument,
+    dto: UpdateSMSStatusDTO,
+  ): Promise<string> {
+    const deviceId = device._id.toString()
+
     const sms = await this.smsModel.findById(dto.smsId);
     
     if (!sms) {
@@ -796,11 +1054,29 @@ recipient,
       updateData.sentAt = new Date(dto.sentAtInMillis);
     } else if (normalizedStatus === 'delivered' && dto.deliveredAtInMillis) {
       updateData.deliveredAt = new Date(dto.deliveredAtInMillis);
+      // A coalesced status update carries the sent time along with the delivery
+      if (dto.sentAtInMillis) {
+        updateData.sentAt = new Date(dto.sentAtInMillis);
+      }
     } else if (normalizedStatus === 'failed' && dto.failedAtInMillis) {
       updateData.failedAt = new Date(dto.failedAtInMillis);
       updateData.errorCode = dto.errorCode;
       updateData.errorMessage = dto.errorMessage || 'Unknown error';
     }
+
+    if (dto.simSubscriptionId !== undefined) {
+      updateData.simSubscriptionId = dto.simSubscriptionId
+    }
+    if (dto.attemptCount !== undefined) {
+      updateData.attemptCount = dto.attemptCount
+    }
+    if (dto.sendAttempts?.length) {
+      updateData.sendAttempts = dto.sendAttempts.map((attempt) => ({
+        simSubscriptionId: attempt.simSubscriptionId,
+        errorCode: attempt.errorCode,
+        failedAt: new Date(attempt.failedAtInMillis),
+      }))
+    }
     
     // Update the SMS
 const updatedSms = await this.smsModel.findByIdAndUpdate(
@@ -809,24 +1085,6 @@ const updatedSms = await this.smsModel.findByIdAndUpdate(
   { new: true } 
 );
     
-    // Check if all SMS in batch have the same status, then update batch status
-    if (dto.smsBatchId) {
-      const smsBatch = await this.smsBatchModel.findById(dto.smsBatchId);
-      if (smsBatch) {
-        const allSmsInBatch = await this.smsModel.find({ smsBatch: dto.smsBatchId });
-        
-        // Check if all SMS in batch have the same status (case insensitive)
-        const allHaveSameStatus = allSmsInBatch.every(sms => sms.status.toLowerCase() === normalizedStatus);
-        
-        if (allHaveSameStatus) {
-          const smsBatchStatus = normalizedStatus === 'failed' ? 'failed' : 'completed';
-          await this.smsBatchModel.findByIdAndUpdate(dto.smsBatchId, { 
-            $set: { status: smsBatchStatus } 
-          });
-        }
-      }
-    }
-    
     // Trigger webhook event for SMS status update
     try {
        let event: WebhookEvent
@@ -855,10 +1113,25 @@ const updatedSms = await this.smsModel.findByIdAndUpdate(
       console.error('Failed to trigger webhook event:', error);
     }
     
-    return {
-      success: true,
-      message: 'SMS status updated successfully',
-    };
+    return normalizedStatus
+  }
+
+  private async refreshSMSBatchStatus(smsBatchId: string, normalizedStatus: string) {
+    // Check if all SMS in batch have the same status, then update batch status
+    const smsBatch = await this.smsBatchModel.findById(smsBatchId);
+    if (smsBatch) {
+      const allSmsInBatch = await this.smsModel.find({ smsBatch: smsBatchId });
+      
+      // Check if all SMS in batch have the same status (case insensitive)
+      const allHaveSameStatus = allSmsInBatch.every(sms => sms.status.toLowerCase() === normalizedStatus);
+      
+      if (allHaveSameStatus) {
+        const smsBatchStatus = normalizedStatus === 'failed' ? 'failed' : 'completed';
+        await this.smsBatchModel.findByIdAndUpdate(smsBatchId, { 
+          $set: { status: smsBatchStatus } 
+        });
+      }
+    }
   }
 
   async getStatsForUser(user: User) {
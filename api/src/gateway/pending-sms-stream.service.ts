@@ -0,0 +1,78 @@
+import { Injectable, MessageEvent } from '@nestjs/common'
+import { OnEvent } from '@nestjs/event-emitter'
+import { from, interval, merge, Observable, of, Subject } from 'rxjs'
+import { concatMap, filter, map } from 'rxjs/operators'
+import { GatewayService } from './gateway.service'
+
+export const PENDING_SMS_CREATED_EVENT = 'gateway.pending-sms.created'
+
+// Re-check the database even without a creation event, e.g. for messages
+// created by another API instance
+const RESYNC_INTERVAL_MS = 15000
+// Keeps proxies from closing an idle connection and lets the device detect a dead stream
+const HEARTBEAT_INTERVAL_MS = 25000
+const STREAM_PAGE_SIZE = 50
+
+@Injectable()
+export class PendingSmsStreamService {
+  private readonly pendingSmsCreated$ = new Subject<string>()
+
+  constructor(private readonly gatewayService: GatewayService) {}
+
+  @OnEvent(PENDING_SMS_CREATED_EVENT)
+  handlePendingSmsCreated(payload: { deviceId: string }) {
+    this.pendingSmsCreated$.next(payload.deviceId)
+  }
+
+  /**
+   * Server-sent event stream of pending SMS for a device. Each message is emitted
+   * once per connection; it stays pending on the server until the device reports
+   * a status, so a reconnecting device receives it again.
+   */
+  stream(deviceId: string): Observable<MessageEvent> {
+    const emittedSmsIds = new Set<string>()
+
+    const wakeups$ = merge(
+      of(deviceId),
+      this.pendingSmsCreated$.pipe(filter((id) => id === deviceId)),
+      interval(RESYNC_INTERVAL_MS),
+    )
+
+    const pendingSms$ = wakeups$.pipe(
+      concatMap(() =>
+        from(this.gatewayService.getPendingSMS(deviceId, STREAM_PAGE_SIZE)),
+      ),
+      map(({ messages }) => {
+        const pendingIds = new Set<string>(
+          messages.map((m) => m.smsId.toString()),
+        )
+
+        // Forget messages that are no longer pending so the set stays bounded
+        for (const smsId of emittedSmsIds) {
+          if (!pendingIds.has(smsId)) {
+            emittedSmsIds.delete(smsId)
+          }
+        }
+
+        const newMessages = messages.filter(
+          (m) => !emittedSmsIds.has(m.smsId.toString()),
+        )
+        newMessages.forEach((m) => emittedSmsIds.add(m.smsId.toString()))
+        return newMessages
+      }),
+      filter((newMessages) => newMessages.length > 0),
+      map(
+        (newMessages): MessageEvent => ({
+          type: 'pending-sms',
+          data: { count: newMessages.length, messages: newMessages },
+        }),
+      ),
+    )
+
+    const heartbeat$ = interval(HEARTBEAT_INTERVAL_MS).pipe(
+      map((): MessageEvent => ({ type: 'heartbeat', data: { at: Date.now() } })),
+    )
+
+    return merge(pendingSms$, heartbeat$)
+  }
+}
@@ -49,6 +49,13 @@ export class Device {
 
   @Prop({ type: Number, default: 0 })
   receivedSMSCount: number
+
+  // the device's latest metrics report, covering the interval since the one before
+  @Prop({ type: Object })
+  metrics: Record<string, any>
+
+  @Prop({ type: Date })
+  metricsReportedAt: Date
 }
 
 export const DeviceSchema = SchemaFactory.createForClass(Device)
@@ -34,6 +34,10 @@ export class SMS {
   @Prop({ type: Date })
   receivedAt: Date
 
+  // set by the device so a replayed upload is stored once
+  @Prop({ type: String })
+  idempotencyKey: string
+
   // fields for outgoing messages
   @Prop({ type: String })
   recipient: string
@@ -56,6 +60,16 @@ export class SMS {
   @Prop({ type: String, required: false })
   errorMessage: string
 
+  @Prop({ type: Number })
+  simSubscriptionId: number
+
+  @Prop({ type: Number })
+  attemptCount: number
+
+  // earlier attempts that failed over to another SIM
+  @Prop({ type: [Object] })
+  sendAttempts: Record<string, any>[]
+
   // @Prop({ type: String })
   // failureReason: string
 
@@ -71,3 +85,10 @@ export const SMSSchema = SchemaFactory.createForClass(SMS)
 
 
 SMSSchema.index({ device: 1, type: 1, receivedAt: -1 })
+SMSSchema.index(
+  { device: 1, idempotencyKey: 1 },
+  {
+    unique: true,
+    partialFilterExpression: { idempotencyKey: { $type: 'string' } },
+  },
+)